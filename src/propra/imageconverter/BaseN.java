@@ -1,18 +1,48 @@
 package propra.imageconverter;
 
 import propra.imageconverter.exceptions.InvalidEncodingException;
-import propra.imageconverter.handler.ByteHandler;
 
-import java.nio.ByteBuffer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.HashMap;
 
 /**
  * Handles BaseN (and especially Base32 Hex) encoding.
+ * <p>
+ * The encoder works on regions of byte arrays. Input bytes are processed in groups of {@link #maxInputBytes()}
+ * bytes, that are loaded into a long and split into {@link #maxInputCharacters()} characters of the alphabet.
+ * Decoding looks up every character in a table of 128 entries, indexed by its ASCII code, so the alphabet may only
+ * contain ASCII characters.
+ * </p>
+ * <p>
+ * As every group has a multiple of 8 characters, whole groups are en-/decoded 8 characters at a time: the characters
+ * are looked up in pairs in tables of all pairs of characters and loaded or stored as one long, like the lanes of a
+ * vector register. The tables are built for the alphabet, so this works for custom alphabets as well.
+ * Only the last group of an input may be shorter, it is en-/decoded character by character: it is padded with
+ * <code>0</code> bits for encoding and its incomplete byte is dropped for decoding. So an input, that is
+ * en-/decoded block by block, gives the same result as an input, that is en-/decoded at once, as long as the blocks
+ * are multiples of a group.
+ * </p>
  */
 public class BaseN {
 
+    /**
+     * Alphabet of base-32 hex encoding.
+     */
+    private static final String BASE_32_HEX_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUV";
+
+    /**
+     * Number of input bytes per group, indexed by the number of bits per character - 1.
+     */
+    private static final int[] GROUP_BYTES = {8, 8, 6, 8, 5, 6};
+
+    /**
+     * View to read and write longs in big endian byte order from byte arrays.
+     */
+    private static final VarHandle LONG_BIG_ENDIAN = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
     /**
      * ALphabet used for en-/decoding
      */
@@ -23,6 +53,50 @@ public class BaseN {
      */
     private boolean base32Hex = false;
 
+    /**
+     * Number of bits represented by one character.
+     */
+    private int bits;
+
+    /**
+     * Mask of the lowest {@link #bits} bits.
+     */
+    private int mask;
+
+    /**
+     * Number of input bytes per group.
+     */
+    private int groupBytes;
+
+    /**
+     * Number of characters per group.
+     */
+    private int groupCharacters;
+
+    /**
+     * ASCII codes of the characters of the alphabet, indexed by the value they represent.
+     */
+    private byte[] encodeTable;
+
+    /**
+     * Values represented by the ASCII characters, indexed by their code, <code>-1</code> for characters, that are
+     * not part of the alphabet.
+     */
+    private final byte[] decodeTable = new byte[128];
+
+    /**
+     * ASCII codes of two characters of the alphabet, the first one in the high byte, indexed by the value of the
+     * <code>2 * bits</code> bits they represent.
+     */
+    private short[] pairEncodeTable;
+
+    /**
+     * Values of the <code>2 * bits</code> bits represented by two ASCII characters, indexed by
+     * <code>(first &amp; 0x7F) &lt;&lt; 7 | (second &amp; 0x7F)</code>, <code>-1</code> if one of the characters
+     * is not part of the alphabet.
+     */
+    private short[] pairDecodeTable;
+
     /**
      * Constructs the default Base N Encoder, that encodes in base 32 hex
      * with alphabet <code>0123456789ABCDEFGHIJKLMNOPQRSTUV</code>.
@@ -34,7 +108,7 @@ public class BaseN {
      * @throws InvalidEncodingException if the length of the alphabet is not a power of two.
      */
     public BaseN(boolean base32Hex) throws InvalidEncodingException {
-        this("0123456789ABCDEFGHIJKLMNOPQRSTUV");
+        this(BASE_32_HEX_ALPHABET);
         this.base32Hex = base32Hex;
 
     }
@@ -43,7 +117,8 @@ public class BaseN {
      * Constructs a Base N Encoder with custom alphabet.
      *
      * @param alphabet alphabet that is used for this encoder.
-     * @throws InvalidEncodingException if the length of the alphabet is not a power of two.
+     * @throws InvalidEncodingException if the length of the alphabet is not a power of two,
+     *                                  or it contains characters, that are not ASCII characters.
      */
     public BaseN(String alphabet) throws InvalidEncodingException {
         this.setAlphabet(alphabet);
@@ -56,7 +131,7 @@ public class BaseN {
      * @throws InvalidEncodingException if the length of the alphabet is not a power of two.
      */
     public BaseN() throws InvalidEncodingException {
-        this("0123456789ABCDEFGHIJKLMNOPQRSTUV");
+        this(BASE_32_HEX_ALPHABET);
         this.base32Hex = true;
     }
 
@@ -70,17 +145,51 @@ public class BaseN {
     }
 
     /**
-     * Sets the alphabet for en-/decoding.
+     * Sets the alphabet for en-/decoding and builds the lookup tables.
      *
      * @param alphabet alphabet to be set.
      * @throws InvalidEncodingException if the given alphabet has an inappropriate length
-     *                                  (length is not a power of two).
+     *                                  (length is not a power of two), or it contains characters,
+     *                                  that are not ASCII characters.
      */
     public void setAlphabet(String alphabet) throws InvalidEncodingException {
         if (!checkLength(alphabet.length())) {
             throw new InvalidEncodingException("Length of encoding alphabet has to be a power of two and cannot be more than 64");
         }
+
+        byte[] encodeTable = new byte[alphabet.length()];
+        byte[] decodeTable = new byte[128];
+        Arrays.fill(decodeTable, (byte) -1);
+
+        for (int i = 0; i < alphabet.length(); i++) {
+            char c = alphabet.charAt(i);
+            if (c >= 128) {
+                throw new InvalidEncodingException("Encoding alphabet may only contain ASCII characters.");
+            }
+            encodeTable[i] = (byte) c;
+            // A character, that occurs twice, is decoded to its last position.
+            decodeTable[c] = (byte) i;
+        }
+
         this.alphabet = alphabet;
+        this.bits = Integer.numberOfTrailingZeros(alphabet.length());
+        this.mask = alphabet.length() - 1;
+        this.groupBytes = GROUP_BYTES[this.bits - 1];
+        this.groupCharacters = this.groupBytes * 8 / this.bits;
+        this.encodeTable = encodeTable;
+        System.arraycopy(decodeTable, 0, this.decodeTable, 0, decodeTable.length);
+
+        this.pairEncodeTable = new short[alphabet.length() * alphabet.length()];
+        for (int i = 0; i < this.pairEncodeTable.length; i++) {
+            this.pairEncodeTable[i] = (short) (encodeTable[i >>> this.bits] << 8 | encodeTable[i & this.mask]);
+        }
+
+        this.pairDecodeTable = new short[128 * 128];
+        for (int i = 0; i < this.pairDecodeTable.length; i++) {
+            int first = decodeTable[i >>> 7];
+            int second = decodeTable[i & 0x7F];
+            this.pairDecodeTable[i] = (short) (first < 0 || second < 0 ? -1 : first << this.bits | second);
+        }
     }
 
     /**
@@ -92,40 +201,23 @@ public class BaseN {
         return base32Hex;
     }
 
-    /**
-     * Converts the alphabet into a hash map, which is used for decoding,
-     * to identify the index in the alphabet quicker.
-     *
-     * @return hash map representing alphabet with character as key and index as value.
-     */
-    public HashMap<Character, Integer> getAlphabetMap() {
-        HashMap<Character, Integer> alphabetMap = new HashMap<>();
-
-        for (int i = 0; i < alphabet.length(); i++) {
-            alphabetMap.put(alphabet.charAt(i), i);
-        }
-
-        return alphabetMap;
-    }
-
     /**
      * Returns number of bits that can be represented by one character of the alphabet.
      *
      * @return bits.
      */
     public int getBits() {
-        int alphabetLength = alphabet.length();
-        return (int) (Math.log(alphabetLength) / Math.log(2));
+        return bits;
     }
 
     /**
      * Checks length of input alphabet.
      *
      * @param length length of alphabet.
-     * @return true, if if it's a power of two and not greater than 64.
+     * @return true, if if it's a power of two, at least 2 and not greater than 64.
      */
     private boolean checkLength(int length) {
-        return (length & (length - 1)) == 0 && length <= 64;
+        return (length & (length - 1)) == 0 && length >= 2 && length <= 64;
     }
 
     /**
@@ -135,26 +227,59 @@ public class BaseN {
      * @return encoded String.
      */
     public String encode(byte[] bytes) {
-        StringBuilder builder = new StringBuilder();
-        long toEncode = ByteHandler.byteArrayToLong(bytes, 0, ByteOrder.BIG_ENDIAN);
-        int numOutputCharacter = this.getNumOutputCharacter(bytes);
-        int mask = getMask();
-        int bits = this.getBits();
-        int offset = Long.BYTES * 8 - bits;
-
-        do {
-            int processTo = Math.min(numOutputCharacter, this.maxInputBytes());
-            for (int i = 0; i < processTo; i++) {
-                int index = (int) (toEncode >> offset) & mask;
-                toEncode <<= bits;
-
-                builder.append(this.alphabet.charAt(index));
+        byte[] chars = new byte[(int) this.encodedLength(bytes.length)];
+        this.encode(bytes, 0, bytes.length, chars, 0);
+
+        return new String(chars, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes a region of a byte array into ASCII characters.
+     *
+     * @param src       bytes to be encoded.
+     * @param srcOffset position of the first byte to be encoded.
+     * @param length    number of bytes to be encoded.
+     * @param dst       array, the ASCII codes of the characters are written to. Needs room for
+     *                  {@link #encodedLength(long)} characters.
+     * @param dstOffset position of the first character.
+     * @return number of written characters.
+     */
+    public int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        int groups = length / this.groupBytes;
+        int shift = 64 - this.bits;
+        int s = srcOffset;
+        int d = dstOffset;
+
+        int pairBits = 2 * this.bits;
+        int pairMask = (1 << pairBits) - 1;
+
+        for (int g = 0; g < groups; g++, s += this.groupBytes) {
+            // Bytes behind the group are shifted out, so a full long can be read, if the array is long enough.
+            long value = s + Long.BYTES <= src.length
+                    ? (long) LONG_BIG_ENDIAN.get(src, s)
+                    : this.loadGroup(src, s, this.groupBytes);
+
+            // Every group has a multiple of 8 characters, which are looked up in pairs and stored as one long.
+            for (int i = 0; i < this.groupCharacters; i += Long.BYTES, d += Long.BYTES) {
+                long chars = 0;
+                for (int pair = 0; pair < 4; pair++, value <<= pairBits) {
+                    chars = chars << 16 | (this.pairEncodeTable[(int) (value >>> (64 - pairBits)) & pairMask] & 0xFFFF);
+                }
+                LONG_BIG_ENDIAN.set(dst, d, chars);
             }
+        }
+
+        int remaining = srcOffset + length - s;
+        if (remaining > 0) {
+            long value = this.loadGroup(src, s, remaining);
+            int characters = (int) this.encodedLength(remaining);
 
-            numOutputCharacter -= processTo;
-        } while (numOutputCharacter > 0);
+            for (int i = 0; i < characters; i++, value <<= this.bits) {
+                dst[d++] = this.encodeTable[(int) (value >>> shift) & this.mask];
+            }
+        }
 
-        return builder.toString();
+        return d - dstOffset;
     }
 
     /**
@@ -176,36 +301,86 @@ public class BaseN {
      * @throws InvalidEncodingException if there happened an error during decoding.
      */
     public byte[] decode(String string) throws InvalidEncodingException {
-        ByteBuffer buf = ByteBuffer.allocate(this.getNumOutputBytes(string));
-        int bits = this.getBits();
-        HashMap<Character, Integer> alphabetMap = this.getAlphabetMap();
-
-        do {
-            int processTo = Math.min(string.length(), this.maxInputCharacters());
-
-            long decodedLong = 0;
-            for (int i = 0; i < processTo; i++) {
-                Integer index = alphabetMap.get(string.charAt(i));
-                if (index != null) {
-                    decodedLong = (decodedLong << bits) + index;
-                } else {
-                    throw new InvalidEncodingException("File contains a character, that is not part of the alphabet.");
+        byte[] chars = new byte[string.length()];
+        for (int i = 0; i < chars.length; i++) {
+            char c = string.charAt(i);
+            // Characters, that are not ASCII characters, are mapped onto a negative byte, which is never decoded.
+            chars[i] = c < 128 ? (byte) c : -1;
+        }
+
+        byte[] bytes = new byte[(int) this.decodedLength(chars.length)];
+        this.decode(chars, 0, chars.length, bytes, 0);
+
+        return bytes;
+    }
+
+    /**
+     * Decodes a region of ASCII characters into bytes.
+     *
+     * @param src       ASCII codes of the characters to be decoded.
+     * @param srcOffset position of the first character to be decoded.
+     * @param length    number of characters to be decoded.
+     * @param dst       array, the decoded bytes are written to. Needs room for {@link #decodedLength(long)} bytes.
+     * @param dstOffset position of the first decoded byte.
+     * @return number of written bytes.
+     * @throws InvalidEncodingException if a character is not part of the alphabet.
+     */
+    public int decode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) throws InvalidEncodingException {
+        int groups = length / this.groupCharacters;
+        int s = srcOffset;
+        int d = dstOffset;
+        // Negative, as soon as a character has been read, that is not part of the alphabet.
+        int invalid = 0;
+
+        // Has a high bit set, as soon as a character has been read, that is not an ASCII character.
+        long nonAscii = 0;
+        int pairBits = 2 * this.bits;
+
+        for (int g = 0; g < groups; g++, d += this.groupBytes) {
+            long value = 0;
+
+            // Every group has a multiple of 8 characters, which are loaded as one long and looked up in pairs.
+            for (int i = 0; i < this.groupCharacters; i += Long.BYTES, s += Long.BYTES) {
+                long chars = (long) LONG_BIG_ENDIAN.get(src, s);
+                nonAscii |= chars;
+                for (int shift = 48; shift >= 0; shift -= 16) {
+                    int pair = (int) (chars >>> shift);
+                    int index = this.pairDecodeTable[(pair >>> 1) & 0x3F80 | pair & 0x7F];
+                    invalid |= index;
+                    value = value << pairBits | index;
                 }
             }
+            value <<= 64 - this.groupBytes * 8;
 
-            // Shift decoded bits to the left most position in long
-            int shiftOperand = 64 - bits * processTo;
-            decodedLong <<= shiftOperand;
+            // A full long may only be written, if the next group overwrites the bytes behind this group.
+            if (this.groupBytes == Long.BYTES || g + 1 < groups) {
+                LONG_BIG_ENDIAN.set(dst, d, value);
+            } else {
+                this.storeGroup(value, dst, d, this.groupBytes);
+            }
+        }
 
-            int bytesInLong = Math.min(maxInputBytes(), this.getNumOutputBytes(string));
-            byte[] decodedBytes = Arrays.copyOf(ByteHandler.longToByteArray(decodedLong, ByteOrder.BIG_ENDIAN), bytesInLong);
-            buf.put(decodedBytes);
+        int remaining = srcOffset + length - s;
+        if (remaining > 0) {
+            long value = 0;
+            for (int i = 0; i < remaining; i++) {
+                int c = src[s++];
+                int index = this.decodeTable[c & 0x7F];
+                invalid |= c | index;
+                value = value << this.bits | index;
+            }
+            value <<= 64 - remaining * this.bits;
 
-            string = string.substring(processTo);
-        } while (string.length() > 0);
+            int numBytes = (int) this.decodedLength(remaining);
+            this.storeGroup(value, dst, d, numBytes);
+            d += numBytes;
+        }
+
+        if (invalid < 0 || (nonAscii & 0x8080808080808080L) != 0) {
+            throw new InvalidEncodingException("File contains a character, that is not part of the alphabet.");
+        }
 
-        // convert long back to byte array and trim that array to the calculated value of output bytes.
-        return buf.array();
+        return d - dstOffset;
     }
 
     /**
@@ -214,9 +389,7 @@ public class BaseN {
      * @return number of bytes.
      */
     public int maxInputBytes() {
-        int[] numBytes = new int[]{8, 8, 6, 8, 5, 6};
-
-        return numBytes[this.getBits() - 1];
+        return this.groupBytes;
     }
 
     /**
@@ -225,42 +398,57 @@ public class BaseN {
      * @return number of characters.
      */
     public int maxInputCharacters() {
-        return (int) Math.ceil(this.maxInputBytes() * 8F / this.getBits());
+        return this.groupCharacters;
     }
 
     /**
      * Calculates, how many characters will be returned while encoding, depending on the number of input bytes.
      *
-     * @param bytes input bytes.
+     * @param numBytes number of input bytes.
      * @return number of output characters.
      */
-    private int getNumOutputCharacter(byte[] bytes) {
-        return (int) Math.ceil(bytes.length * 8F / this.getBits());
+    public long encodedLength(long numBytes) {
+        return (numBytes * 8 + this.bits - 1) / this.bits;
     }
 
     /**
-     * Calculates, how many bytes will be returned while decoding, depending on the length of input string.
+     * Calculates, how many bytes will be returned while decoding, depending on the number of input characters.
      *
-     * @param string input string.
+     * @param numCharacters number of input characters.
      * @return number or output bytes.
      */
-    private int getNumOutputBytes(String string) {
-        return (int) Math.floor(string.length() / 8F * this.getBits());
+    public long decodedLength(long numCharacters) {
+        return numCharacters * this.bits / 8;
     }
 
     /**
-     * Calculates the mask, that is used for encoding.
-     * That mask represents the bits in an int, that will be encoded.
+     * Loads up to 8 bytes into a long, most significant byte first. Missing bytes are filled with <code>0</code>.
      *
-     * @return mask used for encoding.
+     * @param src      array to read from.
+     * @param offset   position of the first byte.
+     * @param numBytes number of bytes to be read.
+     * @return loaded bytes, left aligned.
      */
-    private int getMask() {
-        int mask = 0;
-        int bits = this.getBits();
-        for (int i = 0; i < bits; i++) {
-            mask = (mask << 1) + 1;
+    private long loadGroup(byte[] src, int offset, int numBytes) {
+        long value = 0;
+        for (int i = 0; i < numBytes; i++) {
+            value |= (src[offset + i] & 0xFFL) << (56 - 8 * i);
         }
 
-        return mask;
+        return value;
+    }
+
+    /**
+     * Stores the first bytes of a long, most significant byte first.
+     *
+     * @param value    bytes to be stored, left aligned.
+     * @param dst      array to write to.
+     * @param offset   position of the first byte.
+     * @param numBytes number of bytes to be written.
+     */
+    private void storeGroup(long value, byte[] dst, int offset, int numBytes) {
+        for (int i = 0; i < numBytes; i++) {
+            dst[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
     }
 }
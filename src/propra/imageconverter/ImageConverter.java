@@ -1,20 +1,29 @@
 package propra.imageconverter;
 
-import propra.imageconverter.exceptions.InvalidImageException;
+import propra.imageconverter.converter.ConversionResult;
+import propra.imageconverter.converter.Converter;
 import propra.imageconverter.handler.ArgumentHandler;
-import propra.imageconverter.image.*;
-import propra.imageconverter.io.*;
+import propra.imageconverter.io.BundleMember;
+import propra.imageconverter.server.ConversionServer;
+import propra.imageconverter.server.FolderWatcher;
+import propra.imageconverter.server.SharedQueueWorker;
 
-import java.io.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
 
 /**
  * ImageConverter is a Program, that can be used to convert images between TGA and ProPra format.
+ * This class is the commandline interface, the actual work is done by the {@link Converter}.
  */
 public class ImageConverter {
 
+    /**
+     * Converter used for all operations. It is stateless and can therefore be shared.
+     */
+    private static final Converter CONVERTER = new Converter();
+
     public static void main(String[] args) {
         try {
             ArgumentHandler argHandler = new ArgumentHandler(args);
@@ -23,59 +32,22 @@ public class ImageConverter {
                 encodeFile(argHandler);
             } else if (argHandler.getWorkMode() == WorkMode.Decode) {
                 decodeFile(argHandler);
+            } else if (argHandler.getWorkMode() == WorkMode.Server) {
+                runServer(argHandler);
+            } else if (argHandler.getWatchDir() != null) {
+                runWatcher(argHandler);
+            } else if (argHandler.getQueueDir() != null) {
+                runQueue(argHandler);
+            } else if (argHandler.getWorkMode() == WorkMode.TrainTree) {
+                trainTree(argHandler);
+            } else if (argHandler.getWorkMode() == WorkMode.CreateBundle) {
+                createBundle(argHandler);
+            } else if (argHandler.getWorkMode() == WorkMode.ListBundle) {
+                listBundle(argHandler);
+            } else if (argHandler.getWorkMode() == WorkMode.ExtractBundle) {
+                extractBundle(argHandler);
             } else {
-                // Convert two (for tga) or three (for propra) times using all compression methods that exist,
-                // identify the smallest one and remove the other one(s)
-                if (argHandler.getWorkMode() == WorkMode.ConvertAuto) {
-                    String outExtension = argHandler.getOutFileExtension();
-                    File outFile = argHandler.getOutFile();
-                    File uncompressedOutFile = new File(outFile.getAbsolutePath() + "uncompressed." + outExtension);
-                    File rleOutFile = new File(outFile.getAbsolutePath() + "rle." + outExtension);
-                    File smallestFile;
-
-                    // Create uncompressed file.
-                    argHandler.setOutFile(uncompressedOutFile);
-                    argHandler.setWorkMode(WorkMode.ConvertUncompressed);
-                    convertFile(argHandler);
-                    System.out.println("");
-
-                    // Create rle compressed file.
-                    argHandler.setOutFile(rleOutFile);
-                    argHandler.setWorkMode(WorkMode.ConvertRLE);
-                    convertFile(argHandler);
-                    System.out.println("");
-
-                    if (uncompressedOutFile.length() < rleOutFile.length()) {
-                        smallestFile = uncompressedOutFile;
-                        rleOutFile.delete();
-                    } else {
-                        smallestFile = rleOutFile;
-                        uncompressedOutFile.delete();
-                    }
-
-                    // Create huffman compressed file (only for propra files.
-                    if (outFile.getAbsolutePath().endsWith("propra")) {
-                        File huffmanOutFile = new File(outFile.getAbsolutePath() + "huffman." + outExtension);
-                        argHandler.setOutFile(huffmanOutFile);
-                        argHandler.setWorkMode(WorkMode.ConvertHuffman);
-                        convertFile(argHandler);
-                        System.out.println();
-
-                        if (huffmanOutFile.length() < smallestFile.length()) {
-                            smallestFile.delete();
-                            smallestFile = huffmanOutFile;
-                        } else {
-                            huffmanOutFile.delete();
-                        }
-                    }
-
-                    System.out.println("Identified " + smallestFile.getName() + " as smallest file.");
-                    System.out.println("Rename " + smallestFile.getName() + " => " + outFile.getName());
-                    smallestFile.renameTo(outFile);
-
-                } else {
-                    convertFile(argHandler);
-                }
+                convertFile(argHandler);
             }
         } catch (Exception e) {
             System.err.println(e.getMessage());
@@ -84,74 +56,30 @@ public class ImageConverter {
     }
 
     /**
-     * Convert file from either TGA format to ProPra or vice versa. Can handle uncompressed of rle compressed files.
+     * Convert file from either TGA format to ProPra or vice versa. Can handle uncompressed, rle or huffman compressed
+     * files. For auto compression, the smallest of all possible compressions is kept.
      *
      * @param argHandler ArgumentHandler, that contains both paths to input and output file.
      */
     public static void convertFile(ArgumentHandler argHandler) {
-        System.out.println(String.format("Convert File %s -> %s", argHandler.getInFile(), argHandler.getOutFile()));
-        ImageHeader inputHeader = null;
-        ImageHeader outputHeader = null;
-        Checksum inputChecksum = new Checksum(ProPraImageHeader.PIXEL_ORDER);
-        Checksum outputChecksum = new Checksum(ProPraImageHeader.PIXEL_ORDER);
-        long outputDataSegmentSize = 0;
-        Node tree = null;
-
-        if (argHandler.getWorkMode() == WorkMode.ConvertHuffman) {
-            tree = buildTree(argHandler);
-        }
-
-        try (ImageReader reader = getReader(argHandler);
-             ImageWriter writer = getWriter(argHandler)) {
+        // When the image is written to stdout, messages must not get mixed into the image data.
+        PrintStream log = argHandler.isStdOut() ? System.err : System.out;
+        log.println(String.format("Convert File %s -> %s", argHandler.getInFile(), argHandler.getOutFile()));
 
-            System.out.println("Read/Write file header.");
-            inputHeader = reader.readHeader();
-            outputHeader = convertHeader(inputHeader, argHandler, tree);
-            writer.write(outputHeader.toByteArray());
-
-            System.out.println("Convert image.");
-            for (long i = 0; i < inputHeader.getImgHeight(); i++) {
-                Pixel[] pixels = reader.readRow(inputHeader, inputChecksum);
-
-                if (pixels != null) {
-                    writer.writeRow(pixels, outputHeader, outputChecksum);
-                } else {
-                    throw new InvalidImageException("Less image data to read, than expected.");
-                }
-            }
-
-            // Write rest of String buffer for huffman compression.
-            if (writer instanceof ProPraWriter) {
-                if (outputHeader.getCompression() == Compression.Huffman) {
-                    ((ProPraWriter) writer).flush(outputChecksum);
-                }
-            }
-
-            // Check whether there is optional data, that should not be there. If optional data is allowed, just ignore it.
-            if (!reader.allowOptionalData()) {
-                if (reader.read() != -1) {
-                    throw new InvalidImageException("Found optional data in a file format, where no optional data is allowed.");
-                }
-            }
+        try {
+            ConversionResult result = CONVERTER.convert(argHandler.createRequest());
 
-            // Validate Checksum of ProPra image.
-            if (inputHeader instanceof ProPraImageHeader) {
-                ((ProPraImageHeader) inputHeader).reValidateHeader(inputChecksum, reader.getDataSegmentSize());
+            // The images of a bundle are compressed differently, so no single compression is reported for them.
+            if (argHandler.getWorkMode() == WorkMode.ConvertAuto && result.getWorkMode() != WorkMode.ConvertAuto) {
+                log.println("Identified " + result.getWorkMode() + " as smallest output.");
             }
-
-            outputDataSegmentSize = writer.getDataSegmentSize();
+            log.println(result);
         } catch (Exception e) {
-            e.printStackTrace();
             System.err.println("Unexpected error occurred during conversion process:\n" + e.toString());
             System.exit(123);
         }
 
-        // If we have a ProPra Image as output, we need to update the calculated checksum.
-        if (outputHeader instanceof ProPraImageHeader) {
-            ((ProPraImageHeader) outputHeader).updateHeader(argHandler.getOutFile(), outputChecksum, outputDataSegmentSize);
-        }
-
-        System.out.println("Conversion finished successfully");
+        log.println("Conversion finished successfully");
     }
 
     /**
@@ -160,30 +88,10 @@ public class ImageConverter {
      * @param argHandler ArgumentHandler, that contains both paths to input and output file.
      */
     public static void encodeFile(ArgumentHandler argHandler) {
-        BaseN encoder = argHandler.getEncoder();
-        int maxInputBytes = encoder.maxInputBytes();
-        byte[] bytesRead = new byte[maxInputBytes];
-        int numBytesRead = 0;
-
         System.out.println(String.format("Encode File %s -> %s", argHandler.getInFile(), argHandler.getOutFile()));
 
-        try (BufferedInputStream reader = new BufferedInputStream(new FileInputStream(argHandler.getInFile()));
-             BufferedWriter writer = new BufferedWriter(new FileWriter(argHandler.getOutFile()))) {
-
-            if (!encoder.isBase32Hex()) {
-                writer.write(encoder.getAlphabet());
-                writer.write(0x0A); //Line Feed
-            }
-
-            while ((numBytesRead = reader.read(bytesRead)) > 0) {
-                if (numBytesRead != maxInputBytes) {
-                    bytesRead = Arrays.copyOf(bytesRead, numBytesRead);
-                }
-
-                writer.write(encoder.encode(bytesRead));
-            }
-
-            writer.flush();
+        try {
+            CONVERTER.encode(argHandler.createRequest());
         } catch (Exception e) {
             System.err.println("Unexpected error occurred during encoding process:\n" + e.toString());
             System.exit(123);
@@ -198,30 +106,10 @@ public class ImageConverter {
      * @param argHandler ArgumentHandler, that contains both paths to input and output file.
      */
     public static void decodeFile(ArgumentHandler argHandler) {
-        BaseN encoder = argHandler.getEncoder();
-        int maxInputCharacters = encoder.maxInputCharacters();
-        char[] charsRead = new char[maxInputCharacters];
-        int numChardRead = 0;
-
         System.out.println(String.format("Decode File %s -> %s", argHandler.getInFile(), argHandler.getOutFile()));
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(argHandler.getInFile()));
-             BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(argHandler.getOutFile()))) {
-
-            if (!encoder.isBase32Hex()) {
-                encoder.setAlphabet(reader.readLine());
-            }
-
-
-            while ((numChardRead = reader.read(charsRead)) > 0) {
-                if (numChardRead != maxInputCharacters) {
-                    charsRead = Arrays.copyOf(charsRead, numChardRead);
-                }
-
-                writer.write(encoder.decode(charsRead));
-            }
-
-            writer.flush();
+        try {
+            CONVERTER.decode(argHandler.createRequest());
         } catch (Exception e) {
             System.err.println("Unexpected error occurred during decoding process:\n" + e.toString());
             System.exit(123);
@@ -231,143 +119,163 @@ public class ImageConverter {
     }
 
     /**
-     * Reads the input File once to build the huffman tree.
+     * Trains a huffman tree with the given images and writes it into a tree file.
      *
-     * @param argHandler ArgumentHandler, that contains both paths to input and output file.
-     * @return huffman tree.
+     * @param argHandler ArgumentHandler, that contains the images and the path of the tree file.
      */
-    public static Node buildTree(ArgumentHandler argHandler) {
-        System.out.println("Build Huffman Tree");
-        int[] byteCount = new int[256];
-
-        try (ImageReader reader = getReader(argHandler)) {
-            ImageHeader inputHeader = reader.readHeader();
-            Checksum chk = new Checksum();
-
-            for (long i = 0; i < inputHeader.getImgHeight(); i++) {
-                Pixel[] pixels = reader.readRow(inputHeader, chk);
-                for (Pixel pixel : pixels) {
-                    for (byte b : pixel.getPixel(inputHeader.getPixelOrder())) {
-                        byteCount[Byte.toUnsignedInt(b)]++;
-                    }
-                }
-            }
-        } catch (IOException | InvalidImageException e) {
-            e.printStackTrace();
+    public static void trainTree(ArgumentHandler argHandler) {
+        System.out.println(String.format("Train huffman tree -> %s", argHandler.getTreeFile()));
+
+        try {
+            List<Path> paths = argHandler.getImagePaths();
+            ConversionResult result = CONVERTER.trainTree(paths, argHandler.getTreeFile().toPath(),
+                    argHandler.getHuffmanMaxLength());
+            System.out.println(String.format("Trained with %d images.", paths.size()));
+            System.out.println(result);
+        } catch (Exception e) {
+            System.err.println("Unexpected error occurred during training process:\n" + e.toString());
+            System.exit(123);
         }
 
-        ArrayList<Node> nodeList = byteCountToNodeList(byteCount);
+        System.out.println("Training finished successfully");
+    }
 
-        while (nodeList.size() > 1) {
-            Collections.sort(nodeList);
+    /**
+     * Creates a bundle of the given images.
+     *
+     * @param argHandler ArgumentHandler, that contains the images and the path of the bundle.
+     */
+    public static void createBundle(ArgumentHandler argHandler) {
+        System.out.println(String.format("Create bundle -> %s", argHandler.getBundleFile()));
 
-            Node newNode = new Node(nodeList.get(0), nodeList.get(1));
-            nodeList.remove(1);
-            nodeList.remove(0);
-            nodeList.add(newNode);
+        try {
+            List<Path> paths = argHandler.getImagePaths();
+            ConversionResult result = CONVERTER.createBundle(paths, argHandler.getBundleFile().toPath());
+            System.out.println(String.format("Bundled %d images.", paths.size()));
+            System.out.println(result);
+        } catch (Exception e) {
+            System.err.println("Unexpected error occurred during bundling process:\n" + e.toString());
+            System.exit(123);
         }
 
-        Node tree = nodeList.get(0);
+        System.out.println("Bundling finished successfully");
+    }
 
-        // Handle the case, that the tree consists of only 1 node.
-        if (tree.isLeave() && tree.isRoot()) {
-            return new Node(tree, new Node((byte) (tree.getSymbol() + 1), 1));
+    /**
+     * Lists the images of a bundle.
+     *
+     * @param argHandler ArgumentHandler, that contains the path of the bundle.
+     */
+    public static void listBundle(ArgumentHandler argHandler) {
+        try {
+            List<BundleMember> members = CONVERTER.listBundle(argHandler.getBundleFile().toPath());
+            for (BundleMember member : members) {
+                System.out.println(member);
+            }
+            System.out.println(String.format("Bundle %s contains %d images.", argHandler.getBundleFile(), members.size()));
+        } catch (Exception e) {
+            System.err.println("Unexpected error occurred during listing process:\n" + e.toString());
+            System.exit(123);
         }
-
-        return tree;
     }
 
     /**
-     * Returns the suitable reader for the input file format.
-     * This application can (at the moment) only handle tga or propra images. And as we verified in ArgumentHandler, that
-     * the input is either one of those formats, we know, that if the input file is not in tga format, it has to be in propra format instead.
+     * Extracts all images of a bundle into a directory.
      *
-     * @param argHandler ArgumentHandler, that contains both paths to input and output file.
-     * @return suitable reader.
-     * @throws FileNotFoundException if the input file does not exist.
+     * @param argHandler ArgumentHandler, that contains the path of the bundle and the output directory.
      */
-    private static ImageReader getReader(ArgumentHandler argHandler) throws IOException {
-        if (argHandler.getInFileExtension().equals("tga"))
-            return new TGAReader(new FileInputStream(argHandler.getInFile()));
+    public static void extractBundle(ArgumentHandler argHandler) {
+        System.out.println(String.format("Extract bundle %s -> %s", argHandler.getBundleFile(), argHandler.getOutFile()));
 
-        return new ProPraReader(new FileInputStream(argHandler.getInFile()));
+        try {
+            System.out.println(CONVERTER.extractBundle(argHandler.getBundleFile().toPath(),
+                    argHandler.getOutFile().toPath()));
+        } catch (Exception e) {
+            System.err.println("Unexpected error occurred during extraction process:\n" + e.toString());
+            System.exit(123);
+        }
+
+        System.out.println("Extraction finished successfully");
     }
 
     /**
-     * Returns the suitable writer for the input file format.
-     * This application can (at the moment) only handle tga or propra images. And as we verified in ArgumentHandler, that
-     * the input is either one of those formats, we know, that if the input file is not in tga format, it has to be in propra format instead.
+     * Runs the conversion server until it gets shut down, either by a request to the server or by terminating the JVM.
+     * In both cases, all accepted jobs are finished first.
      *
-     * @param argHandler ArgumentHandler, that contains both paths to input and output file.
-     * @return suitable writer.
-     * @throws FileNotFoundException if the input file does not exist.
+     * @param argHandler ArgumentHandler, that contains port, number of threads, queue depth and memory budget.
+     * @throws Exception if the server cannot be started.
      */
-    private static ImageWriter getWriter(ArgumentHandler argHandler) throws IOException {
-        if (argHandler.getOutFileExtension().equals("propra"))
-            return new ProPraWriter(new FileOutputStream(argHandler.getOutFile()));
-
-        return new ImageWriter(new FileOutputStream(argHandler.getOutFile()));
+    public static void runServer(ArgumentHandler argHandler) throws Exception {
+        ConversionServer server = new ConversionServer(createServiceConverter(), argHandler.getPort(), argHandler.getThreads(),
+                argHandler.getQueueDepth(), argHandler.getMemoryBudget(), argHandler.getSchedulingPolicy());
+        Runtime.getRuntime().addShutdownHook(new Thread(server::drain));
+
+        server.start();
+        System.out.println(String.format("Conversion server listening on port %d with %d threads, queue depth %d and memory budget %d MiB",
+                server.getPort(), argHandler.getThreads(), argHandler.getQueueDepth(),
+                argHandler.getMemoryBudget() / (1024 * 1024)));
+        server.awaitStop();
+        System.out.println("Conversion server stopped");
     }
 
     /**
-     * converts the read header into the suitable output header.
+     * Watches a directory and converts the images dropped into it, until the JVM gets terminated.
+     * All started conversions are finished first, afterwards the statistics of the watcher are printed.
      *
-     * @param inputHeader header from input file.
-     * @param argHandler  ArgumentHandler, that contains both paths to input and output file.
-     * @param tree        Huffman tree for output header (in case of conversion to huffman compressed propra file.
-     *                    Otherwise this is <code>null</code>
-     * @return output header.
-     * @throws InvalidImageException if constructed output header is invalid.
+     * @param argHandler ArgumentHandler, that contains the watched directory, the output directory, the output format,
+     *                   the compression, the number of threads and the memory budget.
+     * @throws Exception if the directory cannot be watched.
      */
-    private static ImageHeader convertHeader(ImageHeader inputHeader, ArgumentHandler argHandler, Node tree) throws InvalidImageException {
-        short imgWidth = inputHeader.getImgWidth();
-        short imgHeight = inputHeader.getImgHeight();
-        byte pixelDepth = inputHeader.getPixelDepth();
-        Compression compression;
-        switch (argHandler.getWorkMode()) {
-            case ConvertRLE:
-                compression = Compression.RLE;
-                break;
-            case ConvertHuffman:
-                compression = Compression.Huffman;
-                break;
-            default:
-                compression = Compression.Uncompressed;
-        }
-
-        if (argHandler.getOutFileExtension().equals("tga")) {
-            byte imageIDLength = 0;
-            byte imageType = (byte) (argHandler.getWorkMode() == WorkMode.ConvertRLE ? 10 : 2);
-            short xOrigin = 0;
-            short yOrigin = inputHeader.getImgHeight();
-            byte imgDescriptor = 0x20;
-
-            return new TGAImageHeader(imageIDLength, imageType, xOrigin, yOrigin, imgWidth, imgHeight, pixelDepth, imgDescriptor, compression);
-        } else {
-            String magic = "ProPraWS19";
-            long dataSegmentSize = imgWidth * imgHeight * (pixelDepth / 8);
-            // Checksum will be 0 first, as we cannot set the real checksum, before all pixels are read
-            int checksum = 0;
-
-            return new ProPraImageHeader(magic, imgWidth, imgHeight, pixelDepth, compression, dataSegmentSize, checksum, tree);
-        }
+    public static void runWatcher(ArgumentHandler argHandler) throws Exception {
+        FolderWatcher watcher = new FolderWatcher(createServiceConverter(), argHandler.createRequest(),
+                argHandler.getWatchDir().toPath(), argHandler.getOutFile().toPath(), argHandler.getThreads(),
+                argHandler.getMemoryBudget(), argHandler.getSchedulingPolicy());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.drain();
+            System.out.print(watcher.getStatus());
+        }));
+
+        watcher.start();
+        System.out.println(String.format("Watching %s -> %s with %d threads and memory budget %d MiB",
+                argHandler.getWatchDir(), argHandler.getOutFile(), argHandler.getThreads(),
+                argHandler.getMemoryBudget() / (1024 * 1024)));
+        watcher.awaitStop();
     }
 
     /**
-     * Converts the byteCount array into an ArrayList of Nodes, that only contains nodes with a weight.
+     * Converts the images of a queue directory, that is shared with other converter processes, until the queue is
+     * empty. When the JVM gets terminated, the claimed images are finished first. Afterwards the statistics of this
+     * process are printed.
      *
-     * @param byteCount array to be converted.
-     * @return ArrayList of Nodes.
+     * @param argHandler ArgumentHandler, that contains the queue directory, the output directory, the output format,
+     *                   the compression, the number of threads and the memory budget.
+     * @throws Exception if the queue cannot be processed.
      */
-    public static ArrayList<Node> byteCountToNodeList(int[] byteCount) {
-        ArrayList<Node> list = new ArrayList<>();
-
-        for (int i = 0; i < byteCount.length; i++) {
-            if (byteCount[i] > 0) {
-                list.add(new Node((byte) i, byteCount[i]));
-            }
-        }
+    public static void runQueue(ArgumentHandler argHandler) throws Exception {
+        SharedQueueWorker worker = new SharedQueueWorker(createServiceConverter(), argHandler.createRequest(),
+                argHandler.getQueueDir().toPath(), argHandler.getOutFile().toPath(), argHandler.getThreads(),
+                argHandler.getMemoryBudget(), argHandler.getSchedulingPolicy());
+        Runtime.getRuntime().addShutdownHook(new Thread(worker::stop));
+
+        System.out.println(String.format("Processing queue %s -> %s as %s with %d threads and memory budget %d MiB",
+                argHandler.getQueueDir(), argHandler.getOutFile(), worker.getNodeId(), argHandler.getThreads(),
+                argHandler.getMemoryBudget() / (1024 * 1024)));
+        worker.run();
+        System.out.print(worker.getStatus());
+    }
 
-        return list;
+    /**
+     * Creates the converter of the long-running modes. Its image files are read and written on a pool of daemon
+     * threads, that grows with the number of running conversions, so that the fixed number of conversion workers
+     * does not wait for the storage.
+     *
+     * @return converter shared by all conversions of the server or watcher.
+     */
+    private static Converter createServiceConverter() {
+        return new Converter(Converter.DEFAULT_SPOOL_MEMORY_LIMIT, Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "conversion-io");
+            thread.setDaemon(true);
+            return thread;
+        }));
     }
 }
@@ -4,5 +4,6 @@ package propra.imageconverter;
  * Work mode for the current run of the Image Converter.
  */
 public enum WorkMode {
-    Encode, Decode, ConvertRLE, ConvertUncompressed, ConvertHuffman, ConvertAuto;
+    Encode, Decode, ConvertRLE, ConvertUncompressed, ConvertHuffman, ConvertAuto, Server, TrainTree,
+    CreateBundle, ListBundle, ExtractBundle;
 }
@@ -0,0 +1,531 @@
+package propra.imageconverter.converter;
+
+import propra.imageconverter.BaseN;
+import propra.imageconverter.WorkMode;
+import propra.imageconverter.image.ImageFormat;
+import propra.imageconverter.image.RLEMode;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a single job for the {@link Converter}: where to read from, where to write to and what to do.
+ * Input and output can either be a path or a stream. Streams are owned by the caller and are not closed by the
+ * converter. For paths, the image format gets identified by the file extension, unless it is set explicitly.
+ * If the format of the input is still unknown, the converter identifies it by the first bytes of the input.
+ * <p>
+ * A request is not meant to be shared between threads, create one request per conversion instead.
+ * </p>
+ */
+public class ConversionRequest {
+
+    /**
+     * Path of the input file, or <code>null</code> if input is read from {@link #inStream}.
+     */
+    private Path inPath;
+
+    /**
+     * Paths of all images, a huffman tree is trained with or a bundle is created of, or <code>null</code> if only
+     * {@link #inPath} is used.
+     */
+    private List<Path> imagePaths;
+
+    /**
+     * Input stream, or <code>null</code> if input is read from {@link #inPath}.
+     */
+    private InputStream inStream;
+
+    /**
+     * Format of the input image.
+     */
+    private ImageFormat inFormat;
+
+    /**
+     * Path of the output file, or <code>null</code> if output is written to {@link #outStream}.
+     */
+    private Path outPath;
+
+    /**
+     * Output stream, or <code>null</code> if output is written to {@link #outPath}.
+     */
+    private OutputStream outStream;
+
+    /**
+     * Format of the output image.
+     */
+    private ImageFormat outFormat;
+
+    /**
+     * Operation to be executed.
+     */
+    private WorkMode workMode;
+
+    /**
+     * Encoder used for Base-N encoding and decoding.
+     */
+    private BaseN encoder;
+
+    /**
+     * Encoder, the input image of a conversion is Base-N encoded with, or <code>null</code> for a plain image.
+     */
+    private BaseN inEncoding;
+
+    /**
+     * Encoder, the output image of a conversion gets Base-N encoded with, or <code>null</code> for a plain image.
+     */
+    private BaseN outEncoding;
+
+    /**
+     * Whether the output image of a conversion gets gzip compressed.
+     */
+    private boolean gzipOutput = false;
+
+    /**
+     * Strategy used to split rows into packets for rle compression.
+     */
+    private RLEMode rleMode = RLEMode.Greedy;
+
+    /**
+     * Maximum length of a huffman code in bits, <code>0</code> for no limit.
+     */
+    private int huffmanMaxLength = 0;
+
+    /**
+     * Path of a tree file, whose huffman tree is used instead of building one from the input.
+     */
+    private Path huffmanTreePath;
+
+    /**
+     * Share of rows the huffman tree is built from, <code>1</code> for all rows.
+     */
+    private double huffmanSample = 1;
+
+    /**
+     * Whether large files are en-/decoded in Base-N encoding on several threads.
+     */
+    private boolean parallel = false;
+
+    /**
+     * Constructs a request that reads from and writes to files.
+     *
+     * @param inPath   path of input file.
+     * @param outPath  path of output file.
+     * @param workMode operation to be executed.
+     */
+    public ConversionRequest(Path inPath, Path outPath, WorkMode workMode) {
+        this.inPath = inPath;
+        this.outPath = outPath;
+        this.workMode = workMode;
+    }
+
+    /**
+     * Constructs a request that reads from and writes to streams.
+     *
+     * @param inStream  input stream.
+     * @param inFormat  format of input image (ignored for encoding and decoding).
+     * @param outStream output stream.
+     * @param outFormat format of output image (ignored for encoding and decoding).
+     * @param workMode  operation to be executed.
+     */
+    public ConversionRequest(InputStream inStream, ImageFormat inFormat, OutputStream outStream, ImageFormat outFormat,
+                             WorkMode workMode) {
+        this.inStream = inStream;
+        this.inFormat = inFormat;
+        this.outStream = outStream;
+        this.outFormat = outFormat;
+        this.workMode = workMode;
+    }
+
+    /**
+     * Constructs a copy of another request.
+     *
+     * @param other request to be copied.
+     */
+    public ConversionRequest(ConversionRequest other) {
+        this.inPath = other.inPath;
+        this.imagePaths = other.imagePaths;
+        this.inStream = other.inStream;
+        this.inFormat = other.inFormat;
+        this.outPath = other.outPath;
+        this.outStream = other.outStream;
+        this.outFormat = other.outFormat;
+        this.workMode = other.workMode;
+        this.encoder = other.encoder;
+        this.inEncoding = other.inEncoding;
+        this.outEncoding = other.outEncoding;
+        this.gzipOutput = other.gzipOutput;
+        this.rleMode = other.rleMode;
+        this.huffmanMaxLength = other.huffmanMaxLength;
+        this.huffmanTreePath = other.huffmanTreePath;
+        this.huffmanSample = other.huffmanSample;
+        this.parallel = other.parallel;
+    }
+
+    /**
+     * Returns path of the input file.
+     *
+     * @return inPath, or <code>null</code> if input is a stream.
+     */
+    public Path getInPath() {
+        return inPath;
+    }
+
+    /**
+     * Sets a file as input, replacing a previously set input. The format is identified by the extension of the file
+     * again.
+     *
+     * @param inPath path of input file.
+     */
+    public void setInPath(Path inPath) {
+        this.inPath = inPath;
+        this.inStream = null;
+        this.inFormat = null;
+    }
+
+    /**
+     * Returns paths of all images, a huffman tree is trained with or a bundle is created of.
+     *
+     * @return imagePaths, or only the path of the input file, if they have not been set.
+     */
+    public List<Path> getImagePaths() {
+        if (imagePaths == null) {
+            return inPath != null ? Collections.singletonList(inPath) : Collections.emptyList();
+        }
+
+        return imagePaths;
+    }
+
+    /**
+     * Sets paths of all images, a huffman tree is trained with or a bundle is created of. Directories have to be
+     * replaced by their images before.
+     *
+     * @param imagePaths paths of the images.
+     */
+    public void setImagePaths(List<Path> imagePaths) {
+        this.imagePaths = imagePaths;
+    }
+
+    /**
+     * Returns input stream.
+     *
+     * @return inStream, or <code>null</code> if input is a file.
+     */
+    public InputStream getInStream() {
+        return inStream;
+    }
+
+    /**
+     * Sets an input stream as input, replacing a previously set input.
+     *
+     * @param inStream input stream.
+     * @param inFormat format of input image.
+     */
+    public void setInput(InputStream inStream, ImageFormat inFormat) {
+        this.inPath = null;
+        this.inStream = inStream;
+        this.inFormat = inFormat;
+    }
+
+    /**
+     * Returns format of the input image. If not set explicitly, it is identified by the extension of the input file.
+     * The extension of a Base-N encoded input file is skipped, like <code>.base-32</code> of
+     * <code>image.tga.base-32</code>.
+     *
+     * @return inFormat, or <code>null</code> if the format is unknown.
+     */
+    public ImageFormat getInFormat() {
+        if (inFormat == null && inPath != null) {
+            return getImageFormat(inPath, inEncoding != null);
+        }
+
+        return inFormat;
+    }
+
+    /**
+     * Sets format of the input image.
+     *
+     * @param inFormat format to be set.
+     */
+    public void setInFormat(ImageFormat inFormat) {
+        this.inFormat = inFormat;
+    }
+
+    /**
+     * Returns path of the output file.
+     *
+     * @return outPath, or <code>null</code> if output is a stream.
+     */
+    public Path getOutPath() {
+        return outPath;
+    }
+
+    /**
+     * Sets a file as output, replacing a previously set output. Format is kept, if it was set explicitly before.
+     *
+     * @param outPath path of output file.
+     */
+    public void setOutPath(Path outPath) {
+        this.outFormat = this.getOutFormat();
+        this.outPath = outPath;
+        this.outStream = null;
+    }
+
+    /**
+     * Returns output stream.
+     *
+     * @return outStream, or <code>null</code> if output is a file.
+     */
+    public OutputStream getOutStream() {
+        return outStream;
+    }
+
+    /**
+     * Sets an output stream as output, replacing a previously set output.
+     *
+     * @param outStream output stream.
+     * @param outFormat format of output image.
+     */
+    public void setOutput(OutputStream outStream, ImageFormat outFormat) {
+        this.outPath = null;
+        this.outStream = outStream;
+        this.outFormat = outFormat;
+    }
+
+    /**
+     * Returns format of the output image. If not set explicitly, it is identified by the extension of the output file.
+     * The extension of a Base-N encoded output file is skipped, like <code>.base-32</code> of
+     * <code>image.tga.base-32</code>.
+     *
+     * @return outFormat, or <code>null</code> if the format is unknown.
+     */
+    public ImageFormat getOutFormat() {
+        if (outFormat == null && outPath != null) {
+            return getImageFormat(outPath, outEncoding != null);
+        }
+
+        return outFormat;
+    }
+
+    /**
+     * Sets format of the output image.
+     *
+     * @param outFormat format to be set.
+     */
+    public void setOutFormat(ImageFormat outFormat) {
+        this.outFormat = outFormat;
+    }
+
+    /**
+     * Returns operation to be executed.
+     *
+     * @return workMode.
+     */
+    public WorkMode getWorkMode() {
+        return workMode;
+    }
+
+    /**
+     * Sets operation to be executed.
+     *
+     * @param workMode work mode to be set.
+     */
+    public void setWorkMode(WorkMode workMode) {
+        this.workMode = workMode;
+    }
+
+    /**
+     * Returns encoder used for Base-N encoding and decoding.
+     *
+     * @return encoder.
+     */
+    public BaseN getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Sets encoder used for Base-N encoding and decoding.
+     * For decoding with a custom alphabet, the alphabet is read from the input, so the encoder itself is not modified.
+     *
+     * @param encoder encoder to be set.
+     */
+    public void setEncoder(BaseN encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Returns strategy used to split rows into packets for rle compression.
+     *
+     * @return rleMode.
+     */
+    public RLEMode getRLEMode() {
+        return rleMode;
+    }
+
+    /**
+     * Sets strategy used to split rows into packets for rle compression.
+     *
+     * @param rleMode rle mode to be set.
+     */
+    public void setRLEMode(RLEMode rleMode) {
+        this.rleMode = rleMode;
+    }
+
+    /**
+     * Returns maximum length of a huffman code in bits.
+     *
+     * @return huffmanMaxLength, <code>0</code> for no limit.
+     */
+    public int getHuffmanMaxLength() {
+        return huffmanMaxLength;
+    }
+
+    /**
+     * Sets maximum length of a huffman code in bits.
+     *
+     * @param huffmanMaxLength maximum length to be set, <code>0</code> for no limit.
+     */
+    public void setHuffmanMaxLength(int huffmanMaxLength) {
+        this.huffmanMaxLength = huffmanMaxLength;
+    }
+
+    /**
+     * Returns path of a tree file, whose huffman tree is used instead of building one from the input.
+     *
+     * @return huffmanTreePath, or <code>null</code> if the tree is built from the input.
+     */
+    public Path getHuffmanTreePath() {
+        return huffmanTreePath;
+    }
+
+    /**
+     * Sets path of a tree file, whose huffman tree is used instead of building one from the input.
+     * The maximum length of a huffman code is not applied to such a tree.
+     *
+     * @param huffmanTreePath path of the tree file, or <code>null</code> to build the tree from the input.
+     */
+    public void setHuffmanTreePath(Path huffmanTreePath) {
+        this.huffmanTreePath = huffmanTreePath;
+    }
+
+    /**
+     * Returns share of rows the huffman tree is built from.
+     *
+     * @return huffmanSample, <code>1</code> for all rows.
+     */
+    public double getHuffmanSample() {
+        return huffmanSample;
+    }
+
+    /**
+     * Sets share of rows the huffman tree is built from. If less than all rows are used, every byte gets a code,
+     * also if it does not occur in the sample.
+     *
+     * @param huffmanSample share of rows greater than 0 and at most 1.
+     * @throws IllegalArgumentException if the share is out of range.
+     */
+    public void setHuffmanSample(double huffmanSample) {
+        if (!(huffmanSample > 0 && huffmanSample <= 1)) {
+            throw new IllegalArgumentException("Share of sampled rows has to be greater than 0 and at most 1.");
+        }
+        this.huffmanSample = huffmanSample;
+    }
+
+    /**
+     * Returns whether large files are en-/decoded in Base-N encoding on several threads.
+     *
+     * @return parallel.
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Sets whether large files are en-/decoded in Base-N encoding on several threads. Only applies, if both input
+     * and output are files, streams are always en-/decoded sequentially.
+     *
+     * @param parallel whether to en-/decode in parallel.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Returns encoder, the input image of a conversion is Base-N encoded with.
+     *
+     * @return inEncoding, or <code>null</code> for a plain image.
+     */
+    public BaseN getInEncoding() {
+        return inEncoding;
+    }
+
+    /**
+     * Sets encoder, the input image of a conversion is Base-N encoded with. The input gets decoded while it is read.
+     *
+     * @param inEncoding encoder of base-32 hex encoding, or an encoder with a custom alphabet, whose alphabet gets
+     *                   read from the first line of the input, or <code>null</code> for a plain image.
+     */
+    public void setInEncoding(BaseN inEncoding) {
+        this.inEncoding = inEncoding;
+    }
+
+    /**
+     * Returns encoder, the output image of a conversion gets Base-N encoded with.
+     *
+     * @return outEncoding, or <code>null</code> for a plain image.
+     */
+    public BaseN getOutEncoding() {
+        return outEncoding;
+    }
+
+    /**
+     * Sets encoder, the output image of a conversion gets Base-N encoded with. The output gets encoded while it is
+     * written.
+     *
+     * @param outEncoding encoder to be used, or <code>null</code> for a plain image.
+     */
+    public void setOutEncoding(BaseN outEncoding) {
+        this.outEncoding = outEncoding;
+    }
+
+    /**
+     * Returns whether the output image of a conversion gets gzip compressed.
+     *
+     * @return gzipOutput.
+     */
+    public boolean isGzipOutput() {
+        return gzipOutput;
+    }
+
+    /**
+     * Sets whether the output image of a conversion gets gzip compressed. A gzip compressed input is detected by its
+     * first bytes and needs no setting.
+     *
+     * @param gzipOutput whether to gzip compress the output.
+     */
+    public void setGzipOutput(boolean gzipOutput) {
+        this.gzipOutput = gzipOutput;
+    }
+
+    /**
+     * Identifies the format of an image by the extension of its file. The extension of a gzip compressed file
+     * (<code>.gz</code>) is skipped as well.
+     *
+     * @param path    path of the file.
+     * @param encoded whether the file is Base-N encoded, so that its last extension has to be skipped.
+     * @return format, or <code>null</code> if the format is unknown.
+     */
+    private static ImageFormat getImageFormat(Path path, boolean encoded) {
+        String fileName = path.getFileName().toString();
+        if (encoded && fileName.lastIndexOf('.') >= 0) {
+            fileName = fileName.substring(0, fileName.lastIndexOf('.'));
+        }
+        if (fileName.endsWith(".gz")) {
+            fileName = fileName.substring(0, fileName.length() - 3);
+        }
+
+        return ImageFormat.fromFileName(fileName);
+    }
+}
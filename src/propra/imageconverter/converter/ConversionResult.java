@@ -0,0 +1,359 @@
+package propra.imageconverter.converter;
+
+import propra.imageconverter.WorkMode;
+
+import java.time.Duration;
+
+/**
+ * Result of a job executed by the {@link Converter}.
+ */
+public class ConversionResult {
+
+    /**
+     * Operation that was executed. For automatic compression, this is the conversion that produced the smallest output.
+     */
+    private WorkMode workMode;
+
+    /**
+     * Number of bytes read from input.
+     */
+    private long inputSize;
+
+    /**
+     * Number of bytes written to output.
+     */
+    private long outputSize;
+
+    /**
+     * Size of the data segment of the output image.
+     */
+    private long dataSegmentSize;
+
+    /**
+     * Checksum of the data segment of the output image.
+     */
+    private int checksum;
+
+    /**
+     * Time spent building the huffman tree.
+     */
+    private Duration treeBuildTime = Duration.ZERO;
+
+    /**
+     * Overall time spent for the job.
+     */
+    private Duration totalTime = Duration.ZERO;
+
+    /**
+     * Number of rows looked up in the row cache of the rle encoder.
+     */
+    private long rowCacheLookups;
+
+    /**
+     * Number of rows found in the row cache of the rle encoder.
+     */
+    private long rowCacheHits;
+
+    /**
+     * Length of the longest huffman code in bits, <code>0</code> if the output is not huffman compressed.
+     */
+    private int huffmanMaxLength;
+
+    /**
+     * Number of bytes the output grew by limiting the length of the huffman codes, <code>-1</code> if not limited.
+     */
+    private long huffmanLimitCost = -1;
+
+    /**
+     * Comparison of the huffman tree built from a sample of rows with the full tree, or <code>null</code>.
+     */
+    private HuffmanSampling huffmanSampling;
+
+    /**
+     * Constructs an empty conversion result. All values, that are not set, are <code>0</code>, the huffman codes
+     * count as not limited and there is no sampling of the huffman tree.
+     *
+     * @param workMode operation that was executed.
+     */
+    public ConversionResult(WorkMode workMode) {
+        this.workMode = workMode;
+    }
+
+    /**
+     * Constructs a copy of a conversion result, whose values can be changed without changing the original result.
+     *
+     * @param result result to be copied.
+     */
+    public ConversionResult(ConversionResult result) {
+        this.workMode = result.workMode;
+        this.inputSize = result.inputSize;
+        this.outputSize = result.outputSize;
+        this.dataSegmentSize = result.dataSegmentSize;
+        this.checksum = result.checksum;
+        this.treeBuildTime = result.treeBuildTime;
+        this.totalTime = result.totalTime;
+        this.rowCacheLookups = result.rowCacheLookups;
+        this.rowCacheHits = result.rowCacheHits;
+        this.huffmanMaxLength = result.huffmanMaxLength;
+        this.huffmanLimitCost = result.huffmanLimitCost;
+        this.huffmanSampling = result.huffmanSampling;
+    }
+
+    /**
+     * Returns operation that was executed.
+     *
+     * @return workMode.
+     */
+    public WorkMode getWorkMode() {
+        return workMode;
+    }
+
+    /**
+     * Returns number of bytes read from input.
+     *
+     * @return inputSize.
+     */
+    public long getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * Sets number of bytes read from input.
+     *
+     * @param inputSize inputSize.
+     */
+    public void setInputSize(long inputSize) {
+        this.inputSize = inputSize;
+    }
+
+    /**
+     * Returns number of bytes written to output.
+     *
+     * @return outputSize.
+     */
+    public long getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * Sets number of bytes written to output.
+     *
+     * @param outputSize outputSize.
+     */
+    public void setOutputSize(long outputSize) {
+        this.outputSize = outputSize;
+    }
+
+    /**
+     * Returns size of the data segment of the output image.
+     * Only calculated for ProPra output, otherwise <code>0</code>.
+     *
+     * @return dataSegmentSize.
+     */
+    public long getDataSegmentSize() {
+        return dataSegmentSize;
+    }
+
+    /**
+     * Sets size of the data segment of the output image.
+     *
+     * @param dataSegmentSize dataSegmentSize.
+     */
+    public void setDataSegmentSize(long dataSegmentSize) {
+        this.dataSegmentSize = dataSegmentSize;
+    }
+
+    /**
+     * Returns checksum of the data segment of the output image.
+     * Only calculated for ProPra output, otherwise <code>0</code>.
+     *
+     * @return checksum.
+     */
+    public int getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Sets checksum of the data segment of the output image.
+     *
+     * @param checksum checksum.
+     */
+    public void setChecksum(int checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * Returns time spent building the huffman tree.
+     *
+     * @return treeBuildTime.
+     */
+    public Duration getTreeBuildTime() {
+        return treeBuildTime;
+    }
+
+    /**
+     * Sets time spent building the huffman tree.
+     *
+     * @param treeBuildTime treeBuildTime.
+     */
+    public void setTreeBuildTime(Duration treeBuildTime) {
+        this.treeBuildTime = treeBuildTime;
+    }
+
+    /**
+     * Returns time spent converting the image (without building the huffman tree).
+     *
+     * @return conversion time.
+     */
+    public Duration getConversionTime() {
+        return totalTime.minus(treeBuildTime);
+    }
+
+    /**
+     * Returns overall time spent for the job.
+     *
+     * @return totalTime.
+     */
+    public Duration getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * Sets overall time spent for the job.
+     *
+     * @param totalTime totalTime.
+     */
+    public void setTotalTime(Duration totalTime) {
+        this.totalTime = totalTime;
+    }
+
+    /**
+     * Returns number of rows looked up in the row cache of the rle encoder.
+     *
+     * @return rowCacheLookups.
+     */
+    public long getRowCacheLookups() {
+        return rowCacheLookups;
+    }
+
+    /**
+     * Sets number of rows looked up in the row cache of the rle encoder.
+     *
+     * @param rowCacheLookups rowCacheLookups.
+     */
+    public void setRowCacheLookups(long rowCacheLookups) {
+        this.rowCacheLookups = rowCacheLookups;
+    }
+
+    /**
+     * Returns number of rows found in the row cache of the rle encoder.
+     *
+     * @return rowCacheHits.
+     */
+    public long getRowCacheHits() {
+        return rowCacheHits;
+    }
+
+    /**
+     * Sets number of rows found in the row cache of the rle encoder.
+     *
+     * @param rowCacheHits rowCacheHits.
+     */
+    public void setRowCacheHits(long rowCacheHits) {
+        this.rowCacheHits = rowCacheHits;
+    }
+
+    /**
+     * Returns share of rows found in the row cache of the rle encoder.
+     *
+     * @return hit rate between 0 and 1, or 0 if no row has been looked up.
+     */
+    public double getRowCacheHitRate() {
+        return rowCacheLookups == 0 ? 0 : (double) rowCacheHits / rowCacheLookups;
+    }
+
+    /**
+     * Returns length of the longest huffman code in bits.
+     *
+     * @return huffmanMaxLength, <code>0</code> if the output is not huffman compressed.
+     */
+    public int getHuffmanMaxLength() {
+        return huffmanMaxLength;
+    }
+
+    /**
+     * Sets length of the longest huffman code in bits.
+     *
+     * @param huffmanMaxLength huffmanMaxLength.
+     */
+    public void setHuffmanMaxLength(int huffmanMaxLength) {
+        this.huffmanMaxLength = huffmanMaxLength;
+    }
+
+    /**
+     * Returns number of bytes the output grew by limiting the length of the huffman codes.
+     *
+     * @return huffmanLimitCost, <code>-1</code> if the length has not been limited.
+     */
+    public long getHuffmanLimitCost() {
+        return huffmanLimitCost;
+    }
+
+    /**
+     * Sets number of bytes the output grew by limiting the length of the huffman codes.
+     *
+     * @param huffmanLimitCost huffmanLimitCost, <code>-1</code> if the length has not been limited.
+     */
+    public void setHuffmanLimitCost(long huffmanLimitCost) {
+        this.huffmanLimitCost = huffmanLimitCost;
+    }
+
+    /**
+     * Returns comparison of the huffman tree built from a sample of rows with the full tree.
+     *
+     * @return huffmanSampling, <code>null</code> if the tree has not been built from a sample.
+     */
+    public HuffmanSampling getHuffmanSampling() {
+        return huffmanSampling;
+    }
+
+    /**
+     * Sets comparison of the huffman tree built from a sample of rows with the full tree.
+     *
+     * @param huffmanSampling huffmanSampling, <code>null</code> if the tree has not been built from a sample.
+     */
+    public void setHuffmanSampling(HuffmanSampling huffmanSampling) {
+        this.huffmanSampling = huffmanSampling;
+    }
+
+    /**
+     * Returns a short summary of this result, to be printed to the console.
+     *
+     * @return summary.
+     */
+    @Override
+    public String toString() {
+        String summary = String.format("Read %d bytes, wrote %d bytes in %d ms", inputSize, outputSize, totalTime.toMillis());
+        if (!treeBuildTime.isZero()) {
+            summary += String.format(" (huffman tree built in %d ms)", treeBuildTime.toMillis());
+        }
+        if (dataSegmentSize > 0) {
+            summary += String.format(", checksum 0x%08X", checksum);
+        }
+        if (rowCacheLookups > 0) {
+            summary += String.format(", row cache hit rate %.1f%%", getRowCacheHitRate() * 100);
+        }
+        if (huffmanLimitCost >= 0) {
+            long unlimitedSize = Math.max(1, dataSegmentSize - huffmanLimitCost);
+            summary += String.format(", huffman codes limited to %d bits (%d bytes larger, +%.2f%%)",
+                    huffmanMaxLength, huffmanLimitCost, huffmanLimitCost * 100.0 / unlimitedSize);
+        } else if (huffmanMaxLength > 0) {
+            summary += String.format(", huffman codes up to %d bits", huffmanMaxLength);
+        }
+        if (huffmanSampling != null) {
+            summary += ", " + huffmanSampling;
+        }
+
+        return summary + ".";
+    }
+}
@@ -0,0 +1,1410 @@
+package propra.imageconverter.converter;
+
+import propra.imageconverter.BaseN;
+import propra.imageconverter.WorkMode;
+import propra.imageconverter.exceptions.InvalidEncodingException;
+import propra.imageconverter.exceptions.InvalidImageException;
+import propra.imageconverter.image.*;
+import propra.imageconverter.io.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Conversion engine of the ImageConverter. Converts images between TGA and ProPra format
+ * and en-/decodes files in Base-N encoding.
+ * <p>
+ * The converter does not hold any state of a conversion, so one instance can be shared between threads and
+ * execute many requests at the same time. It neither prints to the console, nor terminates the JVM,
+ * errors are reported by the exceptions of the single operations.
+ * </p>
+ * <p>
+ * A converter, that executes many requests at the same time, can be given an executor for blocking I/O. Image files
+ * are then read ahead and written behind on threads of that executor, so the threads executing the requests spend
+ * their time on decoding and encoding pixels, instead of waiting for the storage.
+ * </p>
+ */
+public class Converter {
+
+    /**
+     * Default number of bytes of a ProPra data segment, that are kept in memory when writing to a stream.
+     */
+    public static final int DEFAULT_SPOOL_MEMORY_LIMIT = 16 * 1024 * 1024;
+
+    /**
+     * Memory every operation needs, independent of the size of its image, e.g. for the buffers of its streams,
+     * reading ahead and writing behind, and en-/decoding Base-N chunks in parallel.
+     */
+    public static final long FIXED_MEMORY_ESTIMATE = 4 * 1024 * 1024;
+
+    /**
+     * Memory needed per pixel of a row for the rows, that are held during a conversion: the row being converted as
+     * pixel objects and the rows of the row cache.
+     */
+    private static final int ROW_MEMORY_PER_PIXEL = 32 * (RowCache.DEFAULT_CAPACITY + 2);
+
+    /**
+     * Number of bytes needed to identify the format of an image.
+     */
+    private static final int FORMAT_DETECTION_SIZE = Math.max(TGAImageHeader.HEADER_SIZE, ProPraImageHeader.HEADER_SIZE);
+
+    /**
+     * Size of the buffer used to copy between streams.
+     */
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of chunks of {@link #TRANSFER_BUFFER_SIZE} bytes, that are decompressed or read ahead of the reader,
+     * or wait to be written behind the writer.
+     */
+    private static final int READ_AHEAD_CHUNKS = 4;
+
+    /**
+     * Number of bytes of a ProPra data segment, that are kept in memory when writing to a stream.
+     */
+    private final int spoolMemoryLimit;
+
+    /**
+     * Executor, image files are read and written on, or <code>null</code> to read and write them on the thread of the
+     * request.
+     */
+    private final Executor ioExecutor;
+
+    /**
+     * Constructs a converter with the default spool memory limit.
+     */
+    public Converter() {
+        this(DEFAULT_SPOOL_MEMORY_LIMIT);
+    }
+
+    /**
+     * Constructs a converter, that reads and writes files on the thread of the request.
+     *
+     * @param spoolMemoryLimit number of bytes of a ProPra data segment, that are kept in memory when writing to a
+     *                         stream. Larger data segments are spooled to a temporary file.
+     */
+    public Converter(int spoolMemoryLimit) {
+        this(spoolMemoryLimit, null);
+    }
+
+    /**
+     * Constructs a converter.
+     *
+     * @param spoolMemoryLimit number of bytes of a ProPra data segment, that are kept in memory when writing to a
+     *                         stream. Larger data segments are spooled to a temporary file.
+     * @param ioExecutor       executor, image files are read ahead and written behind on, or <code>null</code>.
+     *                         It has to start every task without delay, as a task blocks, until its file is closed,
+     *                         so it must not be limited to a fixed number of threads.
+     */
+    public Converter(int spoolMemoryLimit, Executor ioExecutor) {
+        this.spoolMemoryLimit = spoolMemoryLimit;
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Executes a request, based on its work mode.
+     *
+     * @param request request to be executed.
+     * @return result of the operation.
+     * @throws IOException              if an I/O error occurs.
+     * @throws InvalidImageException    if the input image is invalid.
+     * @throws InvalidEncodingException if the Base-N encoded input is invalid.
+     */
+    public ConversionResult execute(ConversionRequest request) throws IOException, InvalidImageException, InvalidEncodingException {
+        switch (request.getWorkMode()) {
+            case Encode:
+                return encode(request);
+            case Decode:
+                return decode(request);
+            case TrainTree:
+                return trainTree(request.getImagePaths(), request.getOutPath(),
+                        request.getHuffmanMaxLength());
+            case CreateBundle:
+                return createBundle(request.getImagePaths(), request.getOutPath());
+            case ExtractBundle:
+                return extractBundle(request.getInPath(), request.getOutPath());
+            case ListBundle:
+                throw new IllegalArgumentException("Bundles are listed by listBundle, which has no conversion result.");
+            default:
+                return convert(request);
+        }
+    }
+
+    /**
+     * Estimates the memory a request needs at most, from the header of its input image, without executing it.
+     * The estimate covers an input, that is held in memory, because it has to be read twice from a stream, the spooled
+     * data segment of a ProPra image written to a stream, and the rows held during the conversion. The images of a
+     * bundle are converted one after the other, so a bundle needs the memory of its largest image.
+     * Operations other than conversions only need {@link #FIXED_MEMORY_ESTIMATE}.
+     *
+     * @param request request to be estimated. The input of a conversion has to be a file.
+     * @return estimated number of bytes.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the header of the input image, or its encoding, is invalid.
+     */
+    public long estimateMemory(ConversionRequest request) throws IOException, InvalidImageException {
+        switch (request.getWorkMode()) {
+            case ConvertRLE:
+            case ConvertUncompressed:
+            case ConvertHuffman:
+            case ConvertAuto:
+                break;
+            default:
+                return FIXED_MEMORY_ESTIMATE;
+        }
+
+        if (request.getInPath() == null) {
+            throw new IllegalArgumentException("Memory can only be estimated for an input file.");
+        }
+        boolean streamOutput = request.getOutPath() == null || request.getOutEncoding() != null
+                || request.isGzipOutput();
+
+        if (BundleReader.isBundle(request.getInPath())) {
+            BundleReader bundle = new BundleReader(request.getInPath());
+            long memory = FIXED_MEMORY_ESTIMATE;
+            for (BundleMember member : bundle.getMembers()) {
+                ImageHeader header = peekHeader(bundle.openMember(member), ImageFormat.fromFileName(member.getName()));
+                memory = Math.max(memory, estimateMemory(request, header, true, true));
+            }
+
+            return memory;
+        }
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(request.getInPath()))) {
+            ConversionRequest peek = new ConversionRequest(request);
+            peek.setInput(request.getInEncoding() != null ? new BaseNInputStream(in, request.getInEncoding()) : in,
+                    request.getInFormat());
+            peek = markInput(peek);
+            boolean gzipInput = isGzip(peek);
+            ImageHeader header = peekHeader(gzipInput ? new GZIPInputStream(peek.getInStream()) : peek.getInStream(),
+                    request.getInFormat());
+
+            return estimateMemory(request, header, gzipInput || request.getInEncoding() != null, streamOutput);
+        } catch (InvalidEncodingException e) {
+            throw new InvalidImageException("Input is not validly Base-N encoded: " + e.getMessage());
+        } catch (IOException e) {
+            if (e.getCause() instanceof InvalidEncodingException) {
+                throw new InvalidImageException("Input is not validly Base-N encoded: " + e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Estimates the memory of a conversion from the header of its input image.
+     *
+     * @param request      request of the conversion.
+     * @param header       header of the input image.
+     * @param streamInput  whether the image is read from a stream, rather than from a file.
+     * @param streamOutput whether the image is written to a stream, rather than to a file.
+     * @return estimated number of bytes.
+     */
+    private long estimateMemory(ConversionRequest request, ImageHeader header, boolean streamInput,
+                                boolean streamOutput) {
+        long width = Short.toUnsignedInt(header.getImgWidth());
+        long imageSize = width * Short.toUnsignedInt(header.getImgHeight()) * (header.getPixelDepth() / 8);
+        // A compressed image may be slightly larger than its pixels.
+        long fileSize = imageSize + imageSize / 8;
+        boolean buildsTree = request.getHuffmanTreePath() == null;
+        long memory = FIXED_MEMORY_ESTIMATE + width * ROW_MEMORY_PER_PIXEL;
+
+        if (request.getWorkMode() == WorkMode.ConvertAuto) {
+            // The input is staged once for all candidates, and again by the huffman candidate.
+            // The candidates are written to files, so nothing is spooled.
+            if (streamInput) {
+                memory += request.getOutFormat() == ImageFormat.ProPra && buildsTree ? 2 * fileSize : fileSize;
+            }
+        } else {
+            if (streamInput && request.getWorkMode() == WorkMode.ConvertHuffman && buildsTree) {
+                memory += fileSize;
+            }
+            if (streamOutput && request.getOutFormat() == ImageFormat.ProPra) {
+                memory += Math.min(fileSize, this.spoolMemoryLimit);
+            }
+        }
+
+        return memory;
+    }
+
+    /**
+     * Converts an image from either TGA format to ProPra or vice versa. Can handle uncompressed, rle or huffman
+     * compressed images. For automatic compression, the image is converted using every suitable compression,
+     * and only the smallest output is kept. Base-N encoded images are de-/encoded while they are read or written,
+     * gzip compressed images are de-/compressed the same way. For a bundle as input, every image of the bundle is
+     * converted into the bundle of the output (see {@link #convertBundle(ConversionRequest)}).
+     *
+     * @param request request, that contains input, output and compression.
+     * @return result of the conversion.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the input image is invalid.
+     */
+    public ConversionResult convert(ConversionRequest request) throws IOException, InvalidImageException {
+        if (request.getInPath() != null && BundleReader.isBundle(request.getInPath())) {
+            return convertBundle(request);
+        } else if (request.getInEncoding() != null || request.getOutEncoding() != null) {
+            return convertEncoded(request);
+        }
+
+        request = markInput(request);
+        boolean gzipInput = isGzip(request);
+        if (gzipInput || request.isGzipOutput()) {
+            return convertGzip(request, gzipInput);
+        } else if (request.getWorkMode() == WorkMode.ConvertAuto) {
+            return convertAuto(request);
+        }
+
+        long start = System.nanoTime();
+        request = detectInFormat(request);
+        ImageFormat inFormat = getFormat(request.getInFormat(), "input");
+        ImageFormat outFormat = getFormat(request.getOutFormat(), "output");
+        Compression compression = getCompression(request.getWorkMode());
+        byte[] stagedInput = null;
+        Node tree = null;
+        int huffmanMaxLength = 0;
+        long huffmanLimitCost = -1;
+        long sampledRows = -1;
+        long treeBuilt = start;
+
+        if (compression == Compression.Huffman) {
+            if (outFormat != ImageFormat.ProPra) {
+                throw new IllegalArgumentException("Huffman compression is only supported for ProPra output.");
+            }
+
+            if (request.getHuffmanTreePath() != null) {
+                // A trained tree makes the additional pass over the input unnecessary.
+                tree = TreeFile.read(request.getHuffmanTreePath());
+                huffmanMaxLength = new HuffmanTable(tree).getMaxLength();
+            } else {
+                // A stream can only be read once, but building the tree needs an additional pass over the input.
+                if (request.getInPath() == null) {
+                    stagedInput = request.getInStream().readAllBytes();
+                }
+                int[] byteCount;
+                if (request.getHuffmanSample() < 1) {
+                    byteCount = new int[256];
+                    sampledRows = countSampledBytes(request, stagedInput, inFormat, request.getHuffmanSample(), byteCount);
+                    // Every byte gets a code, also if it does not occur in the sample.
+                    for (int i = 0; i < byteCount.length; i++) {
+                        byteCount[i]++;
+                    }
+                } else {
+                    byteCount = countBytes(openInput(request, stagedInput), inFormat);
+                }
+                tree = buildTree(byteCount);
+                HuffmanTable unlimited = new HuffmanTable(tree);
+                huffmanMaxLength = unlimited.getMaxLength();
+
+                if (request.getHuffmanMaxLength() > 0) {
+                    huffmanLimitCost = 0;
+                    if (huffmanMaxLength > request.getHuffmanMaxLength()) {
+                        // Both trees have the same number of leaves, so they take the same space in the output.
+                        int[] codeLengths = PackageMerge.codeLengths(byteCount, request.getHuffmanMaxLength());
+                        tree = PackageMerge.buildTree(codeLengths, byteCount);
+                        HuffmanTable limited = new HuffmanTable(tree);
+                        huffmanMaxLength = limited.getMaxLength();
+                        huffmanLimitCost = (limited.encodedBits(byteCount) + 7) / 8
+                                - (unlimited.encodedBits(byteCount) + 7) / 8;
+                    }
+                }
+                treeBuilt = System.nanoTime();
+            }
+        }
+
+        Checksum inputChecksum = new Checksum(ProPraImageHeader.PIXEL_ORDER);
+        Checksum outputChecksum = new Checksum(ProPraImageHeader.PIXEL_ORDER);
+        // ProPra images written to a stream cannot get their header updated afterwards,
+        // so the data segment is spooled and written behind the final header.
+        boolean stageOutput = outFormat == ImageFormat.ProPra && request.getOutPath() == null;
+        SpoolOutputStream staging = stageOutput ? new SpoolOutputStream(this.spoolMemoryLimit) : null;
+        ImageHeader outputHeader;
+        long inputSize;
+        long outputSize;
+        long outputDataSegmentSize;
+        long rowCacheLookups;
+        long rowCacheHits;
+        // Occurrences of all written bytes, to compare a tree built from a sample with the full tree.
+        int[] fullCount = sampledRows >= 0 ? new int[256] : null;
+
+        try (CountingOutputStream out = openOutput(request)) {
+            try (CountingInputStream in = openInput(request, stagedInput);
+                 ImageReader reader = getReader(inFormat, in);
+                 ImageWriter writer = getWriter(outFormat, stageOutput ? staging : out)) {
+
+                ImageHeader inputHeader = reader.readHeader();
+                outputHeader = convertHeader(inputHeader, outFormat, compression, tree);
+                if (!stageOutput) {
+                    writer.write(outputHeader.toByteArray());
+                }
+
+                writer.setRLEMode(request.getRLEMode());
+                if (fullCount != null) {
+                    ((ProPraWriter) writer).setByteCount(fullCount);
+                }
+
+                // Packets of rle compressed images can be copied, instead of expanding them into pixels.
+                // The transcoder only keeps packets, the greedy writer would produce.
+                RLETranscoder transcoder = null;
+                if (inputHeader.getCompression() == Compression.RLE && compression == Compression.RLE
+                        && request.getRLEMode() == RLEMode.Greedy) {
+                    transcoder = new RLETranscoder(inputHeader, outputHeader);
+                }
+
+                // Uncompressed and rle compressed rows are read as one block of bytes, without expanding them into pixels.
+                byte[] rowBuffer = null;
+                if (transcoder == null && inputHeader.getCompression() != Compression.Huffman) {
+                    rowBuffer = new byte[inputHeader.getImgWidth() * (inputHeader.getPixelDepth() / 8)];
+                }
+
+                for (long i = 0; i < inputHeader.getImgHeight(); i++) {
+                    if (transcoder != null) {
+                        if (!transcoder.transcodeRow(reader, writer, inputChecksum, outputChecksum)) {
+                            throw new InvalidImageException("Less image data to read, than expected.");
+                        }
+                        continue;
+                    }
+
+                    if (rowBuffer != null) {
+                        if (!reader.readRow(inputHeader, inputChecksum, rowBuffer)) {
+                            throw new InvalidImageException("Less image data to read, than expected.");
+                        }
+                        writer.writeRow(rowBuffer, inputHeader.getPixelOrder(), outputHeader, outputChecksum);
+                        continue;
+                    }
+
+                    Pixel[] pixels = reader.readRow(inputHeader, inputChecksum);
+
+                    if (pixels != null) {
+                        writer.writeRow(pixels, outputHeader, outputChecksum);
+                    } else {
+                        throw new InvalidImageException("Less image data to read, than expected.");
+                    }
+                }
+
+                // Write rest of bit buffer for huffman compression.
+                if (writer instanceof ProPraWriter) {
+                    if (outputHeader.getCompression() == Compression.Huffman) {
+                        ((ProPraWriter) writer).flush(outputChecksum);
+                    }
+                }
+
+                // Check whether there is optional data, that should not be there. If optional data is allowed, just ignore it.
+                if (!reader.allowOptionalData()) {
+                    if (reader.read() != -1) {
+                        throw new InvalidImageException("Found optional data in a file format, where no optional data is allowed.");
+                    }
+                }
+
+                // Validate Checksum of ProPra image.
+                if (inputHeader instanceof ProPraImageHeader) {
+                    ((ProPraImageHeader) inputHeader).reValidateHeader(inputChecksum, reader.getDataSegmentSize());
+                }
+
+                outputDataSegmentSize = writer.getDataSegmentSize();
+                inputSize = in.getCount();
+                rowCacheLookups = writer.getRowCache().getLookups();
+                rowCacheHits = writer.getRowCache().getHits();
+            }
+
+            if (stageOutput) {
+                ((ProPraImageHeader) outputHeader).update(outputChecksum, outputDataSegmentSize);
+                out.write(outputHeader.toByteArray());
+                staging.writeTo(out);
+            }
+            outputSize = out.getCount();
+        } finally {
+            if (staging != null) {
+                staging.dispose();
+            }
+        }
+
+        // If we have a ProPra Image as output file, we need to update the calculated checksum.
+        if (outputHeader instanceof ProPraImageHeader && !stageOutput) {
+            ((ProPraImageHeader) outputHeader).updateHeader(request.getOutPath().toFile(), outputChecksum, outputDataSegmentSize);
+        }
+
+        HuffmanSampling sampling = null;
+        if (fullCount != null) {
+            sampling = compareWithFullTree(tree, fullCount, request.getHuffmanSample(), sampledRows,
+                    request.getHuffmanMaxLength());
+        }
+
+        long end = System.nanoTime();
+        int checksum = outputHeader instanceof ProPraImageHeader ? outputChecksum.getChecksum() : 0;
+
+        ConversionResult result = new ConversionResult(request.getWorkMode());
+        result.setInputSize(inputSize);
+        result.setOutputSize(outputSize);
+        result.setDataSegmentSize(outputDataSegmentSize);
+        result.setChecksum(checksum);
+        result.setTreeBuildTime(Duration.ofNanos(treeBuilt - start));
+        result.setTotalTime(Duration.ofNanos(end - start));
+        result.setRowCacheLookups(rowCacheLookups);
+        result.setRowCacheHits(rowCacheHits);
+        result.setHuffmanMaxLength(huffmanMaxLength);
+        result.setHuffmanLimitCost(huffmanLimitCost);
+        result.setHuffmanSampling(sampling);
+        return result;
+    }
+
+    /**
+     * Converts an image two (for tga) or three (for propra) times using all compression methods that exist,
+     * identifies the smallest one and removes the other one(s).
+     * When writing to a file, the candidates are written next to the output file, otherwise into temporary files.
+     *
+     * @param request request, that contains input and output.
+     * @return result of the conversion, that produced the smallest output.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the input image is invalid.
+     */
+    private ConversionResult convertAuto(ConversionRequest request) throws IOException, InvalidImageException {
+        long start = System.nanoTime();
+        ImageFormat outFormat = getFormat(request.getOutFormat(), "output");
+        Path outPath = request.getOutPath();
+        byte[] stagedInput = request.getInPath() == null ? request.getInStream().readAllBytes() : null;
+        // RLE comes first, so it wins over uncompressed, if both have the same size.
+        ArrayList<WorkMode> workModes = new ArrayList<>(Arrays.asList(WorkMode.ConvertRLE, WorkMode.ConvertUncompressed));
+        if (outFormat == ImageFormat.ProPra) {
+            workModes.add(WorkMode.ConvertHuffman);
+        }
+
+        Path smallestFile = null;
+        ConversionResult smallestResult = null;
+
+        try {
+            for (WorkMode workMode : workModes) {
+                String compression = getCompression(workMode).name().toLowerCase();
+                Path candidateFile;
+                if (outPath != null) {
+                    candidateFile = Paths.get(outPath.toAbsolutePath() + compression + "." + outFormat.getExtension());
+                } else {
+                    candidateFile = Files.createTempFile(compression, "." + outFormat.getExtension());
+                }
+
+                ConversionRequest candidate = new ConversionRequest(request);
+                if (stagedInput != null) {
+                    candidate.setInput(new ByteArrayInputStream(stagedInput), request.getInFormat());
+                }
+                candidate.setOutPath(candidateFile);
+                candidate.setWorkMode(workMode);
+
+                ConversionResult result;
+                try {
+                    result = convert(candidate);
+                } catch (IOException | InvalidImageException | RuntimeException e) {
+                    Files.deleteIfExists(candidateFile);
+                    throw e;
+                }
+
+                if (smallestResult == null || result.getOutputSize() < smallestResult.getOutputSize()) {
+                    if (smallestFile != null) {
+                        Files.delete(smallestFile);
+                    }
+                    smallestFile = candidateFile;
+                    smallestResult = result;
+                } else {
+                    Files.delete(candidateFile);
+                }
+            }
+
+            if (outPath != null) {
+                Files.move(smallestFile, outPath, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.copy(smallestFile, request.getOutStream());
+                Files.delete(smallestFile);
+            }
+            smallestFile = null;
+        } finally {
+            if (smallestFile != null) {
+                Files.deleteIfExists(smallestFile);
+            }
+        }
+
+        long end = System.nanoTime();
+
+        ConversionResult result = new ConversionResult(smallestResult);
+        result.setTotalTime(Duration.ofNanos(end - start));
+        return result;
+    }
+
+    /**
+     * Converts an image, whose input or output is Base-N encoded. The input is decoded while the converter reads it,
+     * and the output is encoded while the converter writes it, so no decoded image is written to a file in between.
+     * The sizes of the result are the ones of the encoded input and output.
+     *
+     * @param request request, that contains input, output, their encodings and compression.
+     * @return result of the conversion.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the input image, or its encoding, is invalid.
+     */
+    private ConversionResult convertEncoded(ConversionRequest request) throws IOException, InvalidImageException {
+        long start = System.nanoTime();
+        ConversionRequest plain = new ConversionRequest(request);
+        plain.setInEncoding(null);
+        plain.setOutEncoding(null);
+        ConversionResult result;
+        long inputSize;
+        long outputSize;
+
+        // Only the encoded side is opened here, a plain file is read or written by the conversion itself.
+        try (CountingInputStream in = request.getInEncoding() != null ? openInput(request, null) : null;
+             CountingOutputStream out = request.getOutEncoding() != null ? openOutput(request) : null) {
+            try {
+                if (in != null) {
+                    plain.setInput(new BaseNInputStream(in, request.getInEncoding()), request.getInFormat());
+                }
+                if (out != null) {
+                    BaseNOutputStream encoded = new BaseNOutputStream(out, request.getOutEncoding());
+                    plain.setOutput(encoded, request.getOutFormat());
+                    result = convert(plain);
+                    // Closing the encoding stream writes its last group.
+                    encoded.close();
+                } else {
+                    result = convert(plain);
+                }
+            } catch (InvalidEncodingException e) {
+                throw new InvalidImageException("Input is not validly Base-N encoded: " + e.getMessage());
+            } catch (IOException e) {
+                if (e.getCause() instanceof InvalidEncodingException) {
+                    throw new InvalidImageException("Input is not validly Base-N encoded: " + e.getMessage());
+                }
+                throw e;
+            }
+
+            inputSize = in != null ? in.getCount() : result.getInputSize();
+            outputSize = out != null ? out.getCount() : result.getOutputSize();
+        }
+
+        ConversionResult total = new ConversionResult(result);
+        total.setInputSize(inputSize);
+        total.setOutputSize(outputSize);
+        total.setTotalTime(Duration.ofNanos(System.nanoTime() - start));
+        return total;
+    }
+
+    /**
+     * Converts an image, whose input or output is gzip compressed. The input is decompressed on a thread of its own
+     * ahead of the converter, and the output is compressed while the converter writes it, so no decompressed image is
+     * written to a file in between. The sizes of the result are the ones of the compressed input and output.
+     *
+     * @param request   request, that contains input, output and compression.
+     * @param gzipInput whether the input is gzip compressed.
+     * @return result of the conversion.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the input image, or its compression, is invalid.
+     */
+    private ConversionResult convertGzip(ConversionRequest request, boolean gzipInput) throws IOException, InvalidImageException {
+        long start = System.nanoTime();
+        ConversionRequest plain = new ConversionRequest(request);
+        plain.setGzipOutput(false);
+        ConversionResult result;
+        long inputSize;
+        long outputSize;
+
+        // Only the compressed side is opened here, a plain file is read or written by the conversion itself.
+        try (CountingInputStream in = gzipInput ? openInput(request, null) : null;
+             ReadAheadInputStream decompressed = in != null ? decompress(in) : null;
+             CountingOutputStream out = request.isGzipOutput() ? openOutput(request) : null) {
+            try {
+                if (decompressed != null) {
+                    plain.setInput(decompressed, request.getInFormat());
+                }
+                if (out != null) {
+                    GZIPOutputStream compressed = new GZIPOutputStream(out, TRANSFER_BUFFER_SIZE);
+                    plain.setOutput(compressed, request.getOutFormat());
+                    result = convert(plain);
+                    // Closing the compressing stream writes its trailer.
+                    compressed.close();
+                } else {
+                    result = convert(plain);
+                }
+            } catch (ZipException | EOFException e) {
+                if (decompressed != null) {
+                    throw new InvalidImageException("Input is not validly gzip compressed: " + e.getMessage());
+                }
+                throw e;
+            }
+
+            inputSize = in != null ? in.getCount() : result.getInputSize();
+            outputSize = out != null ? out.getCount() : result.getOutputSize();
+        }
+
+        ConversionResult total = new ConversionResult(result);
+        total.setInputSize(inputSize);
+        total.setOutputSize(outputSize);
+        total.setTotalTime(Duration.ofNanos(System.nanoTime() - start));
+        return total;
+    }
+
+    /**
+     * Converts every image of a bundle into an image of the output bundle, which is named after the whole name of the
+     * input image and the extension of the output format, like <code>image.tga.propra</code>. So images, that only
+     * differ in their extensions, keep different names.
+     * <p>
+     * The input bundle is memory mapped once and its images are read from the mapping, the output bundle is written
+     * sequentially. So no file is opened for a single image. The work mode applies to all images, so automatic
+     * compression chooses the compression of every image on its own, and the result keeps the work mode of the
+     * request. The sizes of the result are the ones of the bundles.
+     * </p>
+     *
+     * @param request request, that contains the paths of both bundles, the output format and compression.
+     * @return result of the conversion.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the input bundle, or one of its images, is invalid.
+     */
+    private ConversionResult convertBundle(ConversionRequest request) throws IOException, InvalidImageException {
+        long start = System.nanoTime();
+        ImageFormat outFormat = getFormat(request.getOutFormat(), "output");
+        if (request.getOutPath() == null || !BundleReader.isBundle(request.getOutPath())) {
+            throw new IllegalArgumentException("Images of a bundle can only be converted into a bundle.");
+        }
+
+        BundleReader bundle = new BundleReader(request.getInPath());
+        try (BundleWriter writer = new BundleWriter(request.getOutPath())) {
+            for (BundleMember member : bundle.getMembers()) {
+                String name = member.getName();
+                String outName = name + "." + outFormat.getExtension();
+
+                ConversionRequest single = new ConversionRequest(request);
+                single.setInput(bundle.openMember(member), ImageFormat.fromFileName(name));
+                single.setOutput(writer.startMember(outName), outFormat);
+                try {
+                    convert(single);
+                } catch (InvalidImageException e) {
+                    throw new InvalidImageException(String.format("%s: %s", name, e.getMessage()));
+                }
+                writer.finishMember();
+            }
+        } catch (IOException | InvalidImageException | RuntimeException e) {
+            Files.deleteIfExists(request.getOutPath());
+            throw e;
+        }
+
+        ConversionResult result = new ConversionResult(request.getWorkMode());
+        result.setInputSize(Files.size(request.getInPath()));
+        result.setOutputSize(Files.size(request.getOutPath()));
+        result.setTotalTime(Duration.ofNanos(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Starts to decompress a gzip compressed input on a thread of its own.
+     *
+     * @param in gzip compressed input.
+     * @return decompressed input.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the input does not start with a valid gzip header.
+     */
+    private static ReadAheadInputStream decompress(InputStream in) throws IOException, InvalidImageException {
+        try {
+            return new ReadAheadInputStream(new GZIPInputStream(in, TRANSFER_BUFFER_SIZE), TRANSFER_BUFFER_SIZE,
+                    READ_AHEAD_CHUNKS);
+        } catch (ZipException | EOFException e) {
+            throw new InvalidImageException("Input is not validly gzip compressed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds a huffman tree from the bytes of many images and writes it into a tree file, that can be used for the
+     * huffman compression of other images (see {@link ConversionRequest#setHuffmanTreePath(Path)}).
+     * <p>
+     * The occurrences of all images are summed up. Every byte gets one occurrence more than counted, so that the tree
+     * contains a code for bytes, that do not occur in the images. The sums are scaled down, if necessary, so that
+     * the weight of the tree fits into an int.
+     * </p>
+     *
+     * @param inPaths   paths of the images.
+     * @param treePath  path of the tree file to be written.
+     * @param maxLength maximum length of a code in bits, <code>0</code> for no limit.
+     * @return result of the training. Input size is the size of all images, output size the size of the tree file.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if one of the images is invalid.
+     * @throws IllegalArgumentException if there are no images.
+     */
+    public ConversionResult trainTree(List<Path> inPaths, Path treePath, int maxLength)
+            throws IOException, InvalidImageException {
+        if (inPaths.isEmpty()) {
+            throw new IllegalArgumentException("No images to train the huffman tree with.");
+        }
+
+        long start = System.nanoTime();
+        long[] totalCount = new long[256];
+        long total = 0;
+        long inputSize = 0;
+
+        for (Path inPath : inPaths) {
+            ConversionRequest request = detectInFormat(new ConversionRequest(inPath, null, WorkMode.TrainTree));
+            int[] byteCount = countBytes(openInput(request, null), getFormat(request.getInFormat(), "input"));
+
+            for (int i = 0; i < byteCount.length; i++) {
+                totalCount[i] += byteCount[i];
+                total += byteCount[i];
+            }
+            inputSize += Files.size(inPath);
+        }
+
+        long divisor = total / (Integer.MAX_VALUE / 2) + 1;
+        int[] smoothedCount = new int[256];
+        for (int i = 0; i < smoothedCount.length; i++) {
+            smoothedCount[i] = (int) (totalCount[i] / divisor) + 1;
+        }
+
+        Node tree = maxLength > 0 ? buildTree(smoothedCount, maxLength) : buildTree(smoothedCount);
+        TreeFile.write(tree, treePath);
+        long end = System.nanoTime();
+
+        ConversionResult result = new ConversionResult(WorkMode.TrainTree);
+        result.setInputSize(inputSize);
+        result.setOutputSize(Files.size(treePath));
+        result.setTreeBuildTime(Duration.ofNanos(end - start));
+        result.setTotalTime(Duration.ofNanos(end - start));
+        result.setHuffmanMaxLength(new HuffmanTable(tree).getMaxLength());
+        return result;
+    }
+
+    /**
+     * Creates a bundle, that contains the given images unchanged, in the given order. Every image is stored under its
+     * file name, so the names have to be unique.
+     *
+     * @param inPaths    paths of the images.
+     * @param bundlePath path of the bundle to be written.
+     * @return result of the operation. Input size is the size of all images, output size the size of the bundle.
+     * @throws IOException              if an I/O error occurs.
+     * @throws IllegalArgumentException if there are no images, or two of them have the same name.
+     */
+    public ConversionResult createBundle(List<Path> inPaths, Path bundlePath) throws IOException {
+        if (inPaths.isEmpty()) {
+            throw new IllegalArgumentException("No images to create the bundle of.");
+        }
+
+        long start = System.nanoTime();
+        long inputSize = 0;
+
+        try (BundleWriter writer = new BundleWriter(bundlePath)) {
+            for (Path inPath : inPaths) {
+                inputSize += writer.addMember(inPath.getFileName().toString(), inPath).getLength();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(bundlePath);
+            throw e;
+        }
+
+        ConversionResult result = new ConversionResult(WorkMode.CreateBundle);
+        result.setInputSize(inputSize);
+        result.setOutputSize(Files.size(bundlePath));
+        result.setTotalTime(Duration.ofNanos(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Reads the index of a bundle.
+     *
+     * @param bundlePath path of the bundle.
+     * @return index entries of the images in the bundle.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the file is not a valid bundle.
+     */
+    public List<BundleMember> listBundle(Path bundlePath) throws IOException, InvalidImageException {
+        return new BundleReader(bundlePath).getMembers();
+    }
+
+    /**
+     * Extracts all images of a bundle into a directory. Every image is written into a file named like the image, that
+     * is byte-identical to the file the bundle has been created of.
+     *
+     * @param bundlePath path of the bundle.
+     * @param outDir     directory the images are written to, it is created if necessary.
+     * @return result of the operation. Input size is the size of the bundle, output size the size of all images.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the file is not a valid bundle.
+     */
+    public ConversionResult extractBundle(Path bundlePath, Path outDir) throws IOException, InvalidImageException {
+        long start = System.nanoTime();
+        BundleReader bundle = new BundleReader(bundlePath);
+        long outputSize = 0;
+
+        Files.createDirectories(outDir);
+        for (BundleMember member : bundle.getMembers()) {
+            ByteBuffer content = bundle.getContent(member);
+            try (FileChannel out = FileChannel.open(outDir.resolve(member.getName()), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (content.hasRemaining()) {
+                    out.write(content);
+                }
+            }
+            outputSize += member.getLength();
+        }
+
+        ConversionResult result = new ConversionResult(WorkMode.ExtractBundle);
+        result.setInputSize(Files.size(bundlePath));
+        result.setOutputSize(outputSize);
+        result.setTotalTime(Duration.ofNanos(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Encodes the input of the request. Encoding is based on the encoder of the request.
+     * The input is read in blocks of whole groups of the encoder, so only the last block may end with a partial group.
+     * Large files are encoded in parallel, if the request asks for it.
+     *
+     * @param request request, that contains input, output and encoder.
+     * @return result of the encoding.
+     * @throws IOException if an I/O error occurs.
+     */
+    public ConversionResult encode(ConversionRequest request) throws IOException {
+        long start = System.nanoTime();
+        BaseN encoder = request.getEncoder();
+
+        if (isParallel(request)) {
+            long outputSize = ParallelBaseN.encode(encoder, request.getInPath(), request.getOutPath());
+            ConversionResult result = new ConversionResult(WorkMode.Encode);
+            result.setInputSize(Files.size(request.getInPath()));
+            result.setOutputSize(outputSize);
+            result.setTotalTime(Duration.ofNanos(System.nanoTime() - start));
+            return result;
+        }
+
+        long inputSize;
+        long outputSize;
+
+        try (CountingInputStream in = openInput(request, null);
+             CountingOutputStream out = openOutput(request)) {
+            try (BaseNOutputStream encoded = new BaseNOutputStream(out, encoder)) {
+                transfer(in, encoded);
+            }
+
+            inputSize = in.getCount();
+            outputSize = out.getCount();
+        }
+
+        ConversionResult result = new ConversionResult(WorkMode.Encode);
+        result.setInputSize(inputSize);
+        result.setOutputSize(outputSize);
+        result.setTotalTime(Duration.ofNanos(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Decodes the input of the request. Decoding is based on the encoder of the request. For a custom alphabet,
+     * the alphabet is read from the first line of the input. The input is read in blocks of whole groups of the
+     * encoder, so only the last block may end with a partial group. Large files are decoded in parallel, if the
+     * request asks for it.
+     *
+     * @param request request, that contains input, output and encoder.
+     * @return result of the decoding.
+     * @throws IOException              if an I/O error occurs.
+     * @throws InvalidEncodingException if the input is not validly encoded.
+     */
+    public ConversionResult decode(ConversionRequest request) throws IOException, InvalidEncodingException {
+        long start = System.nanoTime();
+        BaseN encoder = request.getEncoder();
+
+        if (isParallel(request)) {
+            long outputSize = ParallelBaseN.decode(encoder, request.getInPath(), request.getOutPath());
+            ConversionResult result = new ConversionResult(WorkMode.Decode);
+            result.setInputSize(Files.size(request.getInPath()));
+            result.setOutputSize(outputSize);
+            result.setTotalTime(Duration.ofNanos(System.nanoTime() - start));
+            return result;
+        }
+
+        long inputSize;
+        long outputSize;
+
+        try (CountingInputStream in = openInput(request, null);
+             CountingOutputStream out = openOutput(request)) {
+            try (BaseNInputStream decoded = new BaseNInputStream(in, encoder)) {
+                transfer(decoded, out);
+            } catch (IOException e) {
+                if (e.getCause() instanceof InvalidEncodingException) {
+                    throw (InvalidEncodingException) e.getCause();
+                }
+                throw e;
+            }
+
+            inputSize = in.getCount();
+            outputSize = out.getCount();
+        }
+
+        ConversionResult result = new ConversionResult(WorkMode.Decode);
+        result.setInputSize(inputSize);
+        result.setOutputSize(outputSize);
+        result.setTotalTime(Duration.ofNanos(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Checks, whether a request is en-/decoded in parallel. This requires files as input and output and an input,
+     * that is large enough to outweigh the cost of the threads.
+     *
+     * @param request request to be checked.
+     * @return if the request is en-/decoded by {@link ParallelBaseN}.
+     * @throws IOException if the size of the input file cannot be read.
+     */
+    private static boolean isParallel(ConversionRequest request) throws IOException {
+        return request.isParallel() && request.getInPath() != null && request.getOutPath() != null
+                && Files.size(request.getInPath()) >= ParallelBaseN.MIN_PARALLEL_SIZE;
+    }
+
+    /**
+     * Copies all bytes of an input stream to an output stream in large blocks.
+     *
+     * @param in  stream to be read.
+     * @param out stream to be written to.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void transfer(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        int numBytesRead;
+
+        while ((numBytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, numBytesRead);
+        }
+    }
+
+    /**
+     * Reads the input once to count the occurrences of every byte, that the huffman tree is built from.
+     *
+     * @param in       input stream, that gets closed afterwards.
+     * @param inFormat format of the input image.
+     * @return number of occurrences, indexed by the unsigned value of the byte.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the input image is invalid.
+     */
+    private int[] countBytes(InputStream in, ImageFormat inFormat) throws IOException, InvalidImageException {
+        int[] byteCount = new int[256];
+
+        try (ImageReader reader = getReader(inFormat, in)) {
+            ImageHeader inputHeader = reader.readHeader();
+            Checksum chk = new Checksum();
+
+            for (long i = 0; i < inputHeader.getImgHeight(); i++) {
+                Pixel[] pixels = reader.readRow(inputHeader, chk);
+                if (pixels == null) {
+                    throw new InvalidImageException("Less image data to read, than expected.");
+                }
+                for (Pixel pixel : pixels) {
+                    for (byte b : pixel.getPixel(inputHeader.getPixelOrder())) {
+                        byteCount[Byte.toUnsignedInt(b)]++;
+                    }
+                }
+            }
+        }
+
+        return byteCount;
+    }
+
+    /**
+     * Reads a uniform sample of rows to count the occurrences of every byte, that the huffman tree is built from.
+     * Row <code>i</code> belongs to the sample, if <code>ceil((i + 1) * fraction) > ceil(i * fraction)</code>, so the
+     * first row is always sampled. Uncompressed images read from a file are read row by row at the position of the
+     * sampled rows, all other images are read completely, but only the sampled rows get counted.
+     *
+     * @param request     request, that contains the input.
+     * @param stagedInput input read into memory, or <code>null</code> if the input is read from the request.
+     * @param inFormat    format of the input image.
+     * @param fraction    share of rows to be sampled, between 0 and 1.
+     * @param byteCount   number of occurrences to be incremented, indexed by the unsigned value of the byte.
+     * @return number of sampled rows.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the input image is invalid.
+     */
+    private long countSampledBytes(ConversionRequest request, byte[] stagedInput, ImageFormat inFormat, double fraction,
+                                   int[] byteCount) throws IOException, InvalidImageException {
+        long sampledRows = 0;
+
+        try (ImageReader reader = getReader(inFormat, openInput(request, stagedInput))) {
+            ImageHeader inputHeader = reader.readHeader();
+            int rowSize = inputHeader.getImgWidth() * (inputHeader.getPixelDepth() / 8);
+            byte[] row = new byte[rowSize];
+            Checksum chk = new Checksum();
+            boolean seek = inputHeader.getCompression() == Compression.Uncompressed && stagedInput == null
+                    && request.getInPath() != null;
+
+            try (FileChannel channel = seek ? FileChannel.open(request.getInPath()) : null) {
+                for (long i = 0; i < inputHeader.getImgHeight(); i++) {
+                    boolean sampled = Math.ceil((i + 1) * fraction) > Math.ceil(i * fraction);
+
+                    if (seek) {
+                        if (!sampled) {
+                            continue;
+                        }
+                        ByteBuffer buffer = ByteBuffer.wrap(row);
+                        long position = reader.getHeaderSize() + i * rowSize;
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, position + buffer.position()) < 0) {
+                                throw new InvalidImageException("Less image data to read, than expected.");
+                            }
+                        }
+                    } else if (inputHeader.getCompression() == Compression.Huffman) {
+                        Pixel[] pixels = reader.readRow(inputHeader, chk);
+                        if (pixels == null) {
+                            throw new InvalidImageException("Less image data to read, than expected.");
+                        }
+                        for (int p = 0; p < pixels.length; p++) {
+                            pixels[p].copyTo(row, p * (inputHeader.getPixelDepth() / 8), inputHeader.getPixelOrder());
+                        }
+                    } else if (!reader.readRow(inputHeader, chk, row)) {
+                        throw new InvalidImageException("Less image data to read, than expected.");
+                    }
+
+                    if (sampled) {
+                        for (byte b : row) {
+                            byteCount[Byte.toUnsignedInt(b)]++;
+                        }
+                        sampledRows++;
+                    }
+                }
+            }
+        }
+
+        return sampledRows;
+    }
+
+    /**
+     * Compares a huffman tree built from a sample of rows with the tree built from all bytes of the image.
+     *
+     * @param tree        tree built from the sample.
+     * @param fullCount   number of occurrences of all bytes of the image.
+     * @param fraction    requested share of sampled rows.
+     * @param sampledRows number of sampled rows.
+     * @param maxLength   maximum length of a code in bits, that also applies to the full tree, <code>0</code> for no limit.
+     * @return comparison of both trees.
+     */
+    private static HuffmanSampling compareWithFullTree(Node tree, int[] fullCount, double fraction, long sampledRows,
+                                                       int maxLength) {
+        long numBytes = Arrays.stream(fullCount).asLongStream().sum();
+        long sampledBits = new HuffmanTable(tree).encodedBits(fullCount);
+        long fullBits = 0;
+
+        if (numBytes > 0) {
+            Node fullTree = maxLength > 0 ? buildTree(fullCount, maxLength) : buildTree(fullCount);
+            fullBits = new HuffmanTable(fullTree).encodedBits(fullCount);
+        }
+
+        return new HuffmanSampling(fraction, sampledRows, numBytes, sampledBits, fullBits);
+    }
+
+    /**
+     * Builds a huffman tree from the number of occurrences of every byte.
+     *
+     * @param byteCount number of occurrences, indexed by the unsigned value of the byte.
+     * @return huffman tree.
+     */
+    public static Node buildTree(int[] byteCount) {
+        ArrayList<Node> nodeList = byteCountToNodeList(byteCount);
+
+        while (nodeList.size() > 1) {
+            Collections.sort(nodeList);
+
+            Node newNode = new Node(nodeList.get(0), nodeList.get(1));
+            nodeList.remove(1);
+            nodeList.remove(0);
+            nodeList.add(newNode);
+        }
+
+        Node tree = nodeList.get(0);
+
+        // Handle the case, that the tree consists of only 1 node.
+        if (tree.isLeave() && tree.isRoot()) {
+            return new Node(tree, new Node((byte) (tree.getSymbol() + 1), 1));
+        }
+
+        return tree;
+    }
+
+    /**
+     * Builds a huffman tree from the number of occurrences of every byte, whose codes are not longer than
+     * <code>maxLength</code> bits. If the codes of the huffman tree built by {@link #buildTree(int[])} are short
+     * enough, that tree is returned, otherwise the tree is built by {@link PackageMerge}.
+     *
+     * @param byteCount number of occurrences, indexed by the unsigned value of the byte.
+     * @param maxLength maximum length of a code in bits.
+     * @return huffman tree.
+     * @throws IllegalArgumentException if the bytes, that occur, do not fit into codes of the length.
+     */
+    public static Node buildTree(int[] byteCount, int maxLength) {
+        Node tree = buildTree(byteCount);
+        if (new HuffmanTable(tree).getMaxLength() <= maxLength) {
+            return tree;
+        }
+
+        return PackageMerge.buildTree(PackageMerge.codeLengths(byteCount, maxLength), byteCount);
+    }
+
+    /**
+     * Converts the byteCount array into an ArrayList of Nodes, that only contains nodes with a weight.
+     *
+     * @param byteCount array to be converted.
+     * @return ArrayList of Nodes.
+     */
+    public static ArrayList<Node> byteCountToNodeList(int[] byteCount) {
+        ArrayList<Node> list = new ArrayList<>();
+
+        for (int i = 0; i < byteCount.length; i++) {
+            if (byteCount[i] > 0) {
+                list.add(new Node((byte) i, byteCount[i]));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Identifies the format of the input image by its first bytes, if it is not known already.
+     * This is the case for streams, or files without a supported extension.
+     *
+     * @param request request, that contains the input.
+     * @return the request itself, if the format is known, otherwise a copy of the request with the detected format.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static ConversionRequest detectInFormat(ConversionRequest request) throws IOException {
+        if (request.getInFormat() != null) {
+            return request;
+        }
+
+        ConversionRequest detected = new ConversionRequest(request);
+        byte[] header = new byte[FORMAT_DETECTION_SIZE];
+
+        if (request.getInPath() != null) {
+            try (InputStream in = Files.newInputStream(request.getInPath())) {
+                int length = in.readNBytes(header, 0, header.length);
+                detected.setInFormat(ImageFormat.detect(header, length));
+            }
+        } else {
+            InputStream in = request.getInStream();
+            if (!in.markSupported()) {
+                in = new BufferedInputStream(in);
+            }
+
+            in.mark(header.length);
+            int length = in.readNBytes(header, 0, header.length);
+            in.reset();
+            detected.setInput(in, ImageFormat.detect(header, length));
+        }
+
+        return detected;
+    }
+
+    /**
+     * Reads the header of an image from the start of a stream, without reading its pixels.
+     *
+     * @param in     stream of the image.
+     * @param format format of the image, or <code>null</code> to detect it.
+     * @return header of the image.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the header is invalid.
+     */
+    private static ImageHeader peekHeader(InputStream in, ImageFormat format) throws IOException, InvalidImageException {
+        byte[] header = in.readNBytes(FORMAT_DETECTION_SIZE);
+        if (format == null) {
+            format = ImageFormat.detect(header, header.length);
+        }
+
+        try (ImageReader reader = getReader(getFormat(format, "input"), new ByteArrayInputStream(header))) {
+            return reader.readHeader();
+        }
+    }
+
+    /**
+     * Makes sure, that an input stream of a request supports {@link InputStream#mark(int)}, so that its first bytes
+     * can be inspected before it is read.
+     *
+     * @param request request, that contains the input.
+     * @return the request itself, if its input is a file or supports mark, otherwise a copy of the request with a
+     * buffered input stream.
+     */
+    private static ConversionRequest markInput(ConversionRequest request) {
+        if (request.getInPath() != null || request.getInStream().markSupported()) {
+            return request;
+        }
+
+        ConversionRequest marked = new ConversionRequest(request);
+        marked.setInput(new BufferedInputStream(request.getInStream()), request.getInFormat());
+
+        return marked;
+    }
+
+    /**
+     * Checks, whether the input of a request is gzip compressed, by the magic number at its start.
+     * An input stream has to support {@link InputStream#mark(int)} (see {@link #markInput(ConversionRequest)}).
+     *
+     * @param request request, that contains the input.
+     * @return true, if the input starts with the gzip magic number.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static boolean isGzip(ConversionRequest request) throws IOException {
+        byte[] magic = new byte[2];
+        int length;
+
+        if (request.getInPath() != null) {
+            try (InputStream in = Files.newInputStream(request.getInPath())) {
+                length = in.readNBytes(magic, 0, magic.length);
+            }
+        } else {
+            InputStream in = request.getInStream();
+            in.mark(magic.length);
+            length = in.readNBytes(magic, 0, magic.length);
+            in.reset();
+        }
+
+        return length == magic.length
+                && Byte.toUnsignedInt(magic[0]) == (GZIPInputStream.GZIP_MAGIC & 0xFF)
+                && Byte.toUnsignedInt(magic[1]) == GZIPInputStream.GZIP_MAGIC >>> 8;
+    }
+
+    /**
+     * Opens the input of a request. Streams passed by the caller are not closed, when the returned stream gets closed.
+     *
+     * @param request     request, that contains the input.
+     * @param stagedInput input, that has already been read into memory, or <code>null</code>.
+     * @return counting input stream.
+     * @throws IOException if the input file cannot be opened.
+     */
+    private CountingInputStream openInput(ConversionRequest request, byte[] stagedInput) throws IOException {
+        if (stagedInput != null) {
+            return new CountingInputStream(new ByteArrayInputStream(stagedInput), true);
+        } else if (request.getInPath() != null) {
+            InputStream in = Files.newInputStream(request.getInPath());
+            if (this.ioExecutor != null) {
+                in = new ReadAheadInputStream(in, TRANSFER_BUFFER_SIZE, READ_AHEAD_CHUNKS, this.ioExecutor);
+            }
+            return new CountingInputStream(in, true);
+        }
+
+        return new CountingInputStream(request.getInStream(), false);
+    }
+
+    /**
+     * Opens the output of a request. Streams passed by the caller are not closed, when the returned stream gets closed.
+     *
+     * @param request request, that contains the output.
+     * @return counting output stream.
+     * @throws IOException if the output file cannot be opened.
+     */
+    private CountingOutputStream openOutput(ConversionRequest request) throws IOException {
+        if (request.getOutPath() != null) {
+            OutputStream out = Files.newOutputStream(request.getOutPath());
+            if (this.ioExecutor != null) {
+                out = new WriteBehindOutputStream(out, TRANSFER_BUFFER_SIZE, READ_AHEAD_CHUNKS, this.ioExecutor);
+            }
+            return new CountingOutputStream(out, true);
+        }
+
+        return new CountingOutputStream(request.getOutStream(), false);
+    }
+
+    /**
+     * Returns the suitable reader for the input format.
+     *
+     * @param format format of the input image.
+     * @param in     input stream.
+     * @return suitable reader.
+     */
+    private static ImageReader getReader(ImageFormat format, InputStream in) {
+        if (format == ImageFormat.TGA) {
+            return new TGAReader(in);
+        }
+
+        return new ProPraReader(in);
+    }
+
+    /**
+     * Returns the suitable writer for the output format.
+     *
+     * @param format format of the output image.
+     * @param out    output stream.
+     * @return suitable writer.
+     */
+    private static ImageWriter getWriter(ImageFormat format, OutputStream out) {
+        if (format == ImageFormat.ProPra) {
+            return new ProPraWriter(out);
+        }
+
+        return new ImageWriter(out);
+    }
+
+    /**
+     * Verifies that the format of an image is known.
+     *
+     * @param format format to be verified.
+     * @param name   name of the side of the conversion (input or output), used for the error message.
+     * @return format.
+     */
+    private static ImageFormat getFormat(ImageFormat format, String name) {
+        if (format == null) {
+            throw new IllegalArgumentException(String.format("Unsupported file format for %s. " +
+                    "Only *.tga and *.propra are supported.", name));
+        }
+
+        return format;
+    }
+
+    /**
+     * Returns the compression for the given work mode.
+     *
+     * @param workMode work mode of a conversion.
+     * @return compression.
+     */
+    private static Compression getCompression(WorkMode workMode) {
+        switch (workMode) {
+            case ConvertRLE:
+                return Compression.RLE;
+            case ConvertHuffman:
+                return Compression.Huffman;
+            case ConvertUncompressed:
+                return Compression.Uncompressed;
+            default:
+                throw new IllegalArgumentException(String.format("Work mode %s is not a conversion.", workMode));
+        }
+    }
+
+    /**
+     * Converts the read header into the suitable output header.
+     *
+     * @param inputHeader header from input file.
+     * @param outFormat   format of the output image.
+     * @param compression compression of the output image.
+     * @param tree        Huffman tree for output header (in case of conversion to huffman compressed propra file.
+     *                    Otherwise this is <code>null</code>
+     * @return output header.
+     * @throws InvalidImageException if constructed output header is invalid.
+     */
+    private static ImageHeader convertHeader(ImageHeader inputHeader, ImageFormat outFormat, Compression compression,
+                                             Node tree) throws InvalidImageException {
+        short imgWidth = inputHeader.getImgWidth();
+        short imgHeight = inputHeader.getImgHeight();
+        byte pixelDepth = inputHeader.getPixelDepth();
+
+        if (outFormat == ImageFormat.TGA) {
+            byte imageIDLength = 0;
+            byte imageType = (byte) (compression == Compression.RLE ? 10 : 2);
+            short xOrigin = 0;
+            short yOrigin = inputHeader.getImgHeight();
+            byte imgDescriptor = 0x20;
+
+            return new TGAImageHeader(imageIDLength, imageType, xOrigin, yOrigin, imgWidth, imgHeight, pixelDepth, imgDescriptor, compression);
+        } else {
+            String magic = "ProPraWS19";
+            long dataSegmentSize = imgWidth * imgHeight * (pixelDepth / 8);
+            // Checksum will be 0 first, as we cannot set the real checksum, before all pixels are read
+            int checksum = 0;
+
+            return new ProPraImageHeader(magic, imgWidth, imgHeight, pixelDepth, compression, dataSegmentSize, checksum, tree);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package propra.imageconverter.converter;
+
+/**
+ * Compares a huffman tree built from a sample of rows with the tree, that would have been built from all rows.
+ * Both trees are measured by the number of bits they need to encode all bytes of the image, without the tree itself.
+ */
+public class HuffmanSampling {
+
+    /**
+     * Requested share of rows, the tree was built from.
+     */
+    private final double fraction;
+
+    /**
+     * Number of rows, the tree was built from.
+     */
+    private final long sampledRows;
+
+    /**
+     * Number of encoded bytes.
+     */
+    private final long numBytes;
+
+    /**
+     * Number of bits needed with the tree built from the sample.
+     */
+    private final long sampledBits;
+
+    /**
+     * Number of bits needed with the tree built from all rows.
+     */
+    private final long fullBits;
+
+    /**
+     * Constructs a comparison of a sampled and a full huffman tree.
+     *
+     * @param fraction    requested share of rows, the tree was built from.
+     * @param sampledRows number of rows, the tree was built from.
+     * @param numBytes    number of encoded bytes.
+     * @param sampledBits number of bits needed with the tree built from the sample.
+     * @param fullBits    number of bits needed with the tree built from all rows.
+     */
+    public HuffmanSampling(double fraction, long sampledRows, long numBytes, long sampledBits, long fullBits) {
+        this.fraction = fraction;
+        this.sampledRows = sampledRows;
+        this.numBytes = numBytes;
+        this.sampledBits = sampledBits;
+        this.fullBits = fullBits;
+    }
+
+    /**
+     * Returns requested share of rows, the tree was built from.
+     *
+     * @return fraction.
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Returns number of rows, the tree was built from.
+     *
+     * @return sampledRows.
+     */
+    public long getSampledRows() {
+        return sampledRows;
+    }
+
+    /**
+     * Returns average length of a code with the tree built from the sample.
+     *
+     * @return bits per byte, 0 if no byte has been encoded.
+     */
+    public double getSampledBitsPerByte() {
+        return numBytes == 0 ? 0 : (double) sampledBits / numBytes;
+    }
+
+    /**
+     * Returns average length of a code with the tree built from all rows.
+     *
+     * @return bits per byte, 0 if no byte has been encoded.
+     */
+    public double getFullBitsPerByte() {
+        return numBytes == 0 ? 0 : (double) fullBits / numBytes;
+    }
+
+    /**
+     * Returns number of bytes the encoded image data grew by sampling.
+     *
+     * @return cost in bytes.
+     */
+    public long getCost() {
+        return (sampledBits + 7) / 8 - (fullBits + 7) / 8;
+    }
+
+    /**
+     * Returns a short summary of the comparison, to be appended to the summary of a conversion.
+     *
+     * @return summary.
+     */
+    @Override
+    public String toString() {
+        return String.format("huffman tree sampled from %d rows (%.3f instead of %.3f bits per byte, %d bytes larger)",
+                sampledRows, getSampledBitsPerByte(), getFullBitsPerByte(), getCost());
+    }
+}
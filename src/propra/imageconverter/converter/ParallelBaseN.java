@@ -0,0 +1,218 @@
+package propra.imageconverter.converter;
+
+import propra.imageconverter.BaseN;
+import propra.imageconverter.exceptions.InvalidEncodingException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * En-/decodes files in Base-N encoding on several threads.
+ * <p>
+ * Every group of {@link BaseN#maxInputBytes()} bytes is encoded into {@link BaseN#maxInputCharacters()} characters
+ * independently of the other groups. So the input is split into chunks of whole groups, whose position in the output
+ * is known in advance. The chunks are read from the memory mapped input, en-/decoded on the common fork-join pool and
+ * written at their position into the output, whose size has been set before. The output is the same as the one of
+ * the sequential en-/decoder, including the alphabet line of custom alphabets.
+ * </p>
+ */
+final class ParallelBaseN {
+
+    /**
+     * Minimum size of an input in bytes, from which on it is en-/decoded in parallel.
+     */
+    static final long MIN_PARALLEL_SIZE = 1 << 20;
+
+    /**
+     * Number of groups of the encoder in one chunk.
+     */
+    private static final int CHUNK_GROUPS = 128 * 1024;
+
+    /**
+     * Number of bytes read to find the alphabet line of a custom alphabet. Any valid alphabet line is shorter.
+     */
+    private static final int HEADER_PEEK_SIZE = 4096;
+
+    private ParallelBaseN() {
+    }
+
+    /**
+     * Encodes a file.
+     *
+     * @param encoder encoder to be used.
+     * @param inPath  path of the input file.
+     * @param outPath path of the output file.
+     * @return size of the output in bytes.
+     * @throws IOException if an I/O error occurs.
+     */
+    static long encode(BaseN encoder, Path inPath, Path outPath) throws IOException {
+        byte[] header = encoder.isBase32Hex()
+                ? new byte[0]
+                : (encoder.getAlphabet() + "\n").getBytes(StandardCharsets.US_ASCII);
+        int chunkBytes = encoder.maxInputBytes() * CHUNK_GROUPS;
+        long chunkCharacters = encoder.encodedLength(chunkBytes);
+
+        try (FileChannel in = FileChannel.open(inPath, StandardOpenOption.READ);
+             RandomAccessFile outFile = new RandomAccessFile(outPath.toFile(), "rw")) {
+            long size = in.size();
+            long outputSize = header.length + encoder.encodedLength(size);
+            outFile.setLength(outputSize);
+            FileChannel out = outFile.getChannel();
+            writeFully(out, header, header.length, 0);
+
+            List<Callable<Void>> chunks = new ArrayList<>();
+            for (long chunk = 0; chunk * chunkBytes < size; chunk++) {
+                long inPosition = chunk * chunkBytes;
+                long outPosition = header.length + chunk * chunkCharacters;
+                int length = (int) Math.min(chunkBytes, size - inPosition);
+
+                chunks.add(() -> {
+                    byte[] src = new byte[length];
+                    byte[] dst = new byte[(int) encoder.encodedLength(length)];
+                    in.map(FileChannel.MapMode.READ_ONLY, inPosition, length).get(src);
+                    writeFully(out, dst, encoder.encode(src, 0, length, dst, 0), outPosition);
+                    return null;
+                });
+            }
+            invokeAll(chunks);
+
+            return outputSize;
+        } catch (InvalidEncodingException e) {
+            // Encoding accepts any bytes.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes a file. For a custom alphabet, the alphabet is read from the first line of the input.
+     *
+     * @param encoder encoder to be used, only its alphabet is replaced for a custom alphabet.
+     * @param inPath  path of the input file.
+     * @param outPath path of the output file.
+     * @return size of the output in bytes.
+     * @throws IOException              if an I/O error occurs.
+     * @throws InvalidEncodingException if the input is not validly encoded. The output file is deleted then.
+     */
+    static long decode(BaseN encoder, Path inPath, Path outPath) throws IOException, InvalidEncodingException {
+        try (FileChannel in = FileChannel.open(inPath, StandardOpenOption.READ)) {
+            long size = in.size();
+            long dataOffset = 0;
+
+            if (!encoder.isBase32Hex()) {
+                byte[] head = new byte[(int) Math.min(HEADER_PEEK_SIZE, size)];
+                in.map(FileChannel.MapMode.READ_ONLY, 0, head.length).get(head);
+                int end = 0;
+                while (end < head.length && head[end] != '\n' && head[end] != '\r') {
+                    end++;
+                }
+
+                // A line, that does not end within the peeked bytes, is rejected as too long alphabet.
+                encoder = new BaseN(new String(head, 0, end, StandardCharsets.US_ASCII));
+                dataOffset = end;
+                if (end < head.length) {
+                    dataOffset++;
+                    if (head[end] == '\r' && end + 1 < head.length && head[end + 1] == '\n') {
+                        dataOffset++;
+                    }
+                }
+            }
+
+            BaseN decoder = encoder;
+            int chunkCharacters = decoder.maxInputCharacters() * CHUNK_GROUPS;
+            long chunkBytes = decoder.decodedLength(chunkCharacters);
+            long dataSize = size - dataOffset;
+            long outputSize = decoder.decodedLength(dataSize);
+
+            try (RandomAccessFile outFile = new RandomAccessFile(outPath.toFile(), "rw")) {
+                outFile.setLength(outputSize);
+                FileChannel out = outFile.getChannel();
+
+                List<Callable<Void>> chunks = new ArrayList<>();
+                for (long chunk = 0; chunk * chunkCharacters < dataSize; chunk++) {
+                    long inPosition = dataOffset + chunk * chunkCharacters;
+                    long outPosition = chunk * chunkBytes;
+                    int length = (int) Math.min(chunkCharacters, dataSize - chunk * chunkCharacters);
+
+                    chunks.add(() -> {
+                        byte[] src = new byte[length];
+                        byte[] dst = new byte[(int) decoder.decodedLength(length)];
+                        in.map(FileChannel.MapMode.READ_ONLY, inPosition, length).get(src);
+                        writeFully(out, dst, decoder.decode(src, 0, length, dst, 0), outPosition);
+                        return null;
+                    });
+                }
+                invokeAll(chunks);
+            } catch (IOException | InvalidEncodingException | RuntimeException e) {
+                // The output has been sized in advance, so it must not be left behind.
+                Files.deleteIfExists(outPath);
+                throw e;
+            }
+
+            return outputSize;
+        }
+    }
+
+    /**
+     * Runs tasks on the common fork-join pool and waits for all of them.
+     *
+     * @param tasks tasks to be run.
+     * @throws IOException              if a task failed with an I/O error, or the thread got interrupted.
+     * @throws InvalidEncodingException if a task found a character, that is not part of the alphabet.
+     */
+    private static void invokeAll(List<Callable<Void>> tasks) throws IOException, InvalidEncodingException {
+        try {
+            for (Future<Void> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Base-N chunks.");
+        } catch (ExecutionException e) {
+            // The pool wraps checked exceptions of a task into a RuntimeException.
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof InvalidEncodingException) {
+                    throw (InvalidEncodingException) cause;
+                }
+            }
+
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Writes bytes at a position of a file.
+     *
+     * @param out      channel to be written to.
+     * @param bytes    bytes to be written.
+     * @param length   number of bytes to be written.
+     * @param position position of the first byte in the file.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void writeFully(FileChannel out, byte[] bytes, int length, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes, 0, length);
+        while (buf.hasRemaining()) {
+            out.write(buf, position + buf.position());
+        }
+    }
+}
@@ -2,10 +2,25 @@ package propra.imageconverter.handler;
 
 import propra.imageconverter.BaseN;
 import propra.imageconverter.WorkMode;
+import propra.imageconverter.converter.ConversionRequest;
 import propra.imageconverter.exceptions.IllegalArgumentException;
 import propra.imageconverter.exceptions.InvalidEncodingException;
+import propra.imageconverter.image.ImageFormat;
+import propra.imageconverter.image.RLEMode;
+import propra.imageconverter.io.BundleWriter;
+import propra.imageconverter.server.MemoryScheduler;
+import propra.imageconverter.server.SchedulingPolicy;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Argument handler handles the arguments that are passed to the ImageConverter program. This handler is used on one
@@ -15,9 +30,30 @@ import java.io.File;
 public class ArgumentHandler {
 
     private File inFile;
+    private final ArrayList<File> inFiles = new ArrayList<>();
     private File outFile;
+    private ImageFormat outFormat;
     private WorkMode workMode;
+    private RLEMode rleMode;
+    private int huffmanMaxLength;
+    private File huffmanTreeFile;
+    private double huffmanSample;
+    private File treeFile;
+    private File bundleFile;
+    private File watchDir;
+    private File queueDir;
     private BaseN encoder;
+    private boolean parallel = false;
+    private String outputAlphabet;
+    private BaseN inEncoding;
+    private BaseN outEncoding;
+    private int port;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueDepth = 64;
+    private long memoryBudget = MemoryScheduler.getDefaultBudget();
+    private SchedulingPolicy schedulingPolicy;
+    private boolean serverOptionUsed = false;
+    private boolean queueDepthUsed = false;
 
     /**
      * Constructs an Argument Handler that validates commandline arguments passed to the program.
@@ -56,6 +92,109 @@ public class ArgumentHandler {
         this.outFile = outFile;
     }
 
+    /**
+     * Get the paths of all images, a huffman tree is trained with or a bundle is created of. These are the files passed
+     * as --input arguments, directories are replaced by the *.tga and *.propra files they contain.
+     *
+     * @return paths of the images.
+     * @throws IOException if a directory cannot be listed.
+     */
+    public List<Path> getImagePaths() throws IOException {
+        ArrayList<Path> paths = new ArrayList<>();
+
+        for (File file : this.inFiles) {
+            if (file.isDirectory()) {
+                try (Stream<Path> children = Files.list(file.toPath())) {
+                    paths.addAll(children.filter(path -> path.getFileName().toString().matches(".*\\.(tga|propra)"))
+                            .sorted().collect(Collectors.toList()));
+                }
+            } else {
+                paths.add(file.toPath());
+            }
+        }
+
+        return paths;
+    }
+
+    /**
+     * Get the path of the tree file, that is written when training a huffman tree (--train-tree argument).
+     *
+     * @return path of the tree file.
+     */
+    public File getTreeFile() {
+        return treeFile;
+    }
+
+    /**
+     * Get the path of the bundle, that is created, listed or extracted (--create-bundle, --list-bundle and
+     * --extract-bundle argument).
+     *
+     * @return path of the bundle.
+     */
+    public File getBundleFile() {
+        return bundleFile;
+    }
+
+    /**
+     * Get the directory, that is watched for new images (--watch argument).
+     *
+     * @return watched directory, or <code>null</code> if no directory is watched.
+     */
+    public File getWatchDir() {
+        return watchDir;
+    }
+
+    /**
+     * Get the shared queue directory, whose images are converted together with other processes (--queue argument).
+     *
+     * @return queue directory, or <code>null</code> if no queue is processed.
+     */
+    public File getQueueDir() {
+        return queueDir;
+    }
+
+    /**
+     * Get the maximum length of a huffman code in bits (--huffman-max-length argument).
+     *
+     * @return maximum length, <code>0</code> for no limit.
+     */
+    public int getHuffmanMaxLength() {
+        return huffmanMaxLength;
+    }
+
+    /**
+     * Check, whether the input is read from stdin (passed as --input=-).
+     *
+     * @return if input is stdin.
+     */
+    public boolean isStdIn() {
+        return this.inFile != null && this.inFile.getPath().equals("-");
+    }
+
+    /**
+     * Check, whether the output is written to stdout (passed as --output=-).
+     *
+     * @return if output is stdout.
+     */
+    public boolean isStdOut() {
+        return this.outFile != null && this.outFile.getPath().equals("-");
+    }
+
+    /**
+     * Get the format of the output image. This is either the format passed as --output-format argument,
+     * or the format identified by the extension of the output file, in front of a *.gz, *.base-32 or *.base-n
+     * extension.
+     *
+     * @return format of output image, or <code>null</code> if it is unknown.
+     */
+    public ImageFormat getOutFormat() {
+        if (this.outFormat == null && this.outFile != null) {
+            return ImageFormat.fromFileName(stripEncoding(this.outFile.getName()));
+        }
+
+        return this.outFormat;
+    }
+
     /**
      * Get the WorkMode identified from the given arguments.
      *
@@ -84,6 +223,96 @@ public class ArgumentHandler {
         return encoder;
     }
 
+    /**
+     * Get the port passed as --server argument to the program.
+     *
+     * @return port for server mode.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the number of jobs, the server converts at the same time (--threads argument).
+     * Defaults to the number of available processors.
+     *
+     * @return number of worker threads.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Get the number of jobs, that may wait for a free worker in server mode (--queue-depth argument).
+     *
+     * @return queue depth.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Get the memory budget of the conversions in server and watch mode (--memory-budget argument in MiB).
+     * Defaults to three quarters of the maximum heap.
+     *
+     * @return memory budget in bytes.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Get the order, in which conversions are started in server and watch mode (--schedule argument).
+     * Defaults to interleaving small and large images.
+     *
+     * @return scheduling policy.
+     */
+    public SchedulingPolicy getSchedulingPolicy() {
+        return schedulingPolicy != null ? schedulingPolicy : SchedulingPolicy.Interleave;
+    }
+
+    /**
+     * Creates a request for the converter from the arguments.
+     *
+     * @return request.
+     * @throws IOException if a directory of images cannot be listed.
+     */
+    public ConversionRequest createRequest() throws IOException {
+        ConversionRequest request = new ConversionRequest(this.inFile.toPath(),
+                this.outFile != null ? this.outFile.toPath() : null, this.workMode);
+        request.setEncoder(this.encoder);
+        if (this.rleMode != null) {
+            request.setRLEMode(this.rleMode);
+        }
+        request.setHuffmanMaxLength(this.huffmanMaxLength);
+        if (this.huffmanTreeFile != null) {
+            request.setHuffmanTreePath(this.huffmanTreeFile.toPath());
+        }
+        if (this.huffmanSample != 0) {
+            request.setHuffmanSample(this.huffmanSample);
+        }
+        request.setParallel(this.parallel);
+        request.setInEncoding(this.inEncoding);
+        request.setOutEncoding(this.outEncoding);
+        request.setGzipOutput(this.isGzipOutput());
+        if (this.isBundleConversion() || this.isDirectoryMode()) {
+            request.setOutFormat(this.outFormat);
+        }
+        if (this.workMode == WorkMode.TrainTree || this.workMode == WorkMode.CreateBundle) {
+            request.setImagePaths(this.getImagePaths());
+        }
+
+        // The format of stdin is identified by the converter.
+        if (this.isStdIn()) {
+            request.setInput(System.in, null);
+        }
+        if (this.isStdOut()) {
+            request.setOutput(new FileOutputStream(FileDescriptor.out), this.outFormat);
+        }
+
+        return request;
+    }
+
     /**
      * Validate whether passed arguments to program ar valid. Checks on one hand for the number of arguments (which
      * should be two) and on the other hand, if the arguments are in an expected format.
@@ -102,6 +331,9 @@ public class ArgumentHandler {
                 case "--output":
                     processOutput(arg);
                     break;
+                case "--output-format":
+                    processOutputFormat(arg);
+                    break;
                 case "--decode-base-32":
                     processEncodeDecodeBase32(arg, WorkMode.Decode);
                     break;
@@ -117,6 +349,58 @@ public class ArgumentHandler {
                 case "--compression":
                     processCompression(arg);
                     break;
+                case "--rle":
+                    processRLEMode(arg);
+                    break;
+                case "--huffman-max-length":
+                    processHuffmanMaxLength(arg);
+                    break;
+                case "--huffman-tree":
+                    processHuffmanTree(arg);
+                    break;
+                case "--huffman-sample":
+                    processHuffmanSample(arg);
+                    break;
+                case "--train-tree":
+                    processTrainTree(arg);
+                    break;
+                case "--create-bundle":
+                    processBundle(arg, WorkMode.CreateBundle);
+                    break;
+                case "--list-bundle":
+                    processBundle(arg, WorkMode.ListBundle);
+                    break;
+                case "--extract-bundle":
+                    processBundle(arg, WorkMode.ExtractBundle);
+                    break;
+                case "--output-alphabet":
+                    processOutputAlphabet(arg);
+                    break;
+                case "--parallel":
+                    processParallel(arg);
+                    break;
+                case "--server":
+                    processServer(arg);
+                    break;
+                case "--threads":
+                    this.threads = processServerOption(arg);
+                    break;
+                case "--queue-depth":
+                    this.queueDepth = processServerOption(arg);
+                    this.queueDepthUsed = true;
+                    break;
+                case "--memory-budget":
+                    this.memoryBudget = processServerOption(arg) * 1024L * 1024L;
+                    break;
+                case "--schedule":
+                    processSchedule(arg);
+                    break;
+                case "--watch":
+                    processWatch(arg);
+                    break;
+                case "--queue":
+                    processQueue(arg);
+                    break;
                 default:
                     String message = String.format("Unsupported argument used: %s\n%s", arg, this.getUsage());
                     throw new IllegalArgumentException(message);
@@ -124,6 +408,7 @@ public class ArgumentHandler {
         }
 
         this.validateFiles();
+        this.processEncodings();
     }
 
     /**
@@ -133,16 +418,54 @@ public class ArgumentHandler {
      */
     public String getUsage() {
         return "Usage: \tImageConverter --input=<Path to input file> --output=<Path to output file> --compression=rle\n" +
+                "  or \tImageConverter --input=- --output=- --output-format=<tga|propra> --compression=<Compression>\n" +
                 "  or \tImageConverter --input=<Path to input file> --output=<Path to output file> --compression=uncompressed\n" +
                 "  or \tImageConverter --input=<Path to input file> --output=<Path to output file> --compression=auto\n" +
+                "  or \tImageConverter --input=<Path to input file> --output=<Path to output file> --compression=<rle|auto> --rle=<greedy|optimal>\n" +
                 "  or \tImageConverter --input=<Path to input file> --output=<Path to output file in *.propra format> --compression=huffman\n" +
-                "  or \tImageConverter --input=<Path to input file> --encode-base-32\n" +
-                "  or \tImageConverter --input=<Path to input file> --decode-base-32\n" +
-                "  or \tImageConverter --input=<Path to input file> --encode-base-n=<Alphabet>\n" +
-                "  or \tImageConverter --input=<Path to input file> --decode-base-n\n" +
+                "  or \tImageConverter --input=<Path to input file> --output=<Path to output file in *.propra format> --compression=<huffman|auto> --huffman-max-length=<8-32>\n" +
+                "  or \tImageConverter --input=<Path to input file> --output=<Path to output file in *.propra format> --compression=<huffman|auto> --huffman-tree=<Path to tree file>\n" +
+                "  or \tImageConverter --input=<Path to input file> --output=<Path to output file in *.propra format> --compression=<huffman|auto> --huffman-sample=<Share of rows, e.g. 0.05>\n" +
+                "  or \tImageConverter --input=<Path to input file>[.base-32|.base-n] --output=<Path to output file>[.base-32] --compression=<Compression>\n" +
+                "  or \tImageConverter --input=<Path to input file>[.base-32|.base-n] --output=<Path to output file>.base-n --output-alphabet=<Alphabet> --compression=<Compression>\n" +
+                "  or \tImageConverter --input=<Path to input file>[.gz] --output=<Path to output file>[.gz] --compression=<Compression>\n" +
+                "  or \tImageConverter --input=<Path to input bundle>.bundle --output=<Path to output bundle>.bundle --output-format=<tga|propra> --compression=<Compression>\n" +
+                "  or \tImageConverter --watch=<Path to directory> --output=<Path to directory> --output-format=<tga|propra> --compression=<Compression> [--threads=<Number of parallel conversions>] [--memory-budget=<MiB>] [--schedule=<interleave|shortest-first>]\n" +
+                "  or \tImageConverter --queue=<Path to shared directory> --output=<Path to directory> --output-format=<tga|propra> --compression=<Compression> [--threads=<Number of parallel conversions>] [--memory-budget=<MiB>] [--schedule=<interleave|shortest-first>]\n" +
+                "  or \tImageConverter --train-tree=<Path to tree file> --input=<Path to image or directory> [--input=<...>] [--huffman-max-length=<8-32>]\n" +
+                "  or \tImageConverter --create-bundle=<Path to bundle>.bundle --input=<Path to image or directory> [--input=<...>]\n" +
+                "  or \tImageConverter --list-bundle=<Path to bundle>.bundle\n" +
+                "  or \tImageConverter --extract-bundle=<Path to bundle>.bundle --output=<Path to directory>\n" +
+                "  or \tImageConverter --input=<Path to input file> --encode-base-32 [--parallel]\n" +
+                "  or \tImageConverter --input=<Path to input file> --decode-base-32 [--parallel]\n" +
+                "  or \tImageConverter --input=<Path to input file> --encode-base-n=<Alphabet> [--parallel]\n" +
+                "  or \tImageConverter --input=<Path to input file> --decode-base-n [--parallel]\n" +
+                "  or \tImageConverter --server=<Port> [--threads=<Number of parallel jobs>] [--queue-depth=<Number of waiting jobs>] [--memory-budget=<MiB>] [--schedule=<interleave|shortest-first>]\n" +
                 "Note! Order of arguments does not matter.";
     }
 
+    /**
+     * Get the file extension of the image in the --input argument, in front of a *.gz, *.base-32 or *.base-n
+     * extension.
+     *
+     * @return extension of the input image.
+     */
+    public String getInImageExtension() {
+        String fileName = stripEncoding(this.inFile.getName());
+        return fileName.substring(fileName.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Get the file extension of the image in the --output argument, in front of a *.gz, *.base-32 or *.base-n
+     * extension.
+     *
+     * @return extension of the output image.
+     */
+    public String getOutImageExtension() {
+        String fileName = stripEncoding(this.outFile.getName());
+        return fileName.substring(fileName.lastIndexOf('.') + 1);
+    }
+
     /**
      * Get file extension from --input argument.
      *
@@ -172,13 +495,13 @@ public class ArgumentHandler {
     private void processInput(String arg) throws IllegalArgumentException {
         String[] splittedArgument = arg.split("=");
 
-        if (this.inFile != null) {
-            // Show error, if --input is used twice.
-            String message = String.format("Used argument --input twice.\n%s\n%s",
-                    arg, this.getUsage());
-            throw new IllegalArgumentException(message);
-        } else if (splittedArgument.length == 2) {
-            this.inFile = new File(splittedArgument[1]);
+        if (splittedArgument.length == 2) {
+            // --input may only be used more than once for training a huffman tree or creating a bundle, which is
+            // checked afterwards.
+            if (this.inFile == null) {
+                this.inFile = new File(splittedArgument[1]);
+            }
+            this.inFiles.add(new File(splittedArgument[1]));
         } else {
             // Show error, if there is no path given after = sign, or = is used more than once in that argument.
             String message = String.format("Wrong use of argument %s: %s\n%s",
@@ -211,6 +534,232 @@ public class ArgumentHandler {
         }
     }
 
+    /**
+     * Processes --output-format= argument
+     *
+     * @param arg String that starts with "--output-format=" followed by "tga" or "propra".
+     * @throws IllegalArgumentException if --output-format argument is used wrong.
+     */
+    private void processOutputFormat(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.outFormat != null) {
+            String message = String.format("Used argument --output-format twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (splittedArgument.length == 2 && ImageFormat.fromFileName(splittedArgument[1]) != null) {
+            this.outFormat = ImageFormat.fromFileName(splittedArgument[1]);
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Processes --rle= argument
+     *
+     * @param arg String that starts with "--rle=" followed by "greedy" or "optimal".
+     * @throws IllegalArgumentException if --rle argument is used wrong.
+     */
+    private void processRLEMode(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.rleMode != null) {
+            String message = String.format("Used argument --rle twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (splittedArgument.length == 2 && splittedArgument[1].equals("greedy")) {
+            this.rleMode = RLEMode.Greedy;
+        } else if (splittedArgument.length == 2 && splittedArgument[1].equals("optimal")) {
+            this.rleMode = RLEMode.Optimal;
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Processes --huffman-max-length= argument
+     *
+     * @param arg String that starts with "--huffman-max-length=" followed by a number of bits between 8 and 32.
+     * @throws IllegalArgumentException if --huffman-max-length argument is used wrong.
+     */
+    private void processHuffmanMaxLength(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.huffmanMaxLength != 0) {
+            String message = String.format("Used argument --huffman-max-length twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (splittedArgument.length == 2 && splittedArgument[1].matches("[89]|[12]\\d|3[0-2]")) {
+            this.huffmanMaxLength = Integer.parseInt(splittedArgument[1]);
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Processes --huffman-tree= argument
+     *
+     * @param arg String that starts with "--huffman-tree=" followed by the path of a tree file.
+     * @throws IllegalArgumentException if --huffman-tree argument is used wrong.
+     */
+    private void processHuffmanTree(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.huffmanTreeFile != null) {
+            String message = String.format("Used argument --huffman-tree twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (splittedArgument.length == 2) {
+            this.huffmanTreeFile = new File(splittedArgument[1]);
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Processes --huffman-sample= argument
+     *
+     * @param arg String that starts with "--huffman-sample=" followed by a decimal number greater than 0 and at most 1.
+     * @throws IllegalArgumentException if --huffman-sample argument is used wrong.
+     */
+    private void processHuffmanSample(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.huffmanSample != 0) {
+            String message = String.format("Used argument --huffman-sample twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (splittedArgument.length == 2 && splittedArgument[1].matches("0?\\.\\d+|1(\\.0*)?")
+                && Double.parseDouble(splittedArgument[1]) > 0) {
+            this.huffmanSample = Double.parseDouble(splittedArgument[1]);
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Processes --train-tree= argument
+     *
+     * @param arg String that starts with "--train-tree=" followed by the path of the tree file to be written.
+     * @throws IllegalArgumentException if --train-tree argument is used wrong.
+     */
+    private void processTrainTree(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.workMode != null) {
+            getWorkModeError(WorkMode.TrainTree, arg);
+        } else if (splittedArgument.length == 2) {
+            this.treeFile = new File(splittedArgument[1]);
+            this.workMode = WorkMode.TrainTree;
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Processes --watch= argument
+     *
+     * @param arg String that starts with "--watch=" followed by the path of the directory to be watched.
+     * @throws IllegalArgumentException if --watch argument is used wrong.
+     */
+    private void processWatch(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.watchDir != null) {
+            String message = String.format("Used argument --watch twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (splittedArgument.length == 2) {
+            this.watchDir = new File(splittedArgument[1]);
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Processes --schedule= argument
+     *
+     * @param arg String that starts with "--schedule=" followed by "interleave" or "shortest-first".
+     * @throws IllegalArgumentException if --schedule argument is used wrong.
+     */
+    private void processSchedule(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.schedulingPolicy != null) {
+            String message = String.format("Used argument --schedule twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (splittedArgument.length == 2 && splittedArgument[1].equals("interleave")) {
+            this.schedulingPolicy = SchedulingPolicy.Interleave;
+        } else if (splittedArgument.length == 2 && splittedArgument[1].equals("shortest-first")) {
+            this.schedulingPolicy = SchedulingPolicy.ShortestFirst;
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+        this.serverOptionUsed = true;
+    }
+
+    /**
+     * Processes --queue= argument
+     *
+     * @param arg String that starts with "--queue=" followed by the path of the shared queue directory.
+     * @throws IllegalArgumentException if --queue argument is used wrong.
+     */
+    private void processQueue(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.queueDir != null) {
+            String message = String.format("Used argument --queue twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (splittedArgument.length == 2) {
+            this.queueDir = new File(splittedArgument[1]);
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Processes --create-bundle=, --list-bundle= and --extract-bundle= argument
+     *
+     * @param arg      String that starts with "--create-bundle=", "--list-bundle=" or "--extract-bundle=" followed by
+     *                 the path of the bundle.
+     * @param workMode work mode of the argument.
+     * @throws IllegalArgumentException if the argument is used wrong.
+     */
+    private void processBundle(String arg, WorkMode workMode) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.workMode != null) {
+            getWorkModeError(workMode, arg);
+        } else if (splittedArgument.length == 2 && splittedArgument[1].endsWith("." + BundleWriter.EXTENSION)) {
+            this.bundleFile = new File(splittedArgument[1]);
+            this.workMode = workMode;
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
     /**
      * Processes --encode-base-32 and --decode-base-32 argument
      *
@@ -299,6 +848,177 @@ public class ArgumentHandler {
         }
     }
 
+    /**
+     * Processes --server= argument.
+     *
+     * @param arg String that starts with "--server=" followed by the port to listen on.
+     * @throws IllegalArgumentException if --server argument is used wrong.
+     */
+    private void processServer(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.workMode != null) {
+            getWorkModeError(WorkMode.Server, arg);
+        } else if (splittedArgument.length == 2 && splittedArgument[1].matches("\\d{1,5}")
+                && Integer.parseInt(splittedArgument[1]) <= 0xFFFF) {
+            this.port = Integer.parseInt(splittedArgument[1]);
+            this.workMode = WorkMode.Server;
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Processes --output-alphabet= argument
+     *
+     * @param arg String that starts with "--output-alphabet=" followed by the alphabet of a *.base-n output.
+     * @throws IllegalArgumentException if --output-alphabet argument is used wrong.
+     */
+    private void processOutputAlphabet(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (this.outputAlphabet != null) {
+            String message = String.format("Used argument --output-alphabet twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (splittedArgument.length == 2) {
+            this.outputAlphabet = splittedArgument[1];
+        } else {
+            String message = String.format("Wrong use of argument %s: %s\n%s",
+                    splittedArgument[0], arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Creates the encoders of a conversion, whose input or output file is Base-N encoded. The encoding is identified
+     * by the extension *.base-32 or *.base-n of the file.
+     *
+     * @throws InvalidEncodingException if the alphabet of the output is invalid.
+     */
+    private void processEncodings() throws InvalidEncodingException {
+        if (!this.isConversion() || this.isDirectoryMode()) {
+            return;
+        }
+
+        if (!this.isStdIn() && this.inFile.getName().endsWith(".base-32")) {
+            this.inEncoding = new BaseN();
+        } else if (!this.isStdIn() && this.inFile.getName().endsWith(".base-n")) {
+            final boolean base32Hex = false;
+            this.inEncoding = new BaseN(base32Hex);
+        }
+
+        if (!this.isStdOut() && this.outFile.getName().endsWith(".base-32")) {
+            this.outEncoding = new BaseN();
+        } else if (!this.isStdOut() && this.outFile.getName().endsWith(".base-n")) {
+            this.outEncoding = new BaseN(this.outputAlphabet);
+        }
+    }
+
+    /**
+     * Check, whether the work mode converts an image.
+     *
+     * @return if an image is converted.
+     */
+    private boolean isConversion() {
+        return this.workMode == WorkMode.ConvertRLE || this.workMode == WorkMode.ConvertUncompressed
+                || this.workMode == WorkMode.ConvertHuffman || this.workMode == WorkMode.ConvertAuto;
+    }
+
+    /**
+     * Check, whether the images of a directory are converted, either by watching it or by processing it as a shared
+     * queue.
+     *
+     * @return if a directory is converted.
+     */
+    private boolean isDirectoryMode() {
+        return this.watchDir != null || this.queueDir != null;
+    }
+
+    /**
+     * Check, whether the output image of a conversion gets gzip compressed. This is the case for an output file with
+     * the extension *.gz, which may be followed by a Base-N extension.
+     *
+     * @return if the output is gzip compressed.
+     */
+    private boolean isGzipOutput() {
+        return this.isConversion() && !this.isDirectoryMode() && this.outFile != null && !this.isStdOut()
+                && this.outFile.getName().replaceFirst("\\.base-(32|n)$", "").endsWith(".gz");
+    }
+
+    /**
+     * Check, whether a work mode creates, lists or extracts a bundle.
+     *
+     * @param workMode work mode to be checked.
+     * @return if the work mode is a bundle operation.
+     */
+    private static boolean isBundleOperation(WorkMode workMode) {
+        return workMode == WorkMode.CreateBundle || workMode == WorkMode.ListBundle
+                || workMode == WorkMode.ExtractBundle;
+    }
+
+    /**
+     * Check, whether all images of a bundle are converted into another bundle. This is the case for a conversion,
+     * whose input is a *.bundle file.
+     *
+     * @return if a bundle is converted.
+     */
+    public boolean isBundleConversion() {
+        return this.isConversion() && !this.isDirectoryMode() && this.inFile != null && !this.isStdIn()
+                && this.inFile.getName().endsWith("." + BundleWriter.EXTENSION);
+    }
+
+    /**
+     * Removes the extension *.base-32 or *.base-n of a Base-N encoded file, and the extension *.gz of a gzip
+     * compressed file from its name.
+     *
+     * @param fileName name of the file.
+     * @return name of the image file, or the unchanged name, if the file is neither encoded nor compressed.
+     */
+    private static String stripEncoding(String fileName) {
+        return fileName.replaceFirst("(\\.gz)?(\\.base-(32|n))?$", "");
+    }
+
+    /**
+     * Processes --parallel argument
+     *
+     * @param arg String "--parallel".
+     * @throws IllegalArgumentException if --parallel argument is used wrong.
+     */
+    private void processParallel(String arg) throws IllegalArgumentException {
+        if (this.parallel) {
+            String message = String.format("Used argument --parallel twice.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (!arg.equals("--parallel")) {
+            String message = String.format("Wrong use of argument --parallel: %s\n%s", arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        }
+        this.parallel = true;
+    }
+
+    /**
+     * Processes a numeric option of the server mode, like --threads=, --queue-depth= or --memory-budget=.
+     *
+     * @param arg String that starts with the option followed by "=" and a positive number.
+     * @return parsed number.
+     * @throws IllegalArgumentException if the argument is used wrong.
+     */
+    private int processServerOption(String arg) throws IllegalArgumentException {
+        String[] splittedArgument = arg.split("=");
+
+        if (splittedArgument.length == 2 && splittedArgument[1].matches("[1-9]\\d{0,5}")) {
+            this.serverOptionUsed = true;
+            return Integer.parseInt(splittedArgument[1]);
+        }
+
+        String message = String.format("Wrong use of argument %s: %s\n%s",
+                splittedArgument[0], arg, this.getUsage());
+        throw new IllegalArgumentException(message);
+    }
+
     /**
      * Returns an error based on the already set work Mode, and the other work mode, that should have been set.
      *
@@ -311,6 +1031,18 @@ public class ArgumentHandler {
             String message = String.format("Used same operation twice.\n%s\n%s",
                     arg, this.getUsage());
             throw new IllegalArgumentException(message);
+        } else if (this.workMode == WorkMode.Server || newWorkMode == WorkMode.Server) {
+            String message = String.format("Cannot run as server and execute another operation at the same time.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.workMode == WorkMode.TrainTree || newWorkMode == WorkMode.TrainTree) {
+            String message = String.format("Cannot train a huffman tree and execute another operation at the same time.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (isBundleOperation(this.workMode) || isBundleOperation(newWorkMode)) {
+            String message = String.format("Cannot create, list or extract a bundle and execute another operation at the same time.\n%s\n%s",
+                    arg, this.getUsage());
+            throw new IllegalArgumentException(message);
         } else {
             if (this.workMode == WorkMode.Decode || this.workMode == WorkMode.Encode) {
                 if (newWorkMode == WorkMode.Encode || newWorkMode == WorkMode.Decode) {
@@ -345,27 +1077,114 @@ public class ArgumentHandler {
         if (this.workMode == null) {
             String message = String.format("No operation specified.\n%s", this.getUsage());
             throw new IllegalArgumentException(message);
+        } else if (this.serverOptionUsed && this.workMode != WorkMode.Server
+                && (!this.isDirectoryMode() || this.queueDepthUsed)) {
+            String message = String.format("--threads, --memory-budget and --schedule are only allowed for server, watch and queue mode, --queue-depth only for server mode.\n%s", this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.watchDir != null && this.queueDir != null) {
+            String message = String.format("Cannot watch a directory and process a queue at the same time.\n%s", this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.isDirectoryMode() && !this.isConversion()) {
+            String message = String.format("--watch and --queue are only allowed for conversions.\n%s", this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.outFormat != null && !this.isStdOut() && !this.isBundleConversion() && !this.isDirectoryMode()) {
+            String message = String.format("--output-format is only allowed, when writing to stdout, converting a bundle or a directory.\n%s", this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.rleMode != null && this.workMode != WorkMode.ConvertRLE && this.workMode != WorkMode.ConvertAuto) {
+            String message = String.format("--rle is only allowed for rle or auto compression.\n%s", this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.inFiles.size() > 1 && this.workMode != WorkMode.TrainTree
+                && this.workMode != WorkMode.CreateBundle) {
+            String message = String.format("Used argument --input twice.\n%s", this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.huffmanMaxLength != 0 && this.workMode != WorkMode.ConvertHuffman
+                && this.workMode != WorkMode.ConvertAuto && this.workMode != WorkMode.TrainTree) {
+            String message = String.format("--huffman-max-length is only allowed for huffman or auto compression.\n%s",
+                    this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.huffmanTreeFile != null && this.workMode != WorkMode.ConvertHuffman
+                && this.workMode != WorkMode.ConvertAuto) {
+            String message = String.format("--huffman-tree is only allowed for huffman or auto compression.\n%s",
+                    this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.huffmanSample != 0 && this.workMode != WorkMode.ConvertHuffman
+                && this.workMode != WorkMode.ConvertAuto) {
+            String message = String.format("--huffman-sample is only allowed for huffman or auto compression.\n%s",
+                    this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.huffmanTreeFile != null && this.huffmanSample != 0) {
+            String message = String.format("--huffman-sample cannot be combined with a tree from --huffman-tree.\n%s",
+                    this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.outputAlphabet != null
+                && (!this.isConversion() || this.outFile == null || this.isStdOut()
+                || !this.outFile.getName().endsWith(".base-n"))) {
+            String message = String.format("--output-alphabet is only allowed for conversions into *.base-n files.\n%s",
+                    this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.outputAlphabet == null && this.isConversion() && this.outFile != null && !this.isStdOut()
+                && this.outFile.getName().endsWith(".base-n")) {
+            String message = String.format("--output-alphabet is required for conversions into *.base-n files.\n%s",
+                    this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.parallel && this.workMode != WorkMode.Encode && this.workMode != WorkMode.Decode) {
+            String message = String.format("--parallel is only allowed for encoding and decoding.\n%s", this.getUsage());
+            throw new IllegalArgumentException(message);
+        } else if (this.huffmanTreeFile != null && this.huffmanMaxLength != 0) {
+            String message = String.format("--huffman-max-length cannot be applied to a tree from --huffman-tree.\n%s",
+                    this.getUsage());
+            throw new IllegalArgumentException(message);
         }
         switch (this.workMode) {
             case ConvertRLE:
             case ConvertUncompressed:
             case ConvertHuffman:
             case ConvertAuto:
-                if (this.inFile == null) {
+                if (this.isDirectoryMode()) {
+                    if (this.inFile != null) {
+                        String message = String.format("--input not allowed when converting a directory.\n%s", this.getUsage());
+                        throw new IllegalArgumentException(message);
+                    } else if (this.outFile == null || this.isStdOut()) {
+                        String message = String.format("No output directory specified.\n%s", this.getUsage());
+                        throw new IllegalArgumentException(message);
+                    } else if (this.outFormat == null) {
+                        String message = String.format("--output-format is required, when converting a directory.\n%s", this.getUsage());
+                        throw new IllegalArgumentException(message);
+                    } else if (this.workMode == WorkMode.ConvertHuffman && this.outFormat != ImageFormat.ProPra) {
+                        String message = String.format("Unsupported file format for output when using huffman compression. Only *.propra is supported.\nGiven format: %s", this.outFormat.getExtension());
+                        throw new IllegalArgumentException(message);
+                    }
+                    // The requests of the single files are based on a request for the whole directory.
+                    this.inFile = this.watchDir != null ? this.watchDir : this.queueDir;
+                } else if (this.inFile == null) {
                     String message = String.format("No input file specified.\n%s", this.getUsage());
                     throw new IllegalArgumentException(message);
                 } else if (this.outFile == null) {
                     String message = String.format("No output file specified.\n%s", this.getUsage());
                     throw new IllegalArgumentException(message);
+                } else if (this.isBundleConversion()) {
+                    if (this.isStdOut() || !this.outFile.getName().endsWith("." + BundleWriter.EXTENSION)) {
+                        String message = String.format("Images of a bundle can only be converted into a *.bundle file.\n%s", this.getUsage());
+                        throw new IllegalArgumentException(message);
+                    } else if (this.outFormat == null) {
+                        String message = String.format("--output-format is required, when converting a bundle.\n%s", this.getUsage());
+                        throw new IllegalArgumentException(message);
+                    } else if (this.workMode == WorkMode.ConvertHuffman && this.outFormat != ImageFormat.ProPra) {
+                        String message = String.format("Unsupported file format for output when using huffman compression. Only *.propra is supported.\nGiven format: %s", this.outFormat.getExtension());
+                        throw new IllegalArgumentException(message);
+                    }
                 } else {
-                    if (!this.getInFileExtension().matches("(tga|propra)")) {
-                        String message = String.format("Unsupported file format for input. Only *.tga and *.propra are supported.\nGiven format: %s", this.getInFileExtension());
+                    if (!this.isStdIn() && !this.getInImageExtension().matches("(tga|propra)")) {
+                        String message = String.format("Unsupported file format for input. Only *.tga and *.propra are supported.\nGiven format: %s", this.getInImageExtension());
                         throw new IllegalArgumentException(message);
-                    } else if (!this.getOutFileExtension().matches("(tga|propra)")) {
-                        String message = String.format("Unsupported file format for output. Only *.tga and *.propra are supported.\nGiven format: %s", this.getOutFileExtension());
+                    } else if (this.isStdOut() && this.outFormat == null) {
+                        String message = String.format("--output-format is required, when writing to stdout.\n%s", this.getUsage());
                         throw new IllegalArgumentException(message);
-                    } else if (this.workMode == WorkMode.ConvertHuffman && !this.getOutFileExtension().equals("propra")) {
-                        String message = String.format("Unsupported file format for output when using huffman compression. Only *.propra is supported.\nGiven format: %s", this.getOutFileExtension());
+                    } else if (!this.isStdOut() && !this.getOutImageExtension().matches("(tga|propra)")) {
+                        String message = String.format("Unsupported file format for output. Only *.tga and *.propra are supported.\nGiven format: %s", this.getOutImageExtension());
+                        throw new IllegalArgumentException(message);
+                    } else if (this.workMode == WorkMode.ConvertHuffman && this.getOutFormat() != ImageFormat.ProPra) {
+                        String message = String.format("Unsupported file format for output when using huffman compression. Only *.propra is supported.\nGiven format: %s", this.getOutFormat().getExtension());
                         throw new IllegalArgumentException(message);
                     }
                 }
@@ -408,7 +1227,61 @@ public class ArgumentHandler {
                     }
                 }
                 break;
+            case Server:
+                if (this.inFile != null || this.outFile != null) {
+                    String message = String.format("--input and --output not allowed for server mode.\n%s", this.getUsage());
+                    throw new IllegalArgumentException(message);
+                }
+                break;
+            case TrainTree:
+                if (this.inFile == null) {
+                    String message = String.format("No input file specified.\n%s", this.getUsage());
+                    throw new IllegalArgumentException(message);
+                } else if (this.outFile != null) {
+                    String message = String.format("--output not allowed for training a huffman tree.\n%s", this.getUsage());
+                    throw new IllegalArgumentException(message);
+                }
+                for (File file : this.inFiles) {
+                    if (!file.isDirectory() && !file.getName().matches(".*\\.(tga|propra)")) {
+                        String message = String.format("Unsupported file format for training. Only *.tga, *.propra and directories are supported.\nGiven file: %s", file);
+                        throw new IllegalArgumentException(message);
+                    }
+                }
+                this.outFile = this.treeFile;
+                break;
+            case CreateBundle:
+                if (this.inFile == null) {
+                    String message = String.format("No input file specified.\n%s", this.getUsage());
+                    throw new IllegalArgumentException(message);
+                } else if (this.outFile != null) {
+                    String message = String.format("--output not allowed for creating a bundle.\n%s", this.getUsage());
+                    throw new IllegalArgumentException(message);
+                }
+                for (File file : this.inFiles) {
+                    if (!file.isDirectory() && !file.getName().matches(".*\\.(tga|propra)")) {
+                        String message = String.format("Unsupported file format for a bundle. Only *.tga, *.propra and directories are supported.\nGiven file: %s", file);
+                        throw new IllegalArgumentException(message);
+                    }
+                }
+                this.outFile = this.bundleFile;
+                break;
+            case ListBundle:
+                if (this.inFile != null || this.outFile != null) {
+                    String message = String.format("--input and --output not allowed for listing a bundle.\n%s", this.getUsage());
+                    throw new IllegalArgumentException(message);
+                }
+                this.inFile = this.bundleFile;
+                break;
+            case ExtractBundle:
+                if (this.inFile != null) {
+                    String message = String.format("--input not allowed for extracting a bundle.\n%s", this.getUsage());
+                    throw new IllegalArgumentException(message);
+                } else if (this.outFile == null || this.isStdOut()) {
+                    String message = String.format("No output directory specified.\n%s", this.getUsage());
+                    throw new IllegalArgumentException(message);
+                }
+                this.inFile = this.bundleFile;
+                break;
         }
     }
 }
-
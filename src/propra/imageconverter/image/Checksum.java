@@ -8,10 +8,26 @@ public class Checksum {
     private static int X = 65513;
     private static int TWO_POW_SIXTEEN = 65536;
 
-    private long a = 0;
-    private long b = 1;
+    /**
+     * Number of bytes summed up before the sums get reduced modulo X. Small enough, that the sums fit into a long.
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Sum a, already reduced modulo X.
+     */
+    private int a = 0;
+
+    /**
+     * Sum b, already reduced modulo X.
+     */
+    private int b = 1;
     private PixelOrder pixelOrder;
-    private long i = 1;
+
+    /**
+     * Position of the next byte, reduced modulo X.
+     */
+    private int i = 1;
 
     /**
      * Constructs a default checksum for ProPra images pixel order.
@@ -35,9 +51,17 @@ public class Checksum {
      * @param b1 bytes to be added.
      */
     public void add(byte b1) {
-        a += this.i + Byte.toUnsignedInt(b1);
-        b = (b + a % X) % X;
-        this.i++;
+        a += i + Byte.toUnsignedInt(b1);
+        while (a >= X) {
+            a -= X;
+        }
+        b += a;
+        if (b >= X) {
+            b -= X;
+        }
+        if (++i == X) {
+            i = 0;
+        }
     }
 
     /**
@@ -46,9 +70,41 @@ public class Checksum {
      * @param bytes bytes to be added.
      */
     public void add(byte[] bytes) {
-        for (int j = 0; j < bytes.length; j++) {
-            this.add(bytes[j]);
+        this.add(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Adds a range of a byte array to the checksum.
+     *
+     * @param bytes  bytes to be added.
+     * @param offset offset of the first byte to be added.
+     * @param length number of bytes to be added.
+     */
+    public void add(byte[] bytes, int offset, int length) {
+        // The sums are linear modulo X, so they are only reduced once per block. This avoids a division and
+        // hard to predict branches for every byte.
+        long a = this.a;
+        long b = this.b;
+        long i = this.i;
+        int end = offset + length;
+
+        for (int blockStart = offset; blockStart < end; blockStart += BLOCK_SIZE) {
+            int blockEnd = Math.min(end, blockStart + BLOCK_SIZE);
+
+            for (int j = blockStart; j < blockEnd; j++) {
+                a += i + Byte.toUnsignedInt(bytes[j]);
+                b += a;
+                i++;
+            }
+
+            a %= X;
+            b %= X;
+            i %= X;
         }
+
+        this.a = (int) a;
+        this.b = (int) b;
+        this.i = (int) i;
     }
 
     /**
@@ -57,6 +113,6 @@ public class Checksum {
      * @return finally calculated checksum.
      */
     public int getChecksum() {
-        return (int) ((a % X * TWO_POW_SIXTEEN) + b);
+        return a * TWO_POW_SIXTEEN + b;
     }
 }
@@ -0,0 +1,199 @@
+package propra.imageconverter.image;
+
+/**
+ * Code table of a huffman tree, indexed by the unsigned value of a byte.
+ * <p>
+ * The code of a symbol is the path from the root to its leave, <code>0</code> for a left and <code>1</code> for a right
+ * child. Code words are stored right aligned in longs, together with their length in bits, so that they can be
+ * shifted into a bit buffer without further conversion. A table is never changed after its construction, so one
+ * table can be shared by several writers.
+ * </p>
+ * <p>
+ * Optionally, the table contains the codes of all 65536 pairs of bytes, so that two neighbouring bytes are encoded
+ * with a single lookup. The pair table is only built, if no code is longer than 32 bits, so that the code of a pair
+ * fits into a long.
+ * </p>
+ */
+public final class HuffmanTable {
+
+    /**
+     * Maximum length of a code in bits.
+     */
+    public static final int MAX_CODE_LENGTH = 64;
+
+    /**
+     * Maximum length of a code in bits, up to which a pair table can be built.
+     */
+    public static final int MAX_PAIR_CODE_LENGTH = 32;
+
+    /**
+     * Number of possible symbols.
+     */
+    private static final int NUM_SYMBOLS = 256;
+
+    /**
+     * Code words, right aligned.
+     */
+    private final long[] codes = new long[NUM_SYMBOLS];
+
+    /**
+     * Length of the code words in bits, 0 for symbols, that are not part of the tree.
+     */
+    private final byte[] lengths = new byte[NUM_SYMBOLS];
+
+    /**
+     * Length of the longest code word in bits.
+     */
+    private final int maxLength;
+
+    /**
+     * Code words of pairs of bytes, indexed by <code>first << 8 | second</code>, or null.
+     */
+    private final long[] pairCodes;
+
+    /**
+     * Length of the code words of pairs of bytes in bits, or null.
+     */
+    private final byte[] pairLengths;
+
+    /**
+     * Constructs the code table of a huffman tree without a pair table.
+     *
+     * @param tree root of the huffman tree.
+     * @throws IllegalArgumentException if a code is longer than {@link #MAX_CODE_LENGTH} bits.
+     */
+    public HuffmanTable(Node tree) {
+        this(tree, false);
+    }
+
+    /**
+     * Constructs the code table of a huffman tree.
+     *
+     * @param tree          root of the huffman tree.
+     * @param withPairTable whether the pair table should be built, if the codes are short enough.
+     * @throws IllegalArgumentException if a code is longer than {@link #MAX_CODE_LENGTH} bits.
+     */
+    public HuffmanTable(Node tree, boolean withPairTable) {
+        this.maxLength = this.addCodes(tree, 0L, 0);
+
+        if (withPairTable && this.maxLength <= MAX_PAIR_CODE_LENGTH) {
+            this.pairCodes = new long[NUM_SYMBOLS * NUM_SYMBOLS];
+            this.pairLengths = new byte[NUM_SYMBOLS * NUM_SYMBOLS];
+
+            for (int first = 0; first < NUM_SYMBOLS; first++) {
+                for (int second = 0; second < NUM_SYMBOLS; second++) {
+                    int pair = first << 8 | second;
+                    this.pairCodes[pair] = this.codes[first] << this.lengths[second] | this.codes[second];
+                    this.pairLengths[pair] = (byte) (this.lengths[first] + this.lengths[second]);
+                }
+            }
+        } else {
+            this.pairCodes = null;
+            this.pairLengths = null;
+        }
+    }
+
+    /**
+     * Returns the code word of a symbol, right aligned.
+     *
+     * @param symbol unsigned value of the symbol.
+     * @return code word.
+     */
+    public long getCode(int symbol) {
+        return this.codes[symbol];
+    }
+
+    /**
+     * Returns the length of the code word of a symbol.
+     *
+     * @param symbol unsigned value of the symbol.
+     * @return length in bits, 0 if the symbol is not part of the tree.
+     */
+    public int getLength(int symbol) {
+        return this.lengths[symbol];
+    }
+
+    /**
+     * Returns the length of the longest code word.
+     *
+     * @return maxLength.
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Checks, whether this table contains the codes of pairs of bytes.
+     *
+     * @return if the pair table has been built.
+     */
+    public boolean hasPairTable() {
+        return this.pairCodes != null;
+    }
+
+    /**
+     * Returns the code word of a pair of bytes, right aligned. Only available, if {@link #hasPairTable()}.
+     *
+     * @param pair unsigned value of the first byte shifted left by 8, or'ed with the unsigned value of the second.
+     * @return code word.
+     */
+    public long getPairCode(int pair) {
+        return this.pairCodes[pair];
+    }
+
+    /**
+     * Returns the length of the code word of a pair of bytes. Only available, if {@link #hasPairTable()}.
+     *
+     * @param pair unsigned value of the first byte shifted left by 8, or'ed with the unsigned value of the second.
+     * @return length in bits.
+     */
+    public int getPairLength(int pair) {
+        return this.pairLengths[pair];
+    }
+
+    /**
+     * Returns the number of bits needed to encode bytes with this table.
+     *
+     * @param byteCount number of occurrences, indexed by the unsigned value of the byte.
+     * @return number of encoded bits, without the tree.
+     */
+    public long encodedBits(int[] byteCount) {
+        long bits = 0;
+        for (int symbol = 0; symbol < NUM_SYMBOLS; symbol++) {
+            bits += (long) byteCount[symbol] * this.lengths[symbol];
+        }
+
+        return bits;
+    }
+
+    /**
+     * Adds the codes of all leaves below a Node to the table.
+     *
+     * @param node   Node, whose sub-tree gets added.
+     * @param code   code of the Node.
+     * @param length length of the code of the Node.
+     * @return length of the longest code added.
+     * @throws IllegalArgumentException if a code is longer than {@link #MAX_CODE_LENGTH} bits.
+     */
+    private int addCodes(Node node, long code, int length) {
+        if (node.isLeave()) {
+            if (length > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Huffman code is longer than " + MAX_CODE_LENGTH + " bits.");
+            }
+            int symbol = Byte.toUnsignedInt(node.getSymbol());
+            this.codes[symbol] = code;
+            this.lengths[symbol] = (byte) length;
+            return length;
+        }
+
+        int maxLength = 0;
+        if (node.getLeftChild() != null) {
+            maxLength = this.addCodes(node.getLeftChild(), code << 1, length + 1);
+        }
+        if (node.getRightChild() != null) {
+            maxLength = Math.max(maxLength, this.addCodes(node.getRightChild(), code << 1 | 1, length + 1));
+        }
+
+        return maxLength;
+    }
+}
@@ -0,0 +1,71 @@
+package propra.imageconverter.image;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Image file formats, the ImageConverter can read and write.
+ */
+public enum ImageFormat {
+    TGA("tga"), ProPra("propra");
+
+    /**
+     * File extension used for this format.
+     */
+    private final String extension;
+
+    /**
+     * Constructs an image format with its file extension.
+     *
+     * @param extension file extension (without leading dot).
+     */
+    ImageFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns file extension used for this format.
+     *
+     * @return extension.
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Identifies the image format based on the extension of a file name.
+     *
+     * @param fileName name of the file.
+     * @return image format, or <code>null</code>, if the extension is not supported.
+     */
+    public static ImageFormat fromFileName(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+
+        for (ImageFormat format : values()) {
+            if (format.extension.equals(extension)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Identifies the image format based on the first bytes of an image. ProPra images are identified by their magic
+     * String, TGA images by an image header without color map and with a supported image type.
+     *
+     * @param header first bytes of the image.
+     * @param length number of valid bytes in <code>header</code>.
+     * @return image format, or <code>null</code>, if the format cannot be identified.
+     */
+    public static ImageFormat detect(byte[] header, int length) {
+        String magic = "ProPraWS19";
+
+        if (length >= magic.length() && new String(header, 0, magic.length(), StandardCharsets.US_ASCII).equals(magic)) {
+            return ProPra;
+        } else if (length >= TGAImageHeader.HEADER_SIZE && header[0x01] == 0 && (header[0x02] == 2 || header[0x02] == 10)) {
+            return TGA;
+        }
+
+        return null;
+    }
+}
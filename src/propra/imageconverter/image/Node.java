@@ -1,7 +1,5 @@
 package propra.imageconverter.image;
 
-import java.util.HashMap;
-
 /**
  * A Node in a huffman tree. A Node can either be a leave Node, or the root of a (sub-)tree.
  */
@@ -261,37 +259,6 @@ public class Node implements Comparable<Node> {
         return false;
     }
 
-    /**
-     * Builds the huffman table for this tree.
-     * <p>
-     * The huffman table is a HashMap with the symbol of a leave (as Byte) as key,
-     * and the code (how to get to there from the root) for this leave.
-     * A <code>0</code> means, you go to the left child, whereas a <code>1</code> means, you go to the right child.
-     * </p>
-     *
-     * @param parentCode   code for the parent of a node.
-     * @param huffmanTable huffman table to be built.
-     */
-    public void buildHuffmanTable(String parentCode, HashMap<Byte, String> huffmanTable) {
-        if (this.leftChild != null) {
-            String code = parentCode + "0";
-            if (this.leftChild.isLeave()) {
-                huffmanTable.put(this.leftChild.getSymbol(), code);
-            } else {
-                this.leftChild.buildHuffmanTable(code, huffmanTable);
-            }
-        }
-
-        if (this.rightChild != null) {
-            String code = parentCode + "1";
-            if (this.rightChild.isLeave()) {
-                huffmanTable.put(this.rightChild.getSymbol(), code);
-            } else {
-                this.rightChild.buildHuffmanTable(code, huffmanTable);
-            }
-        }
-    }
-
     /**
      * Returns a String that represents this tree in Pre-Order.
      * <code>0</code> is used for each inner node (including the root node),
@@ -309,22 +276,45 @@ public class Node implements Comparable<Node> {
     }
 
     /**
-     * Compares two Nodes, based on their weight, and in case the weight is equal, based on the depth of their sub-tree.
+     * Compares two Nodes, based on their weight, in case the weight is equal, based on the depth of their sub-tree,
+     * and in case the depth is equal, too, based on the smallest symbol of their sub-tree. The sub-trees of two
+     * different Nodes, that are sorted together, do not share any symbol, so the order is total.
      *
      * @param o Node to compare to.
-     * @return <code>-1</code>, if this Node is less than Node <code>o</code>, otherwise returns <code>1</code>
+     * @return a negative number, if this Node is less than Node <code>o</code>, a positive number, if it is greater,
+     * <code>0</code> only for the same Node.
      */
     @Override
     public int compareTo(Node o) {
-        if (this.getWeight() == o.getWeight()) {
-            if (this.getNodeDepth() < o.getNodeDepth()) {
-                return -1;
-            }
+        if (this == o) {
+            return 0;
+        } else if (this.getWeight() != o.getWeight()) {
+            return Integer.compare(this.getWeight(), o.getWeight());
+        } else if (this.getNodeDepth() != o.getNodeDepth()) {
+            return Integer.compare(this.getNodeDepth(), o.getNodeDepth());
+        }
 
-            return 1;
-        } else if (this.getWeight() > o.getWeight()) {
-            return 1;
+        return Integer.compare(this.getSmallestSymbol(), o.getSmallestSymbol());
+    }
+
+    /**
+     * Finds the smallest symbol of the sub-tree where this Node is the root of.
+     *
+     * @return unsigned value of the smallest symbol.
+     */
+    private int getSmallestSymbol() {
+        if (this.isLeave()) {
+            return Byte.toUnsignedInt(this.symbol);
+        }
+
+        int smallest = Integer.MAX_VALUE;
+        if (this.leftChild != null) {
+            smallest = this.leftChild.getSmallestSymbol();
         }
-        return -1;
+        if (this.rightChild != null) {
+            smallest = Math.min(smallest, this.rightChild.getSmallestSymbol());
+        }
+
+        return smallest;
     }
 }
@@ -0,0 +1,173 @@
+package propra.imageconverter.image;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * Builds huffman trees, whose codes are not longer than a given number of bits.
+ * <p>
+ * The code lengths are found with the package-merge algorithm: starting with the leaves sorted by weight, neighbouring
+ * items are packaged in pairs and merged with the leaves again, once for every level below the root. The
+ * <code>2n - 2</code> lightest items of the last list form the cheapest code with limited length, the length of the
+ * code of a symbol is the number of these items, that contain its leave.
+ * </p>
+ * <p>
+ * The tree is built from the code lengths as canonical tree: on every level the leaves come first, ordered by their
+ * symbol, followed by the inner Nodes. So the tree is a full binary tree and is written and read like any other tree.
+ * </p>
+ */
+public final class PackageMerge {
+
+    private PackageMerge() {
+    }
+
+    /**
+     * Returns the length of the code of every symbol in the cheapest code, that has no code longer than
+     * <code>maxLength</code> bits.
+     *
+     * @param byteCount number of occurrences, indexed by the unsigned value of the byte.
+     * @param maxLength maximum length of a code in bits.
+     * @return code lengths, indexed by the unsigned value of the byte, 0 for bytes, that do not occur.
+     * @throws IllegalArgumentException if less than two bytes occur, or they do not fit into codes of the length.
+     */
+    public static int[] codeLengths(int[] byteCount, int maxLength) {
+        ArrayList<Item> leaves = new ArrayList<>();
+        for (int symbol = 0; symbol < byteCount.length; symbol++) {
+            if (byteCount[symbol] > 0) {
+                leaves.add(new Item(byteCount[symbol], symbol, null, null));
+            }
+        }
+
+        if (leaves.size() < 2) {
+            throw new IllegalArgumentException("A code with limited length needs at least two symbols.");
+        } else if (maxLength < 1 || maxLength < 32 - Integer.numberOfLeadingZeros(leaves.size() - 1)) {
+            String message = String.format("%d symbols do not fit into codes of %d bits.", leaves.size(), maxLength);
+            throw new IllegalArgumentException(message);
+        }
+        leaves.sort(Comparator.comparingLong(item -> item.weight));
+
+        ArrayList<Item> items = leaves;
+        for (int level = 1; level < maxLength; level++) {
+            ArrayList<Item> merged = new ArrayList<>(leaves.size() + items.size() / 2);
+            int leave = 0;
+            int pair = 0;
+
+            // Leaves go first, if a leave weighs as much as a package.
+            while (leave < leaves.size() || pair + 1 < items.size()) {
+                if (pair + 1 >= items.size() || (leave < leaves.size()
+                        && leaves.get(leave).weight <= items.get(pair).weight + items.get(pair + 1).weight)) {
+                    merged.add(leaves.get(leave++));
+                } else {
+                    Item first = items.get(pair);
+                    Item second = items.get(pair + 1);
+                    merged.add(new Item(first.weight + second.weight, -1, first, second));
+                    pair += 2;
+                }
+            }
+            items = merged;
+        }
+
+        int[] lengths = new int[byteCount.length];
+        for (int i = 0; i < 2 * leaves.size() - 2; i++) {
+            items.get(i).countLeaves(lengths);
+        }
+
+        return lengths;
+    }
+
+    /**
+     * Builds the canonical huffman tree for the given code lengths. The lengths have to describe a complete code,
+     * as returned by {@link #codeLengths(int[], int)}.
+     *
+     * @param codeLengths code lengths, indexed by the unsigned value of the byte, 0 for bytes without a code.
+     * @param byteCount   number of occurrences, used as weight of the leaves.
+     * @return root of the tree.
+     * @throws IllegalArgumentException if the code lengths do not describe a complete code.
+     */
+    public static Node buildTree(int[] codeLengths, int[] byteCount) {
+        int maxLength = 0;
+        for (int length : codeLengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+
+        // Nodes of the level below the current one, from left to right.
+        ArrayList<Node> lower = new ArrayList<>();
+        for (int level = maxLength; level > 0; level--) {
+            ArrayList<Node> current = new ArrayList<>();
+            for (int symbol = 0; symbol < codeLengths.length; symbol++) {
+                if (codeLengths[symbol] == level) {
+                    current.add(new Node((byte) symbol, byteCount[symbol]));
+                }
+            }
+
+            if (lower.size() % 2 != 0) {
+                throw new IllegalArgumentException("Code lengths do not describe a complete code.");
+            }
+            for (int i = 0; i < lower.size(); i += 2) {
+                current.add(new Node(lower.get(i), lower.get(i + 1)));
+            }
+            lower = current;
+        }
+
+        if (lower.size() != 2) {
+            throw new IllegalArgumentException("Code lengths do not describe a complete code.");
+        }
+
+        return new Node(lower.get(0), lower.get(1));
+    }
+
+    /**
+     * A leave or a package of two items in one of the lists of the algorithm.
+     */
+    private static final class Item {
+
+        /**
+         * Sum of the weights of all leaves in this item.
+         */
+        private final long weight;
+
+        /**
+         * Symbol of a leave, <code>-1</code> for a package.
+         */
+        private final int symbol;
+
+        /**
+         * First item of a package.
+         */
+        private final Item first;
+
+        /**
+         * Second item of a package.
+         */
+        private final Item second;
+
+        /**
+         * Constructs an item.
+         *
+         * @param weight sum of the weights of all leaves in this item.
+         * @param symbol symbol of a leave, <code>-1</code> for a package.
+         * @param first  first item of a package.
+         * @param second second item of a package.
+         */
+        private Item(long weight, int symbol, Item first, Item second) {
+            this.weight = weight;
+            this.symbol = symbol;
+            this.first = first;
+            this.second = second;
+        }
+
+        /**
+         * Increments the code length of every leave in this item.
+         *
+         * @param lengths code lengths to be updated.
+         */
+        private void countLeaves(int[] lengths) {
+            if (this.symbol >= 0) {
+                lengths[this.symbol]++;
+            } else {
+                this.first.countLeaves(lengths);
+                this.second.countLeaves(lengths);
+            }
+        }
+    }
+}
@@ -63,6 +63,33 @@ public class Pixel {
         }
     }
 
+    /**
+     * Copies the pixel into a byte array in a specified pixel order.
+     *
+     * @param bytes      byte array the pixel is copied to.
+     * @param offset     offset of the pixel in the byte array.
+     * @param pixelOrder order of the colors in the byte array.
+     */
+    public void copyTo(byte[] bytes, int offset, PixelOrder pixelOrder) {
+        switch (pixelOrder) {
+            case BGR:
+                bytes[offset] = this.b;
+                bytes[offset + 1] = this.g;
+                bytes[offset + 2] = this.r;
+                break;
+            case GBR:
+                bytes[offset] = this.g;
+                bytes[offset + 1] = this.b;
+                bytes[offset + 2] = this.r;
+                break;
+            default:
+                bytes[offset] = this.r;
+                bytes[offset + 1] = this.g;
+                bytes[offset + 2] = this.b;
+                break;
+        }
+    }
+
     /**
      * Compares this pixel to an object.
      *
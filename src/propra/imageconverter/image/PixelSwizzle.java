@@ -0,0 +1,155 @@
+package propra.imageconverter.image;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Reorders the colors of whole rows of pixels from one pixel order into another.
+ * <p>
+ * The supported pixel orders BGR and GBR only differ in the order of the first two colors, so converting between
+ * them swaps the first two bytes of every pixel. Eight pixels (24 bytes) are loaded as three longs at a time and their
+ * bytes are moved with masks and shifts, the remaining pixels are swapped byte by byte. If the system property
+ * <code>propra.swizzle=scalar</code> is set, all pixels are swapped byte by byte, e.g. to compare the throughput.
+ * </p>
+ */
+public final class PixelSwizzle {
+
+    /**
+     * Name of the system property, that turns off the word-wide swap, if set to <code>scalar</code>.
+     */
+    public static final String KERNEL_PROPERTY = "propra.swizzle";
+
+    /**
+     * Number of bytes per pixel.
+     */
+    private static final int BYTES_PER_PIXEL = 3;
+
+    /**
+     * Number of pixels swapped in one step of the word-wide swap.
+     */
+    private static final int PIXELS_PER_STEP = 8;
+
+    /**
+     * Whether pixels are swapped eight at a time, read once from {@link #KERNEL_PROPERTY}.
+     */
+    private static final boolean WIDE = !System.getProperty(KERNEL_PROPERTY, "").equalsIgnoreCase("scalar");
+
+    /**
+     * View on byte arrays as little endian longs.
+     */
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // Masks for the three longs of a step. FIRST marks the first byte of a pixel, SECOND the second byte and
+    // THIRD the third byte. Byte n of the step is byte (n % 8) of long (n / 8).
+    private static final long FIRST_0 = 0x00FF0000FF0000FFL;
+    private static final long SECOND_0 = 0xFF0000FF0000FF00L;
+    private static final long THIRD_0 = 0x0000FF0000FF0000L;
+    private static final long FIRST_1 = 0xFF0000FF0000FF00L;
+    private static final long SECOND_1 = 0x0000FF0000FF0000L;
+    private static final long THIRD_1 = 0x00FF0000FF0000FFL;
+    private static final long FIRST_2 = 0x0000FF0000FF0000L;
+    private static final long SECOND_2 = 0x00FF0000FF0000FFL;
+    private static final long THIRD_2 = 0xFF0000FF0000FF00L;
+
+    private PixelSwizzle() {
+    }
+
+    /**
+     * Reorders the colors of <code>numPixels</code> pixels in place.
+     *
+     * @param bytes     bytes of the pixels.
+     * @param offset    offset of the first pixel.
+     * @param numPixels number of pixels.
+     * @param from      pixel order of the bytes.
+     * @param to        pixel order the bytes get converted to.
+     */
+    public static void reorder(byte[] bytes, int offset, int numPixels, PixelOrder from, PixelOrder to) {
+        reorder(bytes, offset, bytes, offset, numPixels, from, to);
+    }
+
+    /**
+     * Copies <code>numPixels</code> pixels from <code>src</code> to <code>dst</code>
+     * and reorders their colors on the way. Source and destination may be the same range.
+     *
+     * @param src       source bytes.
+     * @param srcOffset offset of the first pixel in <code>src</code>.
+     * @param dst       destination bytes.
+     * @param dstOffset offset of the first pixel in <code>dst</code>.
+     * @param numPixels number of pixels.
+     * @param from      pixel order of the source.
+     * @param to        pixel order of the destination.
+     */
+    public static void reorder(byte[] src, int srcOffset, byte[] dst, int dstOffset, int numPixels,
+                               PixelOrder from, PixelOrder to) {
+        if (from == to) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, numPixels * BYTES_PER_PIXEL);
+        } else {
+            int steps = WIDE ? numPixels / PIXELS_PER_STEP : 0;
+            swapWide(src, srcOffset, dst, dstOffset, steps);
+            swapScalar(src, srcOffset + steps * PIXELS_PER_STEP * BYTES_PER_PIXEL,
+                    dst, dstOffset + steps * PIXELS_PER_STEP * BYTES_PER_PIXEL, numPixels - steps * PIXELS_PER_STEP);
+        }
+    }
+
+    /**
+     * Copies <code>steps</code> times eight pixels from <code>src</code> to <code>dst</code>
+     * and swaps the first two bytes of every pixel, eight pixels at a time as three longs.
+     *
+     * @param src       source bytes.
+     * @param srcOffset offset of the first pixel in <code>src</code>.
+     * @param dst       destination bytes.
+     * @param dstOffset offset of the first pixel in <code>dst</code>.
+     * @param steps     number of steps of eight pixels.
+     */
+    private static void swapWide(byte[] src, int srcOffset, byte[] dst, int dstOffset, int steps) {
+        int s = srcOffset;
+        int d = dstOffset;
+
+        for (int step = 0; step < steps; step++) {
+            long w0 = (long) LONGS.get(src, s);
+            long w1 = (long) LONGS.get(src, s + 8);
+            long w2 = (long) LONGS.get(src, s + 16);
+
+            // First bytes move one position up, second bytes one position down.
+            // Only the pixel at bytes 15 to 17 crosses the border between two longs.
+            long r0 = (w0 & THIRD_0) | ((w0 & FIRST_0) << 8) | ((w0 & SECOND_0) >>> 8);
+            long r1 = (w1 & THIRD_1) | ((w1 & FIRST_1) << 8) | ((w1 & SECOND_1) >>> 8)
+                    | ((w2 & SECOND_2 & 0xFFL) << 56);
+            long r2 = (w2 & THIRD_2) | ((w2 & FIRST_2) << 8) | ((w2 & SECOND_2) >>> 8)
+                    | ((w1 & FIRST_1) >>> 56);
+
+            LONGS.set(dst, d, r0);
+            LONGS.set(dst, d + 8, r1);
+            LONGS.set(dst, d + 16, r2);
+
+            s += PIXELS_PER_STEP * BYTES_PER_PIXEL;
+            d += PIXELS_PER_STEP * BYTES_PER_PIXEL;
+        }
+    }
+
+    /**
+     * Copies <code>numPixels</code> pixels from <code>src</code> to <code>dst</code>
+     * and swaps the first two bytes of every pixel byte by byte.
+     *
+     * @param src       source bytes.
+     * @param srcOffset offset of the first pixel in <code>src</code>.
+     * @param dst       destination bytes.
+     * @param dstOffset offset of the first pixel in <code>dst</code>.
+     * @param numPixels number of pixels.
+     */
+    private static void swapScalar(byte[] src, int srcOffset, byte[] dst, int dstOffset, int numPixels) {
+        int s = srcOffset;
+        int d = dstOffset;
+
+        for (int pixel = 0; pixel < numPixels; pixel++) {
+            byte first = src[s];
+            dst[d] = src[s + 1];
+            dst[d + 1] = first;
+            dst[d + 2] = src[s + 2];
+
+            s += BYTES_PER_PIXEL;
+            d += BYTES_PER_PIXEL;
+        }
+    }
+}
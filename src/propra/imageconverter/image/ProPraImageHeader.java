@@ -7,7 +7,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 
 /**
  * Image header in ProPra Format.
@@ -47,7 +46,7 @@ public class ProPraImageHeader extends ImageHeader {
     /**
      * Huffman table.
      */
-    private HashMap<Byte, String> huffmanTable;
+    private HuffmanTable huffmanTable;
 
     /**
      * Constructs a ProPra image with xOrigin, yOrigin, width, height, pixelDepth, image descriptor and pixel data of
@@ -119,7 +118,7 @@ public class ProPraImageHeader extends ImageHeader {
      *
      * @return huffman table.
      */
-    public HashMap<Byte, String> getHuffmanTable() {
+    public HuffmanTable getHuffmanTable() {
         return huffmanTable;
     }
 
@@ -128,7 +127,7 @@ public class ProPraImageHeader extends ImageHeader {
      *
      * @param huffmanTable huffman table to be stored.
      */
-    public void setHuffmanTable(HashMap<Byte, String> huffmanTable) {
+    public void setHuffmanTable(HuffmanTable huffmanTable) {
         this.huffmanTable = huffmanTable;
     }
 
@@ -180,24 +179,33 @@ public class ProPraImageHeader extends ImageHeader {
         }
     }
 
+    /**
+     * Updates data segment size and checksum of this header, based on calculated values during write process.
+     *
+     * @param checksum        calculated checksum while writing the data segment.
+     * @param dataSegmentSize counted bytes while writing the data segment.
+     */
+    public void update(Checksum checksum, long dataSegmentSize) {
+        this.checksum = checksum.getChecksum();
+        this.dataSegmentSize = dataSegmentSize;
+    }
+
     /**
      * Updates header written in file, based on calculated values during write process.
      *
      * @param outFile         converted output file.
      * @param checksum        calculated checksum while writing to output file.
      * @param dataSegmentSize counted bytes while writing to output file.
+     * @throws IOException if an I/O error occurs.
      */
-    public void updateHeader(File outFile, Checksum checksum, long dataSegmentSize) {
+    public void updateHeader(File outFile, Checksum checksum, long dataSegmentSize) throws IOException {
+        this.update(checksum, dataSegmentSize);
 
         try (RandomAccessFile raf = new RandomAccessFile(outFile, "rw")) {
             long dataSegmentSizePos = 0x10;
             raf.seek(dataSegmentSizePos);
-            raf.write(ByteHandler.longToByteArray(dataSegmentSize));
-            raf.write(ByteHandler.intToByteArray(checksum.getChecksum()));
-        } catch (IOException e) {
-            System.err.println("Unexpected error occurred during conversion process:\n" + e.toString());
-            System.exit(123);
+            raf.write(ByteHandler.longToByteArray(this.getDataSegmentSize()));
+            raf.write(ByteHandler.intToByteArray(this.getChecksum()));
         }
     }
 }
-
@@ -0,0 +1,16 @@
+package propra.imageconverter.image;
+
+/**
+ * Strategy used to split a row into packets for rle compression.
+ */
+public enum RLEMode {
+    /**
+     * Starts a run-length packet, whenever two neighbouring pixels are equal.
+     */
+    Greedy,
+
+    /**
+     * Chooses the packets, that give the smallest encoded row.
+     */
+    Optimal;
+}
@@ -0,0 +1,229 @@
+package propra.imageconverter.image;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Finds the boundaries of runs in a row of packed 24 bit pixels.
+ * <p>
+ * The result is a bitmap, in which bit <code>i</code> is set, if pixel <code>i</code> equals pixel <code>i + 1</code>.
+ * A run starts at a set bit and lasts until the next clear bit, a raw packet lasts until the next set bit.
+ * </p>
+ * <p>
+ * The wide kernel compares eight pixels per step: the row is xored with itself shifted by one pixel, three longs
+ * at a time, the non-zero bytes are collected into a 24 bit mask and a table turns every three bits of that mask
+ * into one bit of the bitmap. Like {@link PixelSwizzle}, the scalar kernel is only used for the whole row, if the
+ * system property {@link PixelSwizzle#KERNEL_PROPERTY} is set to <code>scalar</code>.
+ * </p>
+ */
+public final class RunDetector {
+
+    /**
+     * Number of bytes per pixel.
+     */
+    private static final int BYTES_PER_PIXEL = 3;
+
+    /**
+     * Number of pixels compared in one step of the wide kernel.
+     */
+    private static final int PIXELS_PER_STEP = 8;
+
+    /**
+     * View on byte arrays as little endian longs.
+     */
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Lower seven bits of every byte.
+     */
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    /**
+     * Highest bit of every byte.
+     */
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * Multiplier, that collects the lowest bit of every byte into the highest byte.
+     */
+    private static final long GATHER = 0x0102040810204080L;
+
+    /**
+     * Maps 12 bits of non-zero bytes (four pixels) to 4 bits, one for every pixel without a non-zero byte.
+     */
+    private static final byte[] EQUAL_PIXELS = createEqualPixels();
+
+    /**
+     * Identifies whether the wide kernel is used, read once from {@link PixelSwizzle#KERNEL_PROPERTY}.
+     */
+    private static final boolean WIDE = !System.getProperty(PixelSwizzle.KERNEL_PROPERTY, "")
+            .equalsIgnoreCase("scalar");
+
+    private RunDetector() {
+    }
+
+    /**
+     * Returns number of longs needed for the bitmap of a row.
+     *
+     * @param numPixels number of pixels in the row.
+     * @return size of the bitmap.
+     */
+    public static int bitmapSize(int numPixels) {
+        return (numPixels + 63) >>> 6;
+    }
+
+    /**
+     * Sets bit <code>i</code> of <code>bits</code> for every pixel <code>i</code>, that equals its right neighbour.
+     * All other bits of the first {@link #bitmapSize(int)} longs are cleared.
+     *
+     * @param row       bytes of the pixels.
+     * @param numPixels number of pixels in the row.
+     * @param bits      bitmap to be filled.
+     */
+    public static void findEqualNeighbours(byte[] row, int numPixels, long[] bits) {
+        Arrays.fill(bits, 0, bitmapSize(numPixels), 0L);
+
+        int i = WIDE ? findWide(row, numPixels, bits) : 0;
+        findScalar(row, i, numPixels, bits);
+    }
+
+    /**
+     * Returns whether bit <code>i</code> is set.
+     *
+     * @param bits bitmap.
+     * @param i    index of the bit.
+     * @return if the bit is set.
+     */
+    public static boolean isSet(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns index of the first set bit at or after <code>from</code>.
+     *
+     * @param bits  bitmap.
+     * @param from  first index to look at.
+     * @param limit index returned, if no bit is set before it.
+     * @return index of the first set bit, or <code>limit</code>.
+     */
+    public static int nextSet(long[] bits, int from, int limit) {
+        int word = from >>> 6;
+        if (from >= limit) {
+            return limit;
+        }
+
+        long current = bits[word] & (-1L << from);
+        while (current == 0) {
+            word++;
+            if (word << 6 >= limit) {
+                return limit;
+            }
+            current = bits[word];
+        }
+
+        return Math.min(limit, (word << 6) + Long.numberOfTrailingZeros(current));
+    }
+
+    /**
+     * Returns index of the first clear bit at or after <code>from</code>.
+     *
+     * @param bits  bitmap.
+     * @param from  first index to look at.
+     * @param limit index returned, if no bit is clear before it.
+     * @return index of the first clear bit, or <code>limit</code>.
+     */
+    public static int nextClear(long[] bits, int from, int limit) {
+        int word = from >>> 6;
+        if (from >= limit) {
+            return limit;
+        }
+
+        long current = ~bits[word] & (-1L << from);
+        while (current == 0) {
+            word++;
+            if (word << 6 >= limit) {
+                return limit;
+            }
+            current = ~bits[word];
+        }
+
+        return Math.min(limit, (word << 6) + Long.numberOfTrailingZeros(current));
+    }
+
+    /**
+     * Compares eight pixels per step, as long as the loads stay inside the row.
+     *
+     * @param row       bytes of the pixels.
+     * @param numPixels number of pixels in the row.
+     * @param bits      bitmap to be filled.
+     * @return index of the first pixel, that has not been compared.
+     */
+    private static int findWide(byte[] row, int numPixels, long[] bits) {
+        int i = 0;
+
+        // The last load of a step reads up to 27 bytes behind its first pixel.
+        for (; i + PIXELS_PER_STEP + 1 <= numPixels; i += PIXELS_PER_STEP) {
+            int offset = i * BYTES_PER_PIXEL;
+            long x0 = (long) LONGS.get(row, offset) ^ (long) LONGS.get(row, offset + 3);
+            long x1 = (long) LONGS.get(row, offset + 8) ^ (long) LONGS.get(row, offset + 11);
+            long x2 = (long) LONGS.get(row, offset + 16) ^ (long) LONGS.get(row, offset + 19);
+
+            int nonZero = nonZeroBytes(x0) | nonZeroBytes(x1) << 8 | nonZeroBytes(x2) << 16;
+            int equal = EQUAL_PIXELS[nonZero & 0xFFF] | EQUAL_PIXELS[nonZero >>> 12] << 4;
+
+            bits[i >>> 6] |= (long) equal << (i & 63);
+        }
+
+        return i;
+    }
+
+    /**
+     * Compares pixel by pixel, starting at pixel <code>from</code>.
+     *
+     * @param row       bytes of the pixels.
+     * @param from      first pixel to compare with its neighbour.
+     * @param numPixels number of pixels in the row.
+     * @param bits      bitmap to be filled.
+     */
+    private static void findScalar(byte[] row, int from, int numPixels, long[] bits) {
+        for (int i = from; i < numPixels - 1; i++) {
+            int offset = i * BYTES_PER_PIXEL;
+            if (row[offset] == row[offset + 3] && row[offset + 1] == row[offset + 4]
+                    && row[offset + 2] == row[offset + 5]) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    /**
+     * Returns a mask with bit <code>n</code> set, if byte <code>n</code> of <code>x</code> is not zero.
+     *
+     * @param x eight bytes.
+     * @return 8 bit mask.
+     */
+    private static int nonZeroBytes(long x) {
+        long high = (((x & LOW_BITS) + LOW_BITS) | x) & HIGH_BITS;
+        return (int) (((high >>> 7) * GATHER) >>> 56);
+    }
+
+    /**
+     * Creates the table for {@link #EQUAL_PIXELS}.
+     *
+     * @return table of 4096 entries.
+     */
+    private static byte[] createEqualPixels() {
+        byte[] table = new byte[1 << 12];
+
+        for (int index = 0; index < table.length; index++) {
+            for (int pixel = 0; pixel < 4; pixel++) {
+                if (((index >>> (pixel * BYTES_PER_PIXEL)) & 7) == 0) {
+                    table[index] |= 1 << pixel;
+                }
+            }
+        }
+
+        return table;
+    }
+}
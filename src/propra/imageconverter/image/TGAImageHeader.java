@@ -18,7 +18,7 @@ public class TGAImageHeader extends ImageHeader {
     /**
      * Order of colors in a pixel, how they are stored in a TGA image file.
      */
-    public static PixelOrder PIXEL_ORDER = PixelOrder.BGR;
+    public static final PixelOrder PIXEL_ORDER = PixelOrder.BGR;
 
     /**
      * Image type field from image file header.
@@ -0,0 +1,184 @@
+package propra.imageconverter.io;
+
+import propra.imageconverter.BaseN;
+import propra.imageconverter.exceptions.InvalidEncodingException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+/**
+ * Input stream, that decodes Base-N encoded data from an underlying stream while it is read.
+ * <p>
+ * For a custom alphabet, the alphabet is read from the first line of the underlying stream, when the stream is
+ * constructed. The encoded characters are read in blocks of whole groups of the encoder, so only the last block may
+ * end with a partial group. A character, that is not part of the alphabet, is reported by an IOException, whose
+ * cause is an {@link InvalidEncodingException}.
+ * </p>
+ */
+public class BaseNInputStream extends InputStream {
+
+    /**
+     * Number of groups of the encoder, that are decoded as one block.
+     */
+    private static final int BLOCK_GROUPS = 16 * 1024;
+
+    /**
+     * Underlying stream of encoded characters.
+     */
+    private final PushbackInputStream in;
+
+    /**
+     * Encoder, whose alphabet is used for decoding.
+     */
+    private final BaseN encoder;
+
+    /**
+     * Encoded characters of the current block.
+     */
+    private final byte[] block;
+
+    /**
+     * Decoded bytes of the current block.
+     */
+    private final byte[] decoded;
+
+    /**
+     * Position of the next byte to be read in {@link #decoded}.
+     */
+    private int position = 0;
+
+    /**
+     * Number of decoded bytes in {@link #decoded}.
+     */
+    private int limit = 0;
+
+    /**
+     * Creates a new decoding stream. For a custom alphabet, the alphabet is read from the underlying stream.
+     *
+     * @param in      underlying stream of encoded characters.
+     * @param encoder encoder of base-32 hex encoding, or an encoder with a custom alphabet, whose alphabet gets
+     *                replaced by the one of the stream.
+     * @throws IOException              if an I/O error occurs.
+     * @throws InvalidEncodingException if the stream does not contain a valid alphabet.
+     */
+    public BaseNInputStream(InputStream in, BaseN encoder) throws IOException, InvalidEncodingException {
+        this.in = new PushbackInputStream(in, 1);
+
+        if (!encoder.isBase32Hex()) {
+            // Use a new encoder for the alphabet of this input, as the given encoder may be shared.
+            String alphabet = this.readLine();
+            if (alphabet == null) {
+                throw new InvalidEncodingException("File does not contain an alphabet.");
+            }
+            encoder = new BaseN(alphabet);
+        }
+
+        this.encoder = encoder;
+        this.block = new byte[encoder.maxInputCharacters() * BLOCK_GROUPS];
+        this.decoded = new byte[(int) encoder.decodedLength(this.block.length)];
+    }
+
+    /**
+     * Returns the encoder used for decoding. For a custom alphabet, this is an encoder with the alphabet of the stream.
+     *
+     * @return encoder.
+     */
+    public BaseN getEncoder() {
+        return encoder;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.position >= this.limit && !this.fill()) {
+            return -1;
+        }
+
+        return Byte.toUnsignedInt(this.decoded[this.position++]);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        } else if (this.position >= this.limit && !this.fill()) {
+            return -1;
+        }
+
+        int n = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.decoded, this.position, b, off, n);
+        this.position += n;
+
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return this.limit - this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    /**
+     * Reads and decodes the next block of characters.
+     *
+     * @return false, if the underlying stream is at its end.
+     * @throws IOException if an I/O error occurs, or a character is not part of the alphabet.
+     */
+    private boolean fill() throws IOException {
+        this.position = 0;
+        this.limit = 0;
+
+        // A short last group may not contain a full byte.
+        while (this.limit == 0) {
+            int numCharsRead = this.in.readNBytes(this.block, 0, this.block.length);
+            if (numCharsRead == 0) {
+                return false;
+            }
+
+            try {
+                this.limit = this.encoder.decode(this.block, 0, numCharsRead, this.decoded, 0);
+            } catch (InvalidEncodingException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads a line of text. A line is terminated by a line feed, a carriage return or a carriage return
+     * followed by a line feed.
+     *
+     * @return line without its terminator, or <code>null</code>, if the stream is at its end.
+     * @throws IOException if an I/O error occurs.
+     */
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+
+        while ((b = this.in.read()) != -1 && b != '\n') {
+            if (b == '\r') {
+                int next = this.in.read();
+                if (next != '\n' && next != -1) {
+                    this.in.unread(next);
+                }
+                break;
+            }
+            line.write(b);
+        }
+
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+
+        return line.toString(Charset.defaultCharset());
+    }
+}
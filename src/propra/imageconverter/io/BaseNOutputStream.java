@@ -0,0 +1,145 @@
+package propra.imageconverter.io;
+
+import propra.imageconverter.BaseN;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Output stream, that Base-N encodes the written bytes into an underlying stream.
+ * <p>
+ * For a custom alphabet, the alphabet is written as first line, when the stream is constructed. Bytes are collected
+ * and encoded in blocks of whole groups of the encoder. A partial last group can only be encoded at the end of the
+ * data, so it is not written before the stream is closed; {@link #flush()} writes all whole groups.
+ * </p>
+ */
+public class BaseNOutputStream extends OutputStream {
+
+    /**
+     * Number of groups of the encoder, that are encoded as one block.
+     */
+    private static final int BLOCK_GROUPS = 16 * 1024;
+
+    /**
+     * Underlying stream of encoded characters.
+     */
+    private final OutputStream out;
+
+    /**
+     * Encoder used for encoding.
+     */
+    private final BaseN encoder;
+
+    /**
+     * Bytes, that have not been encoded yet.
+     */
+    private final byte[] block;
+
+    /**
+     * Encoded characters of a block.
+     */
+    private final byte[] encoded;
+
+    /**
+     * Number of bytes in {@link #block}.
+     */
+    private int count = 0;
+
+    /**
+     * Whether the stream has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new encoding stream. For a custom alphabet, the alphabet is written to the underlying stream.
+     *
+     * @param out     underlying stream of encoded characters.
+     * @param encoder encoder to be used.
+     * @throws IOException if an I/O error occurs.
+     */
+    public BaseNOutputStream(OutputStream out, BaseN encoder) throws IOException {
+        this.out = out;
+        this.encoder = encoder;
+        this.block = new byte[encoder.maxInputBytes() * BLOCK_GROUPS];
+        this.encoded = new byte[(int) encoder.encodedLength(this.block.length)];
+
+        if (!encoder.isBase32Hex()) {
+            out.write(encoder.getAlphabet().getBytes(StandardCharsets.US_ASCII));
+            out.write(0x0A); //Line Feed
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.count == this.block.length) {
+            this.writeBlock(this.count);
+        }
+        this.block[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+
+        while (len > 0) {
+            if (this.count == this.block.length) {
+                this.writeBlock(this.count);
+            }
+
+            int n = Math.min(len, this.block.length - this.count);
+            System.arraycopy(b, off, this.block, this.count, n);
+            this.count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Encodes all whole groups, that have been written, and flushes the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.writeBlock(this.count - this.count % this.encoder.maxInputBytes());
+        this.out.flush();
+    }
+
+    /**
+     * Encodes the remaining bytes, including a partial last group, and closes the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        try {
+            this.writeBlock(this.count);
+            this.out.flush();
+        } finally {
+            this.out.close();
+        }
+    }
+
+    /**
+     * Encodes the first bytes of the block and moves the remaining bytes to its start.
+     *
+     * @param length number of bytes to be encoded, a multiple of the group size unless the stream gets closed.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void writeBlock(int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+
+        this.out.write(this.encoded, 0, this.encoder.encode(this.block, 0, length, this.encoded, 0));
+        System.arraycopy(this.block, length, this.block, 0, this.count - length);
+        this.count -= length;
+    }
+}
@@ -0,0 +1,67 @@
+package propra.imageconverter.io;
+
+/**
+ * Entry of the index of a bundle. Describes one image, that is stored unchanged in the bundle.
+ */
+public class BundleMember {
+
+    /**
+     * File name of the image.
+     */
+    private final String name;
+
+    /**
+     * Position of the first byte of the image in the bundle.
+     */
+    private final long offset;
+
+    /**
+     * Size of the image in bytes.
+     */
+    private final long length;
+
+    /**
+     * Constructs a bundle member.
+     *
+     * @param name   file name of the image.
+     * @param offset position of the first byte of the image in the bundle.
+     * @param length size of the image in bytes.
+     */
+    public BundleMember(String name, long offset, long length) {
+        this.name = name;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns file name of the image.
+     *
+     * @return name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns position of the first byte of the image in the bundle.
+     *
+     * @return offset.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns size of the image in bytes.
+     *
+     * @return length.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d bytes at offset %d)", name, length, offset);
+    }
+}
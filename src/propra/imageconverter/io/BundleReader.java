@@ -0,0 +1,174 @@
+package propra.imageconverter.io;
+
+import propra.imageconverter.exceptions.InvalidImageException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the images of a bundle (see {@link BundleWriter} for its format).
+ * <p>
+ * The whole bundle is memory mapped once, when it is opened. The images are read by positional reads on that
+ * mapping, so no file has to be opened for a single image. The mapping stays valid, until the reader is garbage
+ * collected, so the reader does not need to be closed. A bundle has to fit into one mapping, so it is limited to
+ * 2 GiB.
+ * </p>
+ */
+public class BundleReader {
+
+    /**
+     * Content of the bundle file.
+     */
+    private final ByteBuffer data;
+
+    /**
+     * Images of the bundle in the order of the index.
+     */
+    private final List<BundleMember> members;
+
+    /**
+     * Opens a bundle and reads its index.
+     *
+     * @param path path of the bundle.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the file is not a valid bundle.
+     */
+    public BundleReader(Path path) throws IOException, InvalidImageException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new InvalidImageException(String.format("Bundle %s is larger than 2 GiB.", path));
+            }
+
+            this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        this.members = Collections.unmodifiableList(this.readIndex(path));
+    }
+
+    /**
+     * Checks, whether a path is the path of a bundle, by its extension.
+     *
+     * @param path path to be checked.
+     * @return true, if the path has the extension of a bundle.
+     */
+    public static boolean isBundle(Path path) {
+        return path.getFileName().toString().endsWith("." + BundleWriter.EXTENSION);
+    }
+
+    /**
+     * Checks, whether a name is valid for an image in a bundle. As images get extracted by their name, the name has to
+     * be the name of a file without any directory.
+     *
+     * @param name name to be checked.
+     * @return true, if the name is valid.
+     */
+    public static boolean isValidName(String name) {
+        return !name.isEmpty() && !name.equals(".") && !name.equals("..")
+                && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf('\0') < 0
+                && name.getBytes(StandardCharsets.UTF_8).length <= BundleWriter.MAX_NAME_LENGTH;
+    }
+
+    /**
+     * Returns the images of the bundle in the order of the index.
+     *
+     * @return index entries of the images.
+     */
+    public List<BundleMember> getMembers() {
+        return members;
+    }
+
+    /**
+     * Returns the content of an image of the bundle.
+     *
+     * @param member index entry of the image.
+     * @return buffer, whose remaining bytes are the image. It is a view of the mapping and independent of other views.
+     */
+    public ByteBuffer getContent(BundleMember member) {
+        ByteBuffer content = this.data.duplicate();
+        content.position((int) member.getOffset());
+        content.limit((int) (member.getOffset() + member.getLength()));
+
+        return content.slice();
+    }
+
+    /**
+     * Opens an image of the bundle for reading. The stream does not need to be closed.
+     *
+     * @param member index entry of the image.
+     * @return stream of the image.
+     */
+    public InputStream openMember(BundleMember member) {
+        return new ByteBufferInputStream(this.getContent(member));
+    }
+
+    /**
+     * Reads the index of the bundle and checks, that all images are within the bundle.
+     *
+     * @param path path of the bundle, used for error messages.
+     * @return index entries of the images.
+     * @throws InvalidImageException if the bundle is invalid.
+     */
+    private List<BundleMember> readIndex(Path path) throws InvalidImageException {
+        int size = this.data.limit();
+        byte[] magic = new byte[BundleWriter.MAGIC.length()];
+
+        if (size < BundleWriter.TRAILER_SIZE) {
+            throw new InvalidImageException(String.format("%s is not a bundle file.", path));
+        }
+        ByteBuffer trailer = this.data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        trailer.position(size - BundleWriter.TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        int numMembers = trailer.getInt();
+        trailer.get(magic);
+
+        if (!new String(magic, StandardCharsets.US_ASCII).equals(BundleWriter.MAGIC)) {
+            throw new InvalidImageException(String.format("%s is not a bundle file.", path));
+        } else if (indexOffset < 0 || indexOffset > size - BundleWriter.TRAILER_SIZE || numMembers < 0) {
+            throw new InvalidImageException("Bundle contains an invalid trailer.");
+        }
+
+        ByteBuffer index = this.data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        index.position((int) indexOffset);
+        index.limit(size - BundleWriter.TRAILER_SIZE);
+        // Each entry takes at least 18 bytes, so a corrupt count cannot allocate a huge list.
+        ArrayList<BundleMember> members = new ArrayList<>(Math.min(numMembers, index.remaining() / 18));
+
+        try {
+            for (int i = 0; i < numMembers; i++) {
+                byte[] name = new byte[Short.toUnsignedInt(index.getShort())];
+                index.get(name);
+                BundleMember member = new BundleMember(new String(name, StandardCharsets.UTF_8), index.getLong(),
+                        index.getLong());
+
+                if (!isValidName(member.getName())) {
+                    throw new InvalidImageException(String.format("Bundle contains an image with the invalid name %s.",
+                            member.getName()));
+                } else if (member.getOffset() < 0 || member.getLength() < 0
+                        || member.getOffset() > indexOffset - member.getLength()) {
+                    throw new InvalidImageException(String.format("Image %s is not within the bundle.",
+                            member.getName()));
+                }
+                members.add(member);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new InvalidImageException("Bundle contains an incomplete index.");
+        }
+
+        if (index.hasRemaining()) {
+            throw new InvalidImageException("Bundle contains data behind the index.");
+        }
+
+        return members;
+    }
+}
@@ -0,0 +1,220 @@
+package propra.imageconverter.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes a bundle, that stores many images in one file, so that they can be processed without opening a file for
+ * every single image.
+ * <p>
+ * A bundle is the concatenation of its images, each stored unchanged, followed by an index and a trailer.
+ * For every image, the index contains the length of its file name in bytes (2 bytes), the file name in UTF-8,
+ * its offset and its length (8 bytes each). The trailer contains the offset of the index (8 bytes), the number of
+ * images (4 bytes) and the magic String "ProPraBundle". All numbers are little endian, like in the images.
+ * </p>
+ */
+public class BundleWriter implements Closeable {
+
+    /**
+     * Magic String a bundle ends with.
+     */
+    public static final String MAGIC = "ProPraBundle";
+
+    /**
+     * Extension of a bundle file.
+     */
+    public static final String EXTENSION = "bundle";
+
+    /**
+     * Size of the trailer at the end of a bundle in bytes.
+     */
+    public static final int TRAILER_SIZE = 8 + 4 + MAGIC.length();
+
+    /**
+     * Maximum length of the file name of an image in bytes.
+     */
+    public static final int MAX_NAME_LENGTH = 0xFFFF;
+
+    /**
+     * Size of the buffer, the bundle is written through.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Stream of the bundle file.
+     */
+    private final CountingOutputStream out;
+
+    /**
+     * Images written so far.
+     */
+    private final List<BundleMember> members = new ArrayList<>();
+
+    /**
+     * File names of the images written so far.
+     */
+    private final Set<String> names = new HashSet<>();
+
+    /**
+     * File name of the image, that is currently written, or <code>null</code>.
+     */
+    private String memberName;
+
+    /**
+     * Offset of the image, that is currently written.
+     */
+    private long memberOffset;
+
+    /**
+     * Whether the bundle has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new bundle file.
+     *
+     * @param path path of the bundle.
+     * @throws IOException if the file cannot be created.
+     */
+    public BundleWriter(Path path) throws IOException {
+        this.out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE), true);
+    }
+
+    /**
+     * Starts a new image. Its bytes are written to the returned stream, until the image is finished by
+     * {@link #finishMember()}. Closing the returned stream does not close the bundle.
+     *
+     * @param name file name of the image, that has to be unique within the bundle.
+     * @return stream, the image is written to.
+     * @throws IllegalArgumentException if the name is not a valid file name, or already used in the bundle.
+     * @throws IllegalStateException    if the previous image has not been finished.
+     */
+    public OutputStream startMember(String name) {
+        if (this.memberName != null) {
+            throw new IllegalStateException(String.format("Image %s of the bundle has not been finished.", this.memberName));
+        } else if (!BundleReader.isValidName(name)) {
+            throw new IllegalArgumentException(String.format("%s is not a valid name of an image in a bundle.", name));
+        } else if (!this.names.add(name)) {
+            throw new IllegalArgumentException(String.format("Bundle contains more than one image named %s.", name));
+        }
+
+        this.memberName = name;
+        this.memberOffset = this.out.getCount();
+
+        return new MemberOutputStream(this.out);
+    }
+
+    /**
+     * Finishes the image, that has been started by {@link #startMember(String)}, and adds it to the index.
+     *
+     * @return index entry of the image.
+     * @throws IllegalStateException if no image has been started.
+     */
+    public BundleMember finishMember() {
+        if (this.memberName == null) {
+            throw new IllegalStateException("No image of the bundle has been started.");
+        }
+
+        BundleMember member = new BundleMember(this.memberName, this.memberOffset, this.out.getCount() - this.memberOffset);
+        this.members.add(member);
+        this.memberName = null;
+
+        return member;
+    }
+
+    /**
+     * Copies an image file into the bundle.
+     *
+     * @param name file name of the image, that has to be unique within the bundle.
+     * @param path path of the image file.
+     * @return index entry of the image.
+     * @throws IOException if an I/O error occurs.
+     */
+    public BundleMember addMember(String name, Path path) throws IOException {
+        Files.copy(path, this.startMember(name));
+
+        return this.finishMember();
+    }
+
+    /**
+     * Returns the images written so far.
+     *
+     * @return index entries of the images.
+     */
+    public List<BundleMember> getMembers() {
+        return members;
+    }
+
+    /**
+     * Writes index and trailer, and closes the bundle file. An image, that has not been finished, is left out of the
+     * index.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        try {
+            long indexOffset = this.out.getCount();
+            for (BundleMember member : this.members) {
+                byte[] name = member.getName().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer entry = ByteBuffer.allocate(2 + name.length + 8 + 8).order(ByteOrder.LITTLE_ENDIAN);
+                entry.putShort((short) name.length).put(name).putLong(member.getOffset()).putLong(member.getLength());
+                this.out.write(entry.array());
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putLong(indexOffset).putInt(this.members.size()).put(MAGIC.getBytes(StandardCharsets.US_ASCII));
+            this.out.write(trailer.array());
+        } finally {
+            this.out.close();
+        }
+    }
+
+    /**
+     * Stream, an image is written to. It neither flushes nor closes the bundle, so that many small images are written
+     * in large blocks.
+     */
+    private static class MemberOutputStream extends FilterOutputStream {
+
+        /**
+         * Creates a stream, that writes into the bundle.
+         *
+         * @param out stream of the bundle file.
+         */
+        MemberOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            // The bundle is flushed, when it gets closed.
+        }
+
+        @Override
+        public void close() {
+            // The bundle stays open for the next image.
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package propra.imageconverter.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Input stream, that reads the remaining bytes of a byte buffer. Reading a memory mapped buffer copies the bytes
+ * straight from the mapping, without a system call. The stream supports {@link #mark(int)} without a limit, like a
+ * {@link java.io.ByteArrayInputStream} it is reset to its start, if it has not been marked.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    /**
+     * Buffer to be read, its position is the position of the stream.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a stream of the remaining bytes of a buffer. The buffer is read through a view, so its position is not
+     * changed by the stream.
+     *
+     * @param buffer buffer to be read.
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+        this.buffer.mark();
+    }
+
+    @Override
+    public int read() {
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+
+        return Byte.toUnsignedInt(this.buffer.get());
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        } else if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int n = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, n);
+
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+        this.buffer.position(this.buffer.position() + skipped);
+
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        this.buffer.mark();
+    }
+
+    @Override
+    public void reset() {
+        this.buffer.reset();
+    }
+}
@@ -0,0 +1,82 @@
+package propra.imageconverter.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that counts the bytes read from the underlying stream.
+ * Can be used for streams, that are owned by the caller, so closing this stream does not close the underlying stream.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    /**
+     * Number of bytes read so far.
+     */
+    private long count = 0;
+
+    /**
+     * Identifies whether the underlying stream gets closed, when this stream is closed.
+     */
+    private final boolean closeSource;
+
+    /**
+     * Creates a counting input stream.
+     *
+     * @param in          the underlying input stream.
+     * @param closeSource whether <code>in</code> should be closed, when this stream gets closed.
+     */
+    public CountingInputStream(InputStream in, boolean closeSource) {
+        super(in);
+        this.closeSource = closeSource;
+    }
+
+    /**
+     * Returns number of bytes read so far.
+     *
+     * @return count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            this.count++;
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int numBytesRead = super.read(b, off, len);
+        if (numBytesRead > 0) {
+            this.count += numBytesRead;
+        }
+
+        return numBytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        this.count += skipped;
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closeSource) {
+            super.close();
+        }
+    }
+}
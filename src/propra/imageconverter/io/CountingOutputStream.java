@@ -0,0 +1,63 @@
+package propra.imageconverter.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that counts the bytes written to the underlying stream.
+ * Can be used for streams, that are owned by the caller, so closing this stream only flushes the underlying stream.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    /**
+     * Number of bytes written so far.
+     */
+    private long count = 0;
+
+    /**
+     * Identifies whether the underlying stream gets closed, when this stream is closed.
+     */
+    private final boolean closeTarget;
+
+    /**
+     * Creates a counting output stream.
+     *
+     * @param out         the underlying output stream.
+     * @param closeTarget whether <code>out</code> should be closed, when this stream gets closed.
+     */
+    public CountingOutputStream(OutputStream out, boolean closeTarget) {
+        super(out);
+        this.closeTarget = closeTarget;
+    }
+
+    /**
+     * Returns number of bytes written so far.
+     *
+     * @return count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.out.write(b);
+        this.count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.out.write(b, off, len);
+        this.count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closeTarget) {
+            super.close();
+        } else {
+            this.flush();
+        }
+    }
+}
@@ -89,6 +89,26 @@ public abstract class ImageReader extends BufferedInputStream {
         return null;
     }
 
+    /**
+     * Reads a row from the input file in uncompressed or rle compressed format into the given buffer,
+     * without converting it into Pixels. The buffer must hold exactly one row.
+     * Checksum gets only updated for ProPra images.
+     *
+     * @param header   image file header.
+     * @param checksum checksum to get updated.
+     * @param row      buffer for the bytes of the row.
+     * @return false, if there is less image data to read than expected.
+     * @throws IOException           if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
+     * @throws InvalidImageException if a run-length packet exceeds the width of the image.
+     */
+    public boolean readRow(ImageHeader header, Checksum checksum, byte[] row) throws IOException, InvalidImageException {
+        if (header.getCompression() == Compression.RLE) {
+            return readRLERow(header, checksum, row);
+        }
+
+        return readUncompressedRow(header, checksum, row);
+    }
+
     /**
      * Reads an umcompressed Row from the input file and converts it into an array of Pixels.
      * Checksum gets only updated for ProPra images.
@@ -103,7 +123,7 @@ public abstract class ImageReader extends BufferedInputStream {
         int bytesToRead = header.getImgWidth() * bytesPerPixel;
         byte[] readBytes = new byte[bytesToRead];
         Pixel[] row = new Pixel[header.getImgWidth()];
-        int numBytesRead = this.read(readBytes);
+        int numBytesRead = this.readNBytes(readBytes, 0, bytesToRead);
 
         if (header instanceof ProPraImageHeader) {
             checksum.add(readBytes);
@@ -122,6 +142,100 @@ public abstract class ImageReader extends BufferedInputStream {
         return null;
     }
 
+    /**
+     * Reads an uncompressed row from the input file into the given buffer, without converting it into Pixels.
+     * The buffer must hold exactly one row. Checksum gets only updated for ProPra images.
+     *
+     * @param header   image file header.
+     * @param checksum checksum to get updated.
+     * @param row      buffer for the bytes of the row.
+     * @return false, if there is less image data to read than expected.
+     * @throws IOException if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
+     */
+    public boolean readUncompressedRow(ImageHeader header, Checksum checksum, byte[] row) throws IOException {
+        int numBytesRead = this.readNBytes(row, 0, row.length);
+
+        if (header instanceof ProPraImageHeader) {
+            checksum.add(row, 0, numBytesRead);
+            this.dataSegmentSize += numBytesRead;
+        }
+
+        return numBytesRead == row.length;
+    }
+
+    /**
+     * Reads a run-length encoded row from the input file into the given buffer, without converting it into Pixels.
+     * Raw packets are read directly into place, run-length packets get filled by {@link #fillRun}.
+     * The buffer must hold exactly one row. Checksum gets only updated for ProPra images.
+     *
+     * @param header   image file header.
+     * @param checksum checksum to get updated.
+     * @param row      buffer for the bytes of the row.
+     * @return false, if there is less image data to read than expected.
+     * @throws IOException           if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
+     * @throws InvalidImageException if a run-length packet exceeds the width of the image.
+     */
+    public boolean readRLERow(ImageHeader header, Checksum checksum, byte[] row) throws IOException, InvalidImageException {
+        int bytesPerPixel = header.getPixelDepth() / 8;
+        int pixelsToRead = row.length / bytesPerPixel;
+        int numPixelsRead = 0;
+
+        while (numPixelsRead < pixelsToRead) {
+            int controlByte = this.read();
+            if (controlByte == -1) {
+                return false;
+            }
+
+            boolean isRaw = (controlByte & 0x80) == 0;
+            int numPixels = (controlByte & 0x7F) + 1;
+            int bytesToRead = isRaw ? numPixels * bytesPerPixel : bytesPerPixel;
+            int offset = numPixelsRead * bytesPerPixel;
+
+            if (numPixelsRead + numPixels > pixelsToRead) {
+                throw new InvalidImageException("Run-length packet exceeds the width of the image.");
+            }
+
+            int numBytesRead = this.readNBytes(row, offset, bytesToRead);
+
+            if (header instanceof ProPraImageHeader) {
+                this.dataSegmentSize += numBytesRead + 1;
+                checksum.add((byte) controlByte);
+                checksum.add(row, offset, numBytesRead);
+            }
+
+            if (numBytesRead != bytesToRead) {
+                return false;
+            }
+
+            if (!isRaw) {
+                fillRun(row, offset, bytesPerPixel, numPixels);
+            }
+            numPixelsRead += numPixels;
+        }
+
+        return true;
+    }
+
+    /**
+     * Repeats the pixel at <code>offset</code>, until the run of <code>numPixels</code> pixels is filled.
+     * Every copy doubles the filled part of the run, so a run needs only a few copies.
+     *
+     * @param bytes         bytes containing the run.
+     * @param offset        offset of the first pixel of the run.
+     * @param bytesPerPixel number of bytes per pixel.
+     * @param numPixels     number of pixels in the run.
+     */
+    static void fillRun(byte[] bytes, int offset, int bytesPerPixel, int numPixels) {
+        int length = numPixels * bytesPerPixel;
+        int filled = bytesPerPixel;
+
+        while (filled < length) {
+            int copy = Math.min(filled, length - filled);
+            System.arraycopy(bytes, offset, bytes, offset + filled, copy);
+            filled += copy;
+        }
+    }
+
     /**
      * Reads a run-length encoded Row from the input file and converts it into an array of Pixels.
      * Checksum gets only updated for ProPra images.
@@ -129,9 +243,10 @@ public abstract class ImageReader extends BufferedInputStream {
      * @param header   header from input file.
      * @param checksum checksum to get updated.
      * @return array of pixel representing the currently read row
-     * @throws IOException if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
+     * @throws IOException           if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
+     * @throws InvalidImageException if a run-length packet exceeds the width of the image.
      */
-    private Pixel[] readRLERow(ImageHeader header, Checksum checksum) throws IOException {
+    private Pixel[] readRLERow(ImageHeader header, Checksum checksum) throws IOException, InvalidImageException {
         int pixelsToRead = header.getImgWidth();
         Pixel[] row = new Pixel[pixelsToRead];
         int bytesPerPixel = header.getPixelDepth() / 8;
@@ -139,11 +254,20 @@ public abstract class ImageReader extends BufferedInputStream {
 
         while (numPixelsRead < pixelsToRead) {
             int controlByte = this.read();
+            if (controlByte == -1) {
+                return null;
+            }
+
             boolean isRaw = (controlByte & 0x80) == 0;
             int numPixels = (controlByte & 0x7F) + 1;
             int bytesToRead = isRaw ? numPixels * bytesPerPixel : bytesPerPixel;
+
+            if (numPixelsRead + numPixels > pixelsToRead) {
+                throw new InvalidImageException("Run-length packet exceeds the width of the image.");
+            }
+
             byte[] readBytes = new byte[bytesToRead];
-            int numBytesRead = this.read(readBytes);
+            int numBytesRead = this.readNBytes(readBytes, 0, bytesToRead);
 
             if (header instanceof ProPraImageHeader) {
                 this.dataSegmentSize += numBytesRead + 1;
@@ -1,9 +1,6 @@
 package propra.imageconverter.io;
 
 import propra.imageconverter.image.*;
-import propra.imageconverter.rlepacket.Packet;
-import propra.imageconverter.rlepacket.RawPacket;
-import propra.imageconverter.rlepacket.RunLengthPacket;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
@@ -18,6 +15,47 @@ public class ImageWriter extends BufferedOutputStream {
      */
     private long dataSegmentSize = 0;
 
+    /**
+     * Maximum number of pixels in a packet.
+     */
+    private static final int MAX_PACKET_SIZE = 0x80;
+
+    /**
+     * Bitmap of equal neighbours, reused for every row written from bytes.
+     */
+    private long[] runBits = new long[0];
+
+    /**
+     * Bytes of a row of pixels, reused for every row written from pixels.
+     */
+    private byte[] rowBytes = new byte[0];
+
+    /**
+     * Strategy used to split rows into packets for rle compression.
+     */
+    private RLEMode rleMode = RLEMode.Greedy;
+
+    /**
+     * Encoded bytes of recently written rows in rle compressed format.
+     */
+    private final RowCache rowCache = new RowCache(RowCache.DEFAULT_CAPACITY);
+
+    /**
+     * Packets chosen for the current row in optimal rle mode. Entry <code>i</code> is the number of pixels of the
+     * packet starting at pixel <code>i</code>, negative for run-length packets.
+     */
+    private int[] packets = new int[0];
+
+    /**
+     * Encoded size of the rest of the current row starting at pixel <code>i</code>, used in optimal rle mode.
+     */
+    private int[] costs = new int[0];
+
+    /**
+     * Candidates for the end of a raw packet, used in optimal rle mode.
+     */
+    private int[] candidates = new int[0];
+
     /**
      * Creates a new image writer to write data to the
      * specified underlying output stream.
@@ -46,8 +84,27 @@ public class ImageWriter extends BufferedOutputStream {
         this.dataSegmentSize += increment;
     }
 
+    /**
+     * Returns cache of recently written rows in rle compressed format.
+     *
+     * @return rowCache.
+     */
+    public RowCache getRowCache() {
+        return rowCache;
+    }
+
+    /**
+     * Sets the strategy used to split rows into packets for rle compression.
+     *
+     * @param rleMode rle mode to be set.
+     */
+    public void setRLEMode(RLEMode rleMode) {
+        this.rleMode = rleMode;
+    }
+
     /**
      * Writes a row of pixels into the output file in uncompressed or rle compressed format.
+     * The pixels are copied into a row of bytes in the pixel order of the output first.
      * Checksum gets only updated for ProPra images.
      *
      * @param pixels   pixels to be written.
@@ -56,110 +113,206 @@ public class ImageWriter extends BufferedOutputStream {
      * @throws IOException if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
      */
     public void writeRow(Pixel[] pixels, ImageHeader header, Checksum checksum) throws IOException {
+        int bytesPerPixel = header.getPixelDepth() / 8;
+        if (this.rowBytes.length != pixels.length * bytesPerPixel) {
+            this.rowBytes = new byte[pixels.length * bytesPerPixel];
+        }
+
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i].copyTo(this.rowBytes, i * bytesPerPixel, header.getPixelOrder());
+        }
+
+        this.writeRow(this.rowBytes, header.getPixelOrder(), header, checksum);
+    }
+
+    /**
+     * Writes an uncompressed row given as bytes into the output file in uncompressed or rle compressed format.
+     * The colors get reordered in place into the pixel order of the output, so the buffer is changed.
+     * Checksum gets only updated for ProPra images.
+     *
+     * @param row        bytes of the row.
+     * @param pixelOrder pixel order of the bytes.
+     * @param header     header for output file.
+     * @param checksum   checksum to get updated.
+     * @throws IOException if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
+     */
+    public void writeRow(byte[] row, PixelOrder pixelOrder, ImageHeader header, Checksum checksum) throws IOException {
         if (header.getCompression() == Compression.Uncompressed) {
-            writeRowUncompressed(pixels, header, checksum);
+            this.writeRowUncompressed(row, pixelOrder, header, checksum);
         } else {
-            // Directly handle edge case, where the row consits of only one
-            if (pixels.length == 1) {
-                Packet rawPacket = new RawPacket(pixels[0]);
-                byte[] bytes = rawPacket.toByteArray(header.getPixelOrder());
-                this.write(bytes);
-
-                if (header instanceof ProPraImageHeader) {
-                    checksum.add(bytes);
-                    this.dataSegmentSize += bytes.length;
-                }
-            } else {
-                writeRowRLE(pixels, header, checksum);
-            }
+            this.writeRowRLE(row, pixelOrder, header, checksum);
         }
     }
 
     /**
-     * Writes a row of pixels into the output file in uncompressed format.
+     * Writes an uncompressed row given as bytes into the output file in uncompressed format.
+     * The colors get reordered in place into the pixel order of the output, so the buffer is changed.
      * Checksum gets only updated for ProPra images.
      *
-     * @param pixels   pixels to be written.
-     * @param header   header for output file.
-     * @param checksum checksum to get updated.
+     * @param row        bytes of the row.
+     * @param pixelOrder pixel order of the bytes.
+     * @param header     header for output file.
+     * @param checksum   checksum to get updated.
      * @throws IOException if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
      */
-    private void writeRowUncompressed(Pixel[] pixels, ImageHeader header, Checksum checksum) throws IOException {
-        for (Pixel pixel : pixels) {
-            byte[] convertedPixel = pixel.getPixel(header.getPixelOrder());
-            this.write(convertedPixel);
+    public void writeRowUncompressed(byte[] row, PixelOrder pixelOrder, ImageHeader header, Checksum checksum)
+            throws IOException {
+        int numPixels = row.length / (header.getPixelDepth() / 8);
+        PixelSwizzle.reorder(row, 0, numPixels, pixelOrder, header.getPixelOrder());
+        this.write(row);
 
-            if (header instanceof ProPraImageHeader) {
-                checksum.add(convertedPixel);
-                this.dataSegmentSize += convertedPixel.length;
-            }
+        if (header instanceof ProPraImageHeader) {
+            checksum.add(row);
+            this.dataSegmentSize += row.length;
         }
     }
 
     /**
-     * Writes a row of pixels into the output file in rle compressed format.
+     * Writes an uncompressed row given as bytes into the output file in rle compressed format.
+     * The colors get reordered in place into the pixel order of the output, so the buffer is changed.
+     * In greedy rle mode, a run-length packet starts, whenever two neighbouring pixels are equal and lasts as long as
+     * the pixels are equal, a raw packet lasts until the next two neighbouring pixels are equal. In optimal rle mode,
+     * the packets are chosen by {@link #choosePackets}. No packet has more than 128 pixels, a row of a single pixel
+     * is written as a raw packet. If the row equals one of the recently written rows, the bytes encoded for that row
+     * are written again.
      * Checksum gets only updated for ProPra images.
      *
-     * @param pixels   pixels to be written.
-     * @param header   header for output file.
-     * @param checksum checksum to get updated.
+     * @param row        bytes of the row.
+     * @param pixelOrder pixel order of the bytes.
+     * @param header     header for output file.
+     * @param checksum   checksum to get updated.
      * @throws IOException if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
      */
-    private void writeRowRLE(Pixel[] pixels, ImageHeader header, Checksum checksum) throws IOException {
-        Packet currentPacket = null;
+    public void writeRowRLE(byte[] row, PixelOrder pixelOrder, ImageHeader header, Checksum checksum)
+            throws IOException {
+        int bytesPerPixel = header.getPixelDepth() / 8;
+        int numPixels = row.length / bytesPerPixel;
+        boolean isProPra = header instanceof ProPraImageHeader;
+        PixelSwizzle.reorder(row, 0, numPixels, pixelOrder, header.getPixelOrder());
 
-        for (int i = 0; i < pixels.length; i++) {
-            if (currentPacket != null && currentPacket.packetSize() == 0x80) {
-                this.writePacket(currentPacket, header, checksum);
-                currentPacket = null;
+        // Repeated rows are written as they have been encoded before.
+        if (this.rowCache.lookup(row)) {
+            this.write(this.rowCache.getEncoded(), 0, this.rowCache.getEncodedLength());
+            if (isProPra) {
+                checksum.add(this.rowCache.getEncoded(), 0, this.rowCache.getEncodedLength());
+                this.dataSegmentSize += this.rowCache.getEncodedLength();
             }
+            return;
+        }
+
+        if (this.runBits.length < RunDetector.bitmapSize(numPixels)) {
+            this.runBits = new long[RunDetector.bitmapSize(numPixels)];
+        }
+        RunDetector.findEqualNeighbours(row, numPixels, this.runBits);
+        if (this.rleMode == RLEMode.Optimal) {
+            this.choosePackets(numPixels, bytesPerPixel);
+        }
 
-            if (currentPacket instanceof RunLengthPacket) {
-                Pixel currentPixel = pixels[i];
-                if (currentPacket.lastPixel().equals(currentPixel)) {
-                    currentPacket.addPixel(currentPixel);
-                } else {
-                    this.writePacket(currentPacket, header, checksum);
-                    currentPacket = null;
-                }
-            } else if (currentPacket instanceof RawPacket) {
-                Pixel currentPixel = pixels[i];
-                if (i < (pixels.length - 1) && currentPixel.equals(pixels[i + 1])) {
-                    this.writePacket(currentPacket, header, checksum);
-                    currentPacket = null;
-                } else {
-                    currentPacket.addPixel(currentPixel);
-                }
+        // Packets are written straight into the buffer of this stream. The buffer is flushed before, if the row
+        // might not fit into it, so that the encoded row ends up in one piece for the checksum and the row cache.
+        int maxLength = numPixels * (bytesPerPixel + 1);
+        if (this.count + maxLength > this.buf.length) {
+            this.out.write(this.buf, 0, this.count);
+            this.count = 0;
+            if (maxLength > this.buf.length) {
+                this.buf = new byte[maxLength];
             }
+        }
+
+        int rowStart = this.count;
+        int i = 0;
 
-            if (currentPacket == null) {
-                if (i < (pixels.length - 1) && pixels[i].equals(pixels[i + 1])) {
-                    currentPacket = new RunLengthPacket(pixels[i]);
-                } else {
-                    currentPacket = new RawPacket(pixels[i]);
-                }
+        while (i < numPixels) {
+            int limit = Math.min(numPixels, i + MAX_PACKET_SIZE);
+            int end;
+            int controlByte;
+            int length;
+
+            if (this.rleMode == RLEMode.Optimal) {
+                int packet = this.packets[i];
+                end = i + Math.abs(packet);
+                controlByte = packet < 0 ? (-packet - 1) | 0x80 : packet - 1;
+                length = packet < 0 ? bytesPerPixel : packet * bytesPerPixel;
+            } else if (RunDetector.isSet(this.runBits, i)) {
+                // The run lasts up to and including the first pixel, that differs from its right neighbour.
+                end = Math.min(limit, RunDetector.nextClear(this.runBits, i, limit) + 1);
+                controlByte = (end - i - 1) | 0x80;
+                length = bytesPerPixel;
+            } else {
+                end = RunDetector.nextSet(this.runBits, i + 1, limit);
+                controlByte = end - i - 1;
+                length = (end - i) * bytesPerPixel;
             }
+
+            this.buf[this.count++] = (byte) controlByte;
+            System.arraycopy(row, i * bytesPerPixel, this.buf, this.count, length);
+            this.count += length;
+            i = end;
         }
 
-        this.writePacket(currentPacket, header, checksum);
+        if (isProPra) {
+            checksum.add(this.buf, rowStart, this.count - rowStart);
+            this.dataSegmentSize += this.count - rowStart;
+        }
+        if (this.rowCache.isWorthStoring()) {
+            this.rowCache.put(row, this.buf, rowStart, this.count - rowStart);
+        }
     }
 
     /**
-     * Write a packet (either uncompressed or a run-length packet) to the output file
-     * and update checksum (if writing a ProPra image.
+     * Chooses the packets for the current row, that give the smallest encoded row.
+     * <p>
+     * The rest of the row starting at pixel <code>i</code> costs either a run-length packet covering the whole run
+     * at <code>i</code> plus the rest behind it, or a raw packet up to some pixel <code>k</code> plus the rest starting
+     * at <code>k</code>. A longer run is never worse, because the rest of a row never costs more than a longer rest.
+     * The cost of a raw packet grows linearly with <code>k</code>, so the best <code>k</code> within 128 pixels is the
+     * minimum of <code>costs[k] + k * bytesPerPixel</code> over a sliding window, kept in a monotone deque.
+     * Ties are resolved in favour of the greedy choice.
+     * </p>
      *
-     * @param packet   packet to be written.
-     * @param header   header of output file.
-     * @param checksum checksum to get updated.
-     * @throws IOException if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
+     * @param numPixels     number of pixels in the current row.
+     * @param bytesPerPixel number of bytes per pixel.
      */
-    private void writePacket(Packet packet, ImageHeader header, Checksum checksum) throws IOException {
-        byte[] bytes = packet.toByteArray(header.getPixelOrder());
-        this.write(bytes);
+    private void choosePackets(int numPixels, int bytesPerPixel) {
+        if (this.packets.length < numPixels + 1) {
+            this.packets = new int[numPixels + 1];
+            this.costs = new int[numPixels + 1];
+            this.candidates = new int[numPixels + 1];
+        }
 
-        if (header instanceof ProPraImageHeader) {
-            checksum.add(bytes);
-            this.dataSegmentSize += bytes.length;
+        // The deque holds candidates candidates[head..tail) with increasing index and decreasing weighted cost,
+        // so the best candidate is the last one.
+        int head = numPixels + 1;
+        int tail = numPixels + 1;
+        int runLength = 0;
+        this.costs[numPixels] = 0;
+
+        for (int i = numPixels - 1; i >= 0; i--) {
+            int k = i + 1;
+            long weighted = (long) this.costs[k] + (long) k * bytesPerPixel;
+            while (head < tail && (long) this.costs[this.candidates[head]]
+                    + (long) this.candidates[head] * bytesPerPixel >= weighted) {
+                head++;
+            }
+            this.candidates[--head] = k;
+            while (this.candidates[tail - 1] > i + MAX_PACKET_SIZE) {
+                tail--;
+            }
+
+            int rawEnd = this.candidates[tail - 1];
+            int rawCost = 1 + (rawEnd - i) * bytesPerPixel + this.costs[rawEnd];
+
+            runLength = RunDetector.isSet(this.runBits, i) ? runLength + 1 : 0;
+            int runPixels = Math.min(MAX_PACKET_SIZE, runLength + 1);
+            int runCost = runPixels > 1 ? 1 + bytesPerPixel + this.costs[i + runPixels] : Integer.MAX_VALUE;
+
+            if (runCost < rawCost || (runCost == rawCost && runPixels > 1)) {
+                this.costs[i] = runCost;
+                this.packets[i] = -runPixels;
+            } else {
+                this.costs[i] = rawCost;
+                this.packets[i] = rawEnd - i;
+            }
         }
     }
 }
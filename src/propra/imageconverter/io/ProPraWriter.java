@@ -4,7 +4,6 @@ import propra.imageconverter.image.*;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
 
 /**
  * Class to write a ProPra Images to  a specified output file.
@@ -12,9 +11,31 @@ import java.util.HashMap;
 public class ProPraWriter extends ImageWriter {
 
     /**
-     * Buffer in binary representation.
+     * Minimum number of bytes in the image data, from which on the pair table of the huffman table gets built.
+     * Building it costs about as much as encoding this many bytes one by one.
      */
-    private StringBuilder buffer = new StringBuilder();
+    private static final long PAIR_TABLE_THRESHOLD = 1 << 18;
+
+    /**
+     * Bits, that have not been written yet, right aligned. Never more than 7 bits between two calls of
+     * {@link #putBits(long, int, Checksum)}.
+     */
+    private long bitBuffer = 0;
+
+    /**
+     * Number of bits in {@link #bitBuffer}.
+     */
+    private int bitCount = 0;
+
+    /**
+     * Position in the buffer of this stream, from which on the written bytes have not been added to the checksum.
+     */
+    private int checksumMark = 0;
+
+    /**
+     * Number of occurrences of every byte written in huffman compressed format, or <code>null</code>.
+     */
+    private int[] byteCount;
 
     /**
      * Creates a new ProPra writer to write data to the
@@ -27,73 +48,144 @@ public class ProPraWriter extends ImageWriter {
     }
 
     /**
-     * Writes a row of pixels into the output file in uncompressed, rle or huffman compressed format.
+     * Sets an array, in which the occurrences of every byte written in huffman compressed format get counted.
+     *
+     * @param byteCount number of occurrences to be incremented, indexed by the unsigned value of the byte,
+     *                  or <code>null</code> to stop counting.
+     */
+    public void setByteCount(int[] byteCount) {
+        this.byteCount = byteCount;
+    }
+
+    /**
+     * Writes an uncompressed row given as bytes into the output file in uncompressed, rle or huffman compressed format.
+     * The colors get reordered in place into the pixel order of the output, so the buffer is changed.
      * Checksum gets only updated for ProPra images.
      *
-     * @param pixels   pixels to be written.
-     * @param header   header for output file.
-     * @param checksum checksum to get updated.
+     * @param row        bytes of the row.
+     * @param pixelOrder pixel order of the bytes.
+     * @param header     header for output file.
+     * @param checksum   checksum to get updated.
      * @throws IOException if this input stream has been closed by invoking its {@link #close()} method, or an I/O error occurs.
      */
     @Override
-    public void writeRow(Pixel[] pixels, ImageHeader header, Checksum checksum) throws IOException {
+    public void writeRow(byte[] row, PixelOrder pixelOrder, ImageHeader header, Checksum checksum) throws IOException {
         if (header.getCompression() == Compression.Huffman) {
-            ProPraImageHeader proPraHeader = (ProPraImageHeader) header;
-            if (proPraHeader.getHuffmanTable() == null) {
-                // In this case, the table has not been created. This is an indicator, that the tree has not
-                // already been written to the datasegment of the outfile.
-                HashMap<Byte, String> huffmanTable = new HashMap<>();
-                proPraHeader.getHuffmanTree().buildHuffmanTable("", huffmanTable);
-                proPraHeader.setHuffmanTable(huffmanTable);
-                this.putBits(proPraHeader.getHuffmanTree().getTreeInPreOrder(), checksum);
+            this.writeRowHuffman(row, pixelOrder, (ProPraImageHeader) header, checksum);
+        } else {
+            super.writeRow(row, pixelOrder, header, checksum);
+        }
+    }
+
+    /**
+     * Writes an uncompressed row given as bytes into the output file in huffman compressed format.
+     * The colors get reordered in place into the pixel order of the output, so the buffer is changed.
+     * The tree is written in front of the first row. Neighbouring bytes are encoded in pairs, if the huffman table
+     * has a pair table.
+     *
+     * @param row        bytes of the row.
+     * @param pixelOrder pixel order of the bytes.
+     * @param header     header for output file.
+     * @param checksum   checksum to get updated.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void writeRowHuffman(byte[] row, PixelOrder pixelOrder, ProPraImageHeader header, Checksum checksum)
+            throws IOException {
+        // Everything in the buffer of this stream has already been added to the checksum.
+        this.checksumMark = this.count;
+
+        if (header.getHuffmanTable() == null) {
+            // In this case, the table has not been created. This is an indicator, that the tree has not
+            // already been written to the datasegment of the outfile.
+            long dataSize = (long) header.getImgWidth() * header.getImgHeight() * (header.getPixelDepth() / 8);
+            header.setHuffmanTable(new HuffmanTable(header.getHuffmanTree(), dataSize >= PAIR_TABLE_THRESHOLD));
+
+            for (char bit : header.getHuffmanTree().getTreeInPreOrder().toCharArray()) {
+                this.putBits(bit - '0', 1, checksum);
             }
+        }
 
-            HashMap<Byte, String> huffmanTable = ((ProPraImageHeader) header).getHuffmanTable();
+        PixelSwizzle.reorder(row, 0, row.length / (header.getPixelDepth() / 8), pixelOrder, header.getPixelOrder());
+        HuffmanTable table = header.getHuffmanTable();
+        int i = 0;
 
-            for (Pixel pixel : pixels) {
-                for (byte b : pixel.getPixel(header.getPixelOrder())) {
-                    String bitString = huffmanTable.get(b);
-                    this.putBits(bitString, checksum);
-                }
+        if (this.byteCount != null) {
+            for (byte b : row) {
+                this.byteCount[Byte.toUnsignedInt(b)]++;
             }
-        } else {
-            super.writeRow(pixels, header, checksum);
         }
+
+        if (table.hasPairTable()) {
+            for (; i + 1 < row.length; i += 2) {
+                int pair = Byte.toUnsignedInt(row[i]) << 8 | Byte.toUnsignedInt(row[i + 1]);
+                this.putBits(table.getPairCode(pair), table.getPairLength(pair), checksum);
+            }
+        }
+        for (; i < row.length; i++) {
+            int symbol = Byte.toUnsignedInt(row[i]);
+            this.putBits(table.getCode(symbol), table.getLength(symbol), checksum);
+        }
+
+        this.updateChecksum(checksum);
     }
 
     /**
-     * Put bits from <code>bits</code> to the buffer. Whenever the buffer has a length of a multiple of 8,
-     * the first 8 characters (<code>0</code> or <code>1</code>) get converted into a byte and written to the outfile.
+     * Put bits into the bit buffer. Whenever the bit buffer holds 8 bits or more, the first 8 bits get written
+     * into the buffer of this stream. The checksum gets updated, before the buffer of this stream is flushed.
      *
-     * @param bits     bit string to get added to the buffer.
+     * @param code     bits to be added, right aligned.
+     * @param length   number of bits to be added, at most 64.
      * @param checksum checksum to get updated.
      * @throws IOException if an I/O error occurs.
      */
-    private void putBits(String bits, Checksum checksum) throws IOException {
-        this.buffer.append(bits);
-
-        while (this.buffer.length() >= 8) {
-            String bitString = this.buffer.substring(0, 8);
-            byte b = (byte) Integer.parseInt(bitString, 2);
-            this.buffer.delete(0, 8);
-            this.write(b);
-            this.incrementDataSegmentSize(1);
-            checksum.add(b);
+    private void putBits(long code, int length, Checksum checksum) throws IOException {
+        if (length > 32) {
+            this.putBits(code >>> 32, length - 32, checksum);
+            code &= 0xFFFFFFFFL;
+            length = 32;
+        }
+
+        this.bitBuffer = this.bitBuffer << length | code;
+        this.bitCount += length;
+
+        while (this.bitCount >= 8) {
+            if (this.count >= this.buf.length) {
+                this.updateChecksum(checksum);
+                this.out.write(this.buf, 0, this.count);
+                this.count = 0;
+                this.checksumMark = 0;
+            }
+            this.bitCount -= 8;
+            this.buf[this.count++] = (byte) (this.bitBuffer >>> this.bitCount);
         }
+        this.bitBuffer &= (1L << this.bitCount) - 1;
+    }
+
+    /**
+     * Adds the bytes written into the buffer of this stream since the last update to the checksum and to the
+     * data segment size.
+     *
+     * @param checksum checksum to get updated.
+     */
+    private void updateChecksum(Checksum checksum) {
+        checksum.add(this.buf, this.checksumMark, this.count - this.checksumMark);
+        this.incrementDataSegmentSize(this.count - this.checksumMark);
+        this.checksumMark = this.count;
     }
 
     /**
-     * Flush the buffer. Append <code>0</code> to the end of the buffer,
-     * until the length of the buffer is a multiple of 8, and then write those to the outfile to clear the buffer.
+     * Flush the bit buffer. Append <code>0</code> to the end of the bit buffer,
+     * until the number of bits is a multiple of 8, and then write those to the outfile to clear the bit buffer.
      *
      * @param checksum checksum to get updated.
      * @throws IOException if an I/O error occurs.
      */
     public void flush(Checksum checksum) throws IOException {
-        while (this.buffer.length() % 8 > 0) {
-            this.buffer.append("0");
+        this.checksumMark = this.count;
+        if (this.bitCount > 0) {
+            this.putBits(0, 8 - this.bitCount, checksum);
         }
 
-        this.putBits("", checksum);
+        this.updateChecksum(checksum);
     }
 }
@@ -0,0 +1,250 @@
+package propra.imageconverter.io;
+
+import propra.imageconverter.exceptions.InvalidImageException;
+import propra.imageconverter.image.Checksum;
+import propra.imageconverter.image.ImageHeader;
+import propra.imageconverter.image.PixelSwizzle;
+import propra.imageconverter.image.ProPraImageHeader;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Transcodes rows of a rle compressed image into another rle compressed image, without expanding them into pixels.
+ * <p>
+ * TGA and ProPra use the same packet structure, only the order of the colors in a pixel differs. So a row gets read
+ * packet by packet into a buffer, the pixels get reordered in place and the buffer gets written as it is.
+ * This is only done, if the packets of the row are exactly the packets, that {@link ImageWriter} would write for
+ * that row. Otherwise the row gets decoded into pixels and written by the writer, so the output is always
+ * identical to a full conversion.
+ * </p>
+ */
+public class RLETranscoder {
+
+    /**
+     * Maximum number of pixels in a packet.
+     */
+    private static final int MAX_PACKET_SIZE = 0x80;
+
+    /**
+     * Header of the input image.
+     */
+    private final ImageHeader inHeader;
+
+    /**
+     * Header of the output image.
+     */
+    private final ImageHeader outHeader;
+
+    /**
+     * Number of bytes per pixel.
+     */
+    private final int bytesPerPixel;
+
+    /**
+     * Packets of the current row, as read from the input.
+     */
+    private final byte[] row;
+
+    /**
+     * Offset of every pixel of the current row in {@link #row}. All pixels of a run-length packet share one offset.
+     */
+    private final int[] pixelOffsets;
+
+    /**
+     * Offset of every packet of the current row in {@link #row}.
+     */
+    private final int[] packetOffsets;
+
+    /**
+     * Decoded pixels of the current row, used if the row has to be encoded again.
+     */
+    private final byte[] decoded;
+
+    /**
+     * Constructs a transcoder between two rle compressed images.
+     *
+     * @param inHeader  header of the input image.
+     * @param outHeader header of the output image.
+     */
+    public RLETranscoder(ImageHeader inHeader, ImageHeader outHeader) {
+        this.inHeader = inHeader;
+        this.outHeader = outHeader;
+        this.bytesPerPixel = inHeader.getPixelDepth() / 8;
+
+        int width = inHeader.getImgWidth();
+        // In the worst case, every pixel is stored in a packet of its own.
+        this.row = new byte[width * (this.bytesPerPixel + 1)];
+        this.pixelOffsets = new int[width];
+        this.packetOffsets = new int[width];
+        this.decoded = new byte[width * this.bytesPerPixel];
+    }
+
+    /**
+     * Transcodes one row from the reader to the writer. Checksums get only updated for ProPra images.
+     *
+     * @param reader         reader of the input image.
+     * @param writer         writer of the output image.
+     * @param inputChecksum  checksum of the input to get updated.
+     * @param outputChecksum checksum of the output to get updated.
+     * @return false, if there is less image data to read than expected.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if a packet exceeds the width of the image.
+     */
+    public boolean transcodeRow(ImageReader reader, ImageWriter writer, Checksum inputChecksum, Checksum outputChecksum)
+            throws IOException, InvalidImageException {
+        int width = this.pixelOffsets.length;
+        int numPixelsRead = 0;
+        int numPackets = 0;
+        int length = 0;
+
+        while (numPixelsRead < width) {
+            int controlByte = reader.read();
+            if (controlByte == -1) {
+                return false;
+            }
+
+            boolean isRaw = (controlByte & 0x80) == 0;
+            int numPixels = (controlByte & 0x7F) + 1;
+            int bytesToRead = isRaw ? numPixels * this.bytesPerPixel : this.bytesPerPixel;
+
+            if (numPixelsRead + numPixels > width) {
+                throw new InvalidImageException("Run-length packet exceeds the width of the image.");
+            }
+
+            this.row[length] = (byte) controlByte;
+            this.packetOffsets[numPackets++] = length;
+            if (reader.readNBytes(this.row, length + 1, bytesToRead) != bytesToRead) {
+                return false;
+            }
+
+            for (int i = 0; i < numPixels; i++) {
+                this.pixelOffsets[numPixelsRead + i] = length + 1 + (isRaw ? i * this.bytesPerPixel : 0);
+            }
+
+            numPixelsRead += numPixels;
+            length += bytesToRead + 1;
+        }
+
+        if (this.inHeader instanceof ProPraImageHeader) {
+            inputChecksum.add(this.row, 0, length);
+            reader.incrementDataSegmentSize(length);
+        }
+
+        if (this.isCanonical(numPackets)) {
+            this.reorderPixels(numPackets);
+            writer.write(this.row, 0, length);
+
+            if (this.outHeader instanceof ProPraImageHeader) {
+                outputChecksum.add(this.row, 0, length);
+                writer.incrementDataSegmentSize(length);
+            }
+        } else {
+            writer.writeRowRLE(this.decodeRow(numPackets), this.inHeader.getPixelOrder(), this.outHeader, outputChecksum);
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks, whether the packets of the current row are the packets the writer would produce for that row.
+     * Replays the rules of the writer: a run-length packet starts, whenever two neighbouring pixels are equal and
+     * lasts as long as the pixels are equal, a raw packet lasts until the next two neighbouring pixels are equal.
+     * No packet has more than 128 pixels.
+     *
+     * @param numPackets number of packets in the current row.
+     * @return if the packets are in the form the writer produces.
+     */
+    private boolean isCanonical(int numPackets) {
+        int width = this.pixelOffsets.length;
+        int packet = 0;
+        int i = 0;
+
+        while (i < width) {
+            boolean isRun = i < width - 1 && this.equalPixels(i);
+            int numPixels = 1;
+
+            if (isRun) {
+                while (i + numPixels < width && numPixels < MAX_PACKET_SIZE && this.equalPixels(i + numPixels - 1)) {
+                    numPixels++;
+                }
+            } else {
+                while (i + numPixels < width && numPixels < MAX_PACKET_SIZE
+                        && !(i + numPixels < width - 1 && this.equalPixels(i + numPixels))) {
+                    numPixels++;
+                }
+            }
+
+            if (packet >= numPackets) {
+                return false;
+            }
+            int controlByte = Byte.toUnsignedInt(this.row[this.packetOffsets[packet++]]);
+            if (((controlByte & 0x80) != 0) != isRun || (controlByte & 0x7F) + 1 != numPixels) {
+                return false;
+            }
+
+            i += numPixels;
+        }
+
+        return packet == numPackets;
+    }
+
+    /**
+     * Compares the pixel at position <code>i</code> with its right neighbour.
+     *
+     * @param i position of the pixel in the current row.
+     * @return if both pixels are equal.
+     */
+    private boolean equalPixels(int i) {
+        int a = this.pixelOffsets[i];
+        int b = this.pixelOffsets[i + 1];
+
+        return a == b || Arrays.equals(this.row, a, a + this.bytesPerPixel, this.row, b, b + this.bytesPerPixel);
+    }
+
+    /**
+     * Reorders the colors of all pixels in the current row from the pixel order of the input
+     * to the pixel order of the output.
+     *
+     * @param numPackets number of packets in the current row.
+     */
+    private void reorderPixels(int numPackets) {
+        if (this.inHeader.getPixelOrder() == this.outHeader.getPixelOrder()) {
+            return;
+        }
+
+        for (int packet = 0; packet < numPackets; packet++) {
+            int offset = this.packetOffsets[packet];
+            int controlByte = Byte.toUnsignedInt(this.row[offset]);
+            int numPixels = (controlByte & 0x80) == 0 ? (controlByte & 0x7F) + 1 : 1;
+
+            PixelSwizzle.reorder(this.row, offset + 1, numPixels, this.inHeader.getPixelOrder(), this.outHeader.getPixelOrder());
+        }
+    }
+
+    /**
+     * Decodes the current row into uncompressed bytes.
+     *
+     * @param numPackets number of packets in the current row.
+     * @return bytes of the current row in the pixel order of the input.
+     */
+    private byte[] decodeRow(int numPackets) {
+        int offset = 0;
+
+        for (int packet = 0; packet < numPackets; packet++) {
+            int packetOffset = this.packetOffsets[packet];
+            int controlByte = Byte.toUnsignedInt(this.row[packetOffset]);
+            int numPixels = (controlByte & 0x7F) + 1;
+
+            if ((controlByte & 0x80) == 0) {
+                System.arraycopy(this.row, packetOffset + 1, this.decoded, offset, numPixels * this.bytesPerPixel);
+            } else {
+                System.arraycopy(this.row, packetOffset + 1, this.decoded, offset, this.bytesPerPixel);
+                ImageReader.fillRun(this.decoded, offset, this.bytesPerPixel, numPixels);
+            }
+            offset += numPixels * this.bytesPerPixel;
+        }
+
+        return this.decoded;
+    }
+}
@@ -0,0 +1,246 @@
+package propra.imageconverter.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Input stream, that reads an underlying stream ahead on a thread of its own, or on a thread of an executor.
+ * <p>
+ * The thread reads chunks of the underlying stream into a bounded queue, while the chunks read before are consumed.
+ * So expensive work of the underlying stream, like decompression, or waiting for slow storage, overlaps with the work
+ * of the consumer.
+ * An I/O error of the underlying stream is reported, when the consumer reaches the position of the error.
+ * The stream has to be closed to stop the thread, if it has not been read to its end.
+ * </p>
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /**
+     * Marker for the end of the underlying stream in the queue.
+     */
+    private static final byte[] END = new byte[0];
+
+    /**
+     * Underlying stream.
+     */
+    private final InputStream in;
+
+    /**
+     * Size of the chunks read from the underlying stream.
+     */
+    private final int chunkSize;
+
+    /**
+     * Chunks, that have been read ahead, followed by {@link #END} after the last one.
+     */
+    private final BlockingQueue<byte[]> chunks;
+
+    /**
+     * Signals that the underlying stream is not read anymore.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Thread, that reads the underlying stream, while it is reading.
+     */
+    private Thread reader;
+
+    /**
+     * Whether the stream has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Error of the underlying stream, is set before {@link #END} is queued.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Chunk, that is currently consumed.
+     */
+    private byte[] chunk = new byte[0];
+
+    /**
+     * Position of the next byte to be read in {@link #chunk}.
+     */
+    private int position = 0;
+
+    /**
+     * Whether {@link #END} has been taken from the queue.
+     */
+    private boolean endReached = false;
+
+    /**
+     * Creates a new read-ahead stream and starts reading the underlying stream.
+     *
+     * @param in        underlying stream.
+     * @param chunkSize size of the chunks read from the underlying stream.
+     * @param numChunks maximum number of chunks, that are read ahead.
+     */
+    public ReadAheadInputStream(InputStream in, int chunkSize, int numChunks) {
+        this(in, chunkSize, numChunks, task -> {
+            Thread thread = new Thread(task, "read-ahead");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Creates a new read-ahead stream, whose underlying stream is read by a task of an executor.
+     * The executor has to start the task, even if the stream gets closed before.
+     *
+     * @param in        underlying stream.
+     * @param chunkSize size of the chunks read from the underlying stream.
+     * @param numChunks maximum number of chunks, that are read ahead.
+     * @param executor  executor, that runs the reading task.
+     */
+    public ReadAheadInputStream(InputStream in, int chunkSize, int numChunks, Executor executor) {
+        this.in = in;
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayBlockingQueue<>(numChunks);
+        executor.execute(this::readAhead);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.position == this.chunk.length && !this.nextChunk()) {
+            return -1;
+        }
+
+        return Byte.toUnsignedInt(this.chunk[this.position++]);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        } else if (this.position == this.chunk.length && !this.nextChunk()) {
+            return -1;
+        }
+
+        int n = Math.min(len, this.chunk.length - this.position);
+        System.arraycopy(this.chunk, this.position, b, off, n);
+        this.position += n;
+
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return this.chunk.length - this.position;
+    }
+
+    /**
+     * Stops reading ahead and closes the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.chunks) {
+            this.closed = true;
+            if (this.reader != null) {
+                this.reader.interrupt();
+            }
+        }
+
+        try {
+            this.stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.in.close();
+        }
+    }
+
+    /**
+     * Takes the next chunk from the queue.
+     *
+     * @return false, if the end of the underlying stream has been reached.
+     * @throws IOException if the underlying stream failed, or the thread got interrupted.
+     */
+    private boolean nextChunk() throws IOException {
+        if (this.endReached) {
+            return false;
+        }
+
+        try {
+            this.chunk = this.chunks.take();
+            this.position = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the read-ahead thread.");
+        }
+
+        if (this.chunk == END) {
+            this.endReached = true;
+            if (this.failure != null) {
+                throw this.failure;
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the underlying stream into the queue, until its end, an error, or until the stream gets closed.
+     * Only one reader runs, it does not start, if the stream has already been closed.
+     */
+    private void readAhead() {
+        synchronized (this.chunks) {
+            if (this.closed) {
+                this.stopped.countDown();
+                return;
+            }
+            this.reader = Thread.currentThread();
+        }
+
+        try {
+            this.readChunks();
+        } finally {
+            synchronized (this.chunks) {
+                // A pooled thread must not be interrupted, once it runs another task.
+                this.reader = null;
+            }
+            this.stopped.countDown();
+        }
+    }
+
+    /**
+     * Reads the chunks of the underlying stream into the queue, followed by {@link #END}.
+     */
+    private void readChunks() {
+        try {
+            int numBytesRead;
+            do {
+                byte[] buf = new byte[this.chunkSize];
+                numBytesRead = this.in.readNBytes(buf, 0, buf.length);
+                if (numBytesRead > 0) {
+                    this.chunks.put(numBytesRead == buf.length ? buf : Arrays.copyOf(buf, numBytesRead));
+                }
+            } while (numBytesRead == this.chunkSize);
+        } catch (InterruptedException e) {
+            // The stream has been closed.
+            return;
+        } catch (IOException e) {
+            this.failure = e;
+        } catch (RuntimeException e) {
+            this.failure = new IOException(e);
+        }
+
+        try {
+            this.chunks.put(END);
+        } catch (InterruptedException e) {
+            // The stream has been closed.
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package propra.imageconverter.io;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the encoded bytes of the most recently encoded rows, so that a repeated row does not get encoded again.
+ * <p>
+ * A row is compared with the remembered rows directly, different rows usually differ in their first bytes.
+ * The entries are kept in order of their last use, a new row replaces the least recently used entry.
+ * Arrays of replaced entries are reused.
+ * </p>
+ * <p>
+ * Encoding a row is barely more expensive than copying it, so remembering rows, that never come again, slows the
+ * encoder down. Once {@link #WARM_UP} rows have been looked up and less than every {@link #MIN_HIT_INTERVAL}th row
+ * has been found, only every {@link #SAMPLE_INTERVAL}th row is remembered.
+ * </p>
+ */
+public class RowCache {
+
+    /**
+     * Number of rows remembered by default.
+     */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * Number of rows looked up, before the hit rate is taken into account.
+     */
+    public static final int WARM_UP = 64;
+
+    /**
+     * At least every this many rows must be found, so that every row is remembered.
+     */
+    public static final int MIN_HIT_INTERVAL = 8;
+
+    /**
+     * Interval of remembered rows, if too few rows are found.
+     */
+    public static final int SAMPLE_INTERVAL = 16;
+
+    /**
+     * Bytes of the remembered rows, most recently used first.
+     */
+    private final byte[][] rows;
+
+    /**
+     * Encoded bytes of the remembered rows.
+     */
+    private final byte[][] encodedRows;
+
+    /**
+     * Number of encoded bytes of the remembered rows.
+     */
+    private final int[] encodedLengths;
+
+    /**
+     * Number of remembered rows.
+     */
+    private int size = 0;
+
+    /**
+     * Number of rows looked up.
+     */
+    private long lookups = 0;
+
+    /**
+     * Number of rows found.
+     */
+    private long hits = 0;
+
+    /**
+     * Constructs an empty row cache.
+     *
+     * @param capacity number of rows to remember.
+     */
+    public RowCache(int capacity) {
+        this.rows = new byte[capacity][];
+        this.encodedRows = new byte[capacity][];
+        this.encodedLengths = new int[capacity];
+    }
+
+    /**
+     * Returns number of rows looked up.
+     *
+     * @return lookups.
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * Returns number of rows found.
+     *
+     * @return hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns whether the row, that has just been looked up and not been found, should be remembered.
+     *
+     * @return if the row should be put into the cache.
+     */
+    public boolean isWorthStoring() {
+        return this.lookups <= WARM_UP || this.hits * MIN_HIT_INTERVAL >= this.lookups
+                || this.lookups % SAMPLE_INTERVAL == 0;
+    }
+
+    /**
+     * Looks up a row. If the row is found, it becomes the most recently used entry,
+     * so its encoded bytes are returned by {@link #getEncoded()}.
+     *
+     * @param row bytes of the row.
+     * @return if the row has been found.
+     */
+    public boolean lookup(byte[] row) {
+        this.lookups++;
+
+        for (int i = 0; i < this.size; i++) {
+            if (Arrays.equals(this.rows[i], row)) {
+                this.moveToFront(i);
+                this.hits++;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns encoded bytes of the most recently used row. Only the first {@link #getEncodedLength()} bytes are valid.
+     *
+     * @return encoded bytes.
+     */
+    public byte[] getEncoded() {
+        return this.encodedRows[0];
+    }
+
+    /**
+     * Returns number of encoded bytes of the most recently used row.
+     *
+     * @return number of encoded bytes.
+     */
+    public int getEncodedLength() {
+        return this.encodedLengths[0];
+    }
+
+    /**
+     * Remembers a row and its encoded bytes as most recently used entry.
+     *
+     * @param row     bytes of the row.
+     * @param encoded bytes containing the encoded row.
+     * @param offset  offset of the encoded row.
+     * @param length  number of encoded bytes.
+     */
+    public void put(byte[] row, byte[] encoded, int offset, int length) {
+        if (this.size < this.rows.length) {
+            this.size++;
+        }
+        this.moveToFront(this.size - 1);
+
+        if (this.rows[0] == null || this.rows[0].length != row.length) {
+            this.rows[0] = new byte[row.length];
+        }
+        if (this.encodedRows[0] == null || this.encodedRows[0].length < length) {
+            this.encodedRows[0] = new byte[length];
+        }
+
+        System.arraycopy(row, 0, this.rows[0], 0, row.length);
+        System.arraycopy(encoded, offset, this.encodedRows[0], 0, length);
+        this.encodedLengths[0] = length;
+    }
+
+    /**
+     * Moves an entry to the front, shifting all entries in front of it back by one.
+     *
+     * @param index index of the entry.
+     */
+    private void moveToFront(int index) {
+        byte[] row = this.rows[index];
+        byte[] encoded = this.encodedRows[index];
+        int encodedLength = this.encodedLengths[index];
+
+        System.arraycopy(this.rows, 0, this.rows, 1, index);
+        System.arraycopy(this.encodedRows, 0, this.encodedRows, 1, index);
+        System.arraycopy(this.encodedLengths, 0, this.encodedLengths, 1, index);
+
+        this.rows[0] = row;
+        this.encodedRows[0] = encoded;
+        this.encodedLengths[0] = encodedLength;
+    }
+}
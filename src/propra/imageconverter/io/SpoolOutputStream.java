@@ -0,0 +1,117 @@
+package propra.imageconverter.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Output stream, that holds written data until it can be written to its final destination.
+ * Data is kept in memory up to a given limit, everything beyond is spooled to a temporary file.
+ * <p>
+ * Used for ProPra images written to a stream, as the header can only be written after the whole data segment
+ * (and therefore the checksum) is known.
+ * </p>
+ */
+public class SpoolOutputStream extends OutputStream {
+
+    /**
+     * Maximum number of bytes kept in memory.
+     */
+    private final int memoryLimit;
+
+    /**
+     * Data kept in memory, as long as the memory limit is not exceeded.
+     */
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+    /**
+     * Temporary file, that is used once the memory limit is exceeded.
+     */
+    private Path overflowFile;
+
+    /**
+     * Stream writing to {@link #overflowFile}.
+     */
+    private OutputStream overflow;
+
+    /**
+     * Constructs a spool, that keeps up to <code>memoryLimit</code> bytes in memory.
+     *
+     * @param memoryLimit maximum number of bytes kept in memory.
+     */
+    public SpoolOutputStream(int memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.overflowFile == null && this.memory.size() + len > this.memoryLimit) {
+            this.overflowFile = Files.createTempFile("propra-spool", ".tmp");
+            this.overflow = new BufferedOutputStream(Files.newOutputStream(this.overflowFile));
+            this.memory.writeTo(this.overflow);
+            this.memory = null;
+        }
+
+        if (this.overflow != null) {
+            this.overflow.write(b, off, len);
+        } else {
+            this.memory.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.overflow != null) {
+            this.overflow.flush();
+        }
+    }
+
+    /**
+     * Finishes writing to the spool. The spooled data stays available for {@link #writeTo(OutputStream)}
+     * until {@link #dispose()} is called.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.overflow != null) {
+            this.overflow.close();
+        }
+    }
+
+    /**
+     * Writes all spooled data to the given output stream.
+     *
+     * @param out output stream to write to.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (this.overflowFile != null) {
+            this.overflow.flush();
+            Files.copy(this.overflowFile, out);
+        } else {
+            this.memory.writeTo(out);
+        }
+    }
+
+    /**
+     * Releases the spooled data and deletes the temporary file, if one was used.
+     *
+     * @throws IOException if the temporary file cannot be deleted.
+     */
+    public void dispose() throws IOException {
+        this.close();
+        this.memory = null;
+        if (this.overflowFile != null) {
+            Files.deleteIfExists(this.overflowFile);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package propra.imageconverter.io;
+
+import propra.imageconverter.exceptions.InvalidImageException;
+import propra.imageconverter.image.HuffmanTable;
+import propra.imageconverter.image.Node;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes huffman trees, that are stored in a file of their own, so that they can be used for many images.
+ * <p>
+ * A tree file starts with the magic String "ProPraTree", followed by the tree in the same pre-order format, that is
+ * used in the data segment of huffman compressed ProPra images, padded with <code>0</code> to a multiple of 8 bits.
+ * A tree file has to contain a code for every byte, so that it can encode any image.
+ * </p>
+ */
+public final class TreeFile {
+
+    /**
+     * Magic String a tree file starts with.
+     */
+    public static final String MAGIC = "ProPraTree";
+
+    /**
+     * Number of possible symbols.
+     */
+    private static final int NUM_SYMBOLS = 256;
+
+    private TreeFile() {
+    }
+
+    /**
+     * Writes a huffman tree into a file.
+     *
+     * @param tree huffman tree to be written.
+     * @param path path of the tree file.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(Node tree, Path path) throws IOException {
+        String bits = tree.getTreeInPreOrder();
+        byte[] magic = MAGIC.getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = new byte[magic.length + (bits.length() + 7) / 8];
+        System.arraycopy(magic, 0, bytes, 0, magic.length);
+
+        for (int i = 0; i < bits.length(); i++) {
+            if (bits.charAt(i) == '1') {
+                bytes[magic.length + i / 8] |= 0x80 >>> (i % 8);
+            }
+        }
+
+        Files.write(path, bytes);
+    }
+
+    /**
+     * Reads a huffman tree from a file.
+     *
+     * @param path path of the tree file.
+     * @return root of the huffman tree.
+     * @throws IOException           if an I/O error occurs.
+     * @throws InvalidImageException if the file does not contain a valid tree, that has a code for every byte.
+     */
+    public static Node read(Path path) throws IOException, InvalidImageException {
+        byte[] bytes = Files.readAllBytes(path);
+        byte[] magic = MAGIC.getBytes(StandardCharsets.US_ASCII);
+
+        if (bytes.length < magic.length || !new String(bytes, 0, magic.length, StandardCharsets.US_ASCII).equals(MAGIC)) {
+            throw new InvalidImageException(String.format("%s is not a huffman tree file.", path));
+        }
+
+        int[] position = {magic.length * 8};
+        Node tree = readNode(bytes, position, 0);
+        if (tree.isLeave()) {
+            throw new InvalidImageException("Huffman tree file contains a single leave instead of a tree.");
+        }
+        // Only padding may follow the tree.
+        if ((position[0] + 7) / 8 != bytes.length) {
+            throw new InvalidImageException("Huffman tree file contains data behind the tree.");
+        }
+
+        HuffmanTable table = new HuffmanTable(tree);
+        for (int symbol = 0; symbol < NUM_SYMBOLS; symbol++) {
+            if (table.getLength(symbol) == 0) {
+                throw new InvalidImageException(String.format("Huffman tree file contains no code for byte %d.", symbol));
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * Reads a Node and its sub-tree in pre-order.
+     *
+     * @param bytes    content of the file.
+     * @param position position of the next bit, gets advanced behind the sub-tree.
+     * @param depth    depth of the Node in the tree.
+     * @return read Node.
+     * @throws InvalidImageException if the tree is incomplete or too deep.
+     */
+    private static Node readNode(byte[] bytes, int[] position, int depth) throws InvalidImageException {
+        if (depth > HuffmanTable.MAX_CODE_LENGTH) {
+            throw new InvalidImageException(String.format("Huffman tree file contains codes longer than %d bits.",
+                    HuffmanTable.MAX_CODE_LENGTH));
+        }
+
+        if (readBits(bytes, position, 1) == 1) {
+            return new Node((byte) readBits(bytes, position, 8));
+        }
+
+        Node leftChild = readNode(bytes, position, depth + 1);
+        Node rightChild = readNode(bytes, position, depth + 1);
+
+        return new Node(leftChild, rightChild);
+    }
+
+    /**
+     * Reads bits, most significant bit first.
+     *
+     * @param bytes    content of the file.
+     * @param position position of the first bit, gets advanced behind the read bits.
+     * @param n        number of bits to be read.
+     * @return read bits.
+     * @throws InvalidImageException if the file ends before.
+     */
+    private static int readBits(byte[] bytes, int[] position, int n) throws InvalidImageException {
+        int bits = 0;
+
+        for (int i = 0; i < n; i++, position[0]++) {
+            if (position[0] >= bytes.length * 8) {
+                throw new InvalidImageException("Huffman tree file does not contain a full tree.");
+            }
+            bits = bits << 1 | (bytes[position[0] / 8] >>> (7 - position[0] % 8)) & 1;
+        }
+
+        return bits;
+    }
+}
@@ -0,0 +1,221 @@
+package propra.imageconverter.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output stream, that writes to an underlying stream behind the producer, on a thread of an executor.
+ * <p>
+ * The bytes are collected into chunks, which are handed to the thread through a bounded queue. So waiting for slow
+ * storage overlaps with the work of the producer, which is only blocked, when the queue is full. It is the counterpart
+ * of {@link ReadAheadInputStream}. An I/O error of the underlying stream is reported by the next write, or at the
+ * latest by {@link #close()}. The stream has to be closed to write the last chunk and to stop the thread.
+ * </p>
+ */
+public class WriteBehindOutputStream extends OutputStream {
+
+    /**
+     * Marker for the end of the stream in the queue.
+     */
+    private static final byte[] END = new byte[0];
+
+    /**
+     * Time between two checks, whether the writing thread has stopped, while the queue is full.
+     */
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    /**
+     * Underlying stream.
+     */
+    private final OutputStream out;
+
+    /**
+     * Size of the chunks written to the underlying stream.
+     */
+    private final int chunkSize;
+
+    /**
+     * Chunks, that wait to be written, followed by {@link #END} after the last one.
+     */
+    private final BlockingQueue<byte[]> chunks;
+
+    /**
+     * Signals that the thread does not write anymore.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Error of the underlying stream. Chunks after the error are discarded.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Chunk, that is currently filled.
+     */
+    private byte[] chunk;
+
+    /**
+     * Number of bytes in {@link #chunk}.
+     */
+    private int count = 0;
+
+    /**
+     * Whether the stream has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new write-behind stream, whose underlying stream is written by a task of an executor.
+     *
+     * @param out       underlying stream.
+     * @param chunkSize size of the chunks written to the underlying stream.
+     * @param numChunks maximum number of chunks, that wait to be written.
+     * @param executor  executor, that runs the writing task.
+     */
+    public WriteBehindOutputStream(OutputStream out, int chunkSize, int numChunks, Executor executor) {
+        this.out = out;
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayBlockingQueue<>(numChunks);
+        this.chunk = new byte[chunkSize];
+        executor.execute(this::writeBehind);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.count == this.chunk.length) {
+            this.handOver();
+        }
+
+        this.chunk[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+
+        while (len > 0) {
+            if (this.count == this.chunk.length) {
+                this.handOver();
+            }
+
+            int n = Math.min(len, this.chunk.length - this.count);
+            System.arraycopy(b, off, this.chunk, this.count, n);
+            this.count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Hands the buffered bytes to the writing thread, without waiting until they are written.
+     *
+     * @throws IOException if the underlying stream failed, or the current thread got interrupted.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.count > 0) {
+            this.handOver();
+        }
+    }
+
+    /**
+     * Writes the remaining bytes, waits until the thread has written everything and closes the underlying stream.
+     *
+     * @throws IOException if the underlying stream failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        try {
+            try {
+                this.flush();
+            } finally {
+                // The thread has to stop in any case.
+                this.enqueue(END);
+                this.stopped.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write-behind thread.");
+        } finally {
+            this.out.close();
+        }
+
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * Hands the current chunk to the writing thread and starts a new one.
+     *
+     * @throws IOException if the underlying stream failed, or the current thread got interrupted.
+     */
+    private void handOver() throws IOException {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+
+        try {
+            this.enqueue(this.count == this.chunk.length ? this.chunk : Arrays.copyOf(this.chunk, this.count));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write-behind thread.");
+        }
+        this.chunk = new byte[this.chunkSize];
+        this.count = 0;
+    }
+
+    /**
+     * Puts a chunk into the queue, unless the writing thread has stopped.
+     *
+     * @param chunk chunk to be written.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    private void enqueue(byte[] chunk) throws InterruptedException {
+        while (!this.chunks.offer(chunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (this.stopped.getCount() == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the chunks of the queue to the underlying stream, until {@link #END} is taken.
+     */
+    private void writeBehind() {
+        try {
+            for (byte[] next; (next = this.chunks.take()) != END; ) {
+                if (this.failure == null) {
+                    try {
+                        this.out.write(next);
+                    } catch (IOException | RuntimeException e) {
+                        this.failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                    }
+                }
+            }
+
+            if (this.failure == null) {
+                this.out.flush();
+            }
+        } catch (InterruptedException e) {
+            this.failure = new InterruptedIOException("Write-behind thread has been interrupted.");
+        } catch (IOException e) {
+            this.failure = e;
+        } finally {
+            this.stopped.countDown();
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package propra.imageconverter.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import propra.imageconverter.WorkMode;
+import propra.imageconverter.converter.ConversionRequest;
+import propra.imageconverter.converter.Converter;
+import propra.imageconverter.exceptions.InvalidEncodingException;
+import propra.imageconverter.exceptions.InvalidImageException;
+import propra.imageconverter.handler.ArgumentHandler;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running conversion server, that accepts jobs over HTTP on the loopback interface.
+ * Keeping the JVM alive between jobs saves the startup and JIT warm-up time for every single image.
+ * <p>
+ * A job is posted to <code>/convert</code>. The request body contains the same arguments as the commandline,
+ * one argument per line, e.g. <code>--input=in.tga</code>, <code>--output=out.propra</code>
+ * and <code>--compression=rle</code>. The response contains a short summary of the result.
+ * <code>/status</code> reports the number of running, queued, completed and failed jobs and the memory they use,
+ * and a POST to <code>/shutdown</code> drains the server.
+ * </p>
+ * <p>
+ * At most <code>threads</code> jobs are converted at the same time and at most <code>queueDepth</code> jobs wait
+ * for a free worker. Jobs exceeding that limit are rejected with status 503. Admitted jobs are started by a
+ * {@link MemoryScheduler}, so that the images converted at the same time fit into its memory budget.
+ * A queued job does not occupy a thread, its exchange is answered, when the job is finished.
+ * </p>
+ */
+public class ConversionServer {
+
+    /**
+     * Time to wait for running jobs when draining the server.
+     */
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Converter shared by all jobs.
+     */
+    private final Converter converter;
+
+    /**
+     * Number of jobs converted at the same time.
+     */
+    private final int threads;
+
+    /**
+     * HTTP server listening on the loopback interface.
+     */
+    private final HttpServer httpServer;
+
+    /**
+     * Schedules the jobs on the workers within the memory budget.
+     */
+    private final MemoryScheduler scheduler;
+
+    /**
+     * Limits the number of jobs, that are running or waiting for a worker.
+     */
+    private final Semaphore admission;
+
+    /**
+     * Number of permits of {@link #admission}.
+     */
+    private final int maxJobs;
+
+    /**
+     * Signals that the server has been stopped.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Identifies whether the server is draining and does not accept new jobs.
+     */
+    private volatile boolean draining = false;
+
+    /**
+     * Number of jobs finished successfully.
+     */
+    private final AtomicLong completedJobs = new AtomicLong();
+
+    /**
+     * Number of jobs finished with an error.
+     */
+    private final AtomicLong failedJobs = new AtomicLong();
+
+    /**
+     * Number of jobs rejected, because the queue was full or the server was draining.
+     */
+    private final AtomicLong rejectedJobs = new AtomicLong();
+
+    /**
+     * Constructs a conversion server bound to the given port on the loopback interface.
+     *
+     * @param converter  converter shared by all jobs.
+     * @param port       port to listen on.
+     * @param threads    number of jobs converted at the same time.
+     * @param queueDepth number of jobs, that may wait for a free worker.
+     * @throws IOException if the server cannot be bound to the port.
+     */
+    public ConversionServer(Converter converter, int port, int threads, int queueDepth) throws IOException {
+        this(converter, port, threads, queueDepth, MemoryScheduler.getDefaultBudget(), SchedulingPolicy.Interleave);
+    }
+
+    /**
+     * Constructs a conversion server bound to the given port on the loopback interface, whose jobs are limited by a
+     * memory budget.
+     *
+     * @param converter  converter shared by all jobs.
+     * @param port       port to listen on.
+     * @param threads    number of jobs converted at the same time.
+     * @param queueDepth number of jobs, that may wait for a free worker.
+     * @param budget     memory budget of all jobs in bytes.
+     * @param policy     order, in which waiting jobs are started.
+     * @throws IOException if the server cannot be bound to the port.
+     */
+    public ConversionServer(Converter converter, int port, int threads, int queueDepth, long budget,
+                            SchedulingPolicy policy) throws IOException {
+        this.converter = converter;
+        this.threads = threads;
+        this.maxJobs = threads + queueDepth;
+        this.admission = new Semaphore(this.maxJobs);
+        this.scheduler = new MemoryScheduler(budget, threads, policy);
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // Exchanges only do blocking I/O: reading the job, the header of its image and sending the response.
+        this.httpServer.setExecutor(Executors.newCachedThreadPool());
+        this.httpServer.createContext("/convert", this::handleConvert);
+        this.httpServer.createContext("/status", this::handleStatus);
+        this.httpServer.createContext("/shutdown", this::handleShutdown);
+    }
+
+    /**
+     * Returns the port, the server listens on.
+     *
+     * @return port.
+     */
+    public int getPort() {
+        return this.httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Starts accepting jobs.
+     */
+    public void start() {
+        this.httpServer.start();
+    }
+
+    /**
+     * Blocks until the server has been stopped.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public void awaitStop() throws InterruptedException {
+        this.stopped.await();
+    }
+
+    /**
+     * Stops accepting new jobs, waits until all admitted jobs are finished and stops the server afterwards.
+     * Calling this method more than once has no further effect.
+     */
+    public synchronized void drain() {
+        if (this.stopped.getCount() == 0) {
+            return;
+        }
+        this.draining = true;
+
+        try {
+            // All permits are available again, once every admitted job is finished.
+            if (this.admission.tryAcquire(this.maxJobs, DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                this.admission.release(this.maxJobs);
+            }
+            this.scheduler.drain(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.httpServer.stop(1);
+        ((ExecutorService) this.httpServer.getExecutor()).shutdown();
+        this.stopped.countDown();
+    }
+
+    /**
+     * Handles a job posted to <code>/convert</code>.
+     *
+     * @param exchange HTTP exchange.
+     * @throws IOException if an I/O error occurs while responding.
+     */
+    private void handleConvert(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Only POST is supported.");
+            return;
+        }
+
+        String[] args = readBody(exchange).trim().split("\\r?\\n");
+
+        if (this.draining || !this.admission.tryAcquire()) {
+            this.rejectedJobs.incrementAndGet();
+            respond(exchange, 503, this.draining ? "Server is shutting down." : "Too many jobs queued.");
+            return;
+        }
+
+        ConversionRequest request;
+        try {
+            request = parseJob(args);
+        } catch (Exception e) {
+            this.failedJobs.incrementAndGet();
+            this.finishJob(exchange, getStatusCode(e), e.getMessage());
+            return;
+        }
+
+        // The exchange is answered by the job, so no thread waits for a queued job.
+        long memory = MemoryScheduler.estimateMemory(this.converter, request);
+        try {
+            this.scheduler.submit(memory, Executors.callable(() -> this.runJob(exchange, request)));
+        } catch (RejectedExecutionException e) {
+            this.failedJobs.incrementAndGet();
+            this.finishJob(exchange, 503, "Server is shutting down.");
+        }
+    }
+
+    /**
+     * Executes a job on a worker. The response is sent by a thread of the HTTP server, so the worker is free for the
+     * next job, while the client receives it.
+     *
+     * @param exchange HTTP exchange of the job.
+     * @param request  request of the job.
+     */
+    private void runJob(HttpExchange exchange, ConversionRequest request) {
+        int statusCode;
+        String message;
+
+        try {
+            message = this.converter.execute(request).toString();
+            statusCode = 200;
+            this.completedJobs.incrementAndGet();
+        } catch (Exception e) {
+            // The message of a missing file is only its path.
+            message = e instanceof NoSuchFileException ? "No such file: " + e.getMessage() : e.getMessage();
+            statusCode = getStatusCode(e);
+            this.failedJobs.incrementAndGet();
+        }
+
+        int finalStatusCode = statusCode;
+        String finalMessage = message;
+        this.httpServer.getExecutor().execute(() -> {
+            try {
+                this.finishJob(exchange, finalStatusCode, finalMessage);
+            } catch (IOException e) {
+                // The client has gone away, there is no one left to tell.
+            }
+        });
+    }
+
+    /**
+     * Sends the response of an admitted job and releases its admission.
+     *
+     * @param exchange   HTTP exchange of the job.
+     * @param statusCode HTTP status code.
+     * @param message    response body.
+     * @throws IOException if an I/O error occurs while responding.
+     */
+    private void finishJob(HttpExchange exchange, int statusCode, String message) throws IOException {
+        try {
+            respond(exchange, statusCode, message);
+        } finally {
+            this.admission.release();
+        }
+    }
+
+    /**
+     * Parses the arguments of a job. The memory of the job is estimated from the request, before it is scheduled.
+     * Long-running modes are rejected, and as the standard streams belong to the server, a job has to read from and
+     * write to files.
+     *
+     * @param args commandline arguments of the job.
+     * @return request of the job.
+     * @throws Exception if the arguments are invalid.
+     */
+    private static ConversionRequest parseJob(String[] args) throws Exception {
+        ArgumentHandler argHandler = new ArgumentHandler(args);
+        if (argHandler.getWorkMode() == WorkMode.Server) {
+            throw new propra.imageconverter.exceptions.IllegalArgumentException("Cannot start a server from a job.");
+        } else if (argHandler.getWatchDir() != null || argHandler.getQueueDir() != null) {
+            throw new propra.imageconverter.exceptions.IllegalArgumentException(
+                    "Cannot watch a directory or process a queue from a job.");
+        } else if (argHandler.isStdIn() || argHandler.isStdOut()) {
+            throw new propra.imageconverter.exceptions.IllegalArgumentException(
+                    "Jobs cannot read from stdin or write to stdout.");
+        }
+
+        return argHandler.createRequest();
+    }
+
+    /**
+     * Handles a request to <code>/status</code>.
+     *
+     * @param exchange HTTP exchange.
+     * @throws IOException if an I/O error occurs while responding.
+     */
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        long running = this.scheduler.getRunningJobs();
+        long admitted = this.maxJobs - this.admission.availablePermits();
+        String status = String.format("threads=%d\nrunning=%d\nqueued=%d\ncompleted=%d\nfailed=%d\nrejected=%d\ndraining=%b\n",
+                this.threads, running, Math.max(0, admitted - running), this.completedJobs.get(),
+                this.failedJobs.get(), this.rejectedJobs.get(), this.draining) + this.scheduler.getStatus();
+
+        respond(exchange, 200, status);
+    }
+
+    /**
+     * Handles a request to <code>/shutdown</code>. The server is drained in the background.
+     *
+     * @param exchange HTTP exchange.
+     * @throws IOException if an I/O error occurs while responding.
+     */
+    private void handleShutdown(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Only POST is supported.");
+            return;
+        }
+
+        respond(exchange, 202, "Draining server.");
+        new Thread(this::drain, "conversion-server-drain").start();
+    }
+
+    /**
+     * Maps the error of a failed job to a HTTP status code. Errors caused by the arguments of the client, like a
+     * missing input file, are reported as client errors, all other errors as an internal error of the server.
+     *
+     * @param cause error of the job.
+     * @return status code.
+     */
+    private static int getStatusCode(Throwable cause) {
+        if (cause instanceof propra.imageconverter.exceptions.IllegalArgumentException
+                || cause instanceof IllegalArgumentException || cause instanceof NotDirectoryException) {
+            return 400;
+        } else if (cause instanceof AccessDeniedException) {
+            return 403;
+        } else if (cause instanceof NoSuchFileException || cause instanceof FileNotFoundException) {
+            return 404;
+        } else if (cause instanceof InvalidImageException || cause instanceof InvalidEncodingException) {
+            return 422;
+        }
+
+        return 500;
+    }
+
+    /**
+     * Reads the request body.
+     *
+     * @param exchange HTTP exchange.
+     * @return request body as String.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Sends a plain text response and closes the exchange.
+     *
+     * @param exchange   HTTP exchange.
+     * @param statusCode HTTP status code.
+     * @param message    response body.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void respond(HttpExchange exchange, int statusCode, String message) throws IOException {
+        byte[] body = (message == null ? "" : message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,586 @@
+package propra.imageconverter.server;
+
+import propra.imageconverter.converter.ConversionRequest;
+import propra.imageconverter.converter.Converter;
+import propra.imageconverter.exceptions.InvalidImageException;
+import propra.imageconverter.image.ImageFormat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Long-running ingestion of images, that are dropped into a directory.
+ * <p>
+ * The directory is watched by a {@link WatchService}. A new file is converted, once it is complete: a file, that has
+ * been renamed or moved into the directory, is complete as soon as it appears, a file, that is written in the
+ * directory, is complete when its size has been stable for a while. Hidden files and files ending with
+ * <code>.part</code> or <code>.tmp</code> are ignored, so writers can rename their files in when they are finished.
+ * </p>
+ * <p>
+ * Complete files are converted on <code>threads</code> workers with the settings of a template request. A
+ * {@link MemoryScheduler} only starts as many conversions, as fit into its memory budget, and chooses the order of the
+ * waiting files. The output is named after the whole name of the input, like <code>image.tga.propra</code>. It is
+ * written next to its final name in the output directory and renamed, when it is complete. The input is moved into the
+ * subdirectory <code>processed</code> of the watched directory afterwards. A file, that cannot be converted, is moved
+ * into the subdirectory <code>retry</code> and converted once more after a delay, as it may have been incomplete.
+ * If it still fails, it is moved into the subdirectory <code>quarantine</code>, next to a file with the error.
+ * Errors other than an {@link InvalidImageException} are retried more often.
+ * </p>
+ * <p>
+ * The latency of every file, from its arrival in the directory until its output is complete, is measured.
+ * {@link #getStatus()} reports it together with the number of converted, retried and quarantined files.
+ * </p>
+ */
+public class FolderWatcher {
+
+    /**
+     * Name of the subdirectory, inputs are moved into after their conversion.
+     */
+    public static final String PROCESSED_DIR = "processed";
+
+    /**
+     * Name of the subdirectory, inputs wait in before they are converted once more.
+     */
+    public static final String RETRY_DIR = "retry";
+
+    /**
+     * Name of the subdirectory, inputs are moved into, that cannot be converted.
+     */
+    public static final String QUARANTINE_DIR = "quarantine";
+
+    /**
+     * Time between two checks of the pending files.
+     */
+    private static final long POLL_INTERVAL_MILLIS = 250;
+
+    /**
+     * Time without change, after which a file, that has been renamed into the directory, is complete.
+     */
+    private static final long RENAME_SETTLE_MILLIS = 500;
+
+    /**
+     * Time without change, after which a file, that has been written in the directory, is complete.
+     */
+    private static final long STABLE_MILLIS = 2000;
+
+    /**
+     * Time a file waits in the retry directory before it is converted once more.
+     */
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    /**
+     * Number of attempts for an invalid image. The first failure may be caused by an incomplete file.
+     */
+    private static final int MAX_INVALID_ATTEMPTS = 2;
+
+    /**
+     * Number of attempts for any other error, like an I/O error.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Time to wait for running conversions when draining the watcher.
+     */
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Converter shared by all conversions.
+     */
+    private final Converter converter;
+
+    /**
+     * Request, whose settings are used for every conversion. Its input and output are replaced.
+     */
+    private final ConversionRequest template;
+
+    /**
+     * Format of the output images.
+     */
+    private final ImageFormat outFormat;
+
+    /**
+     * Directory, that is watched.
+     */
+    private final Path watchDir;
+
+    /**
+     * Directory, the converted images are written to.
+     */
+    private final Path outDir;
+
+    /**
+     * Directory, converted inputs are moved into.
+     */
+    private final Path processedDir;
+
+    /**
+     * Directory, failed inputs wait in for their next attempt.
+     */
+    private final Path retryDir;
+
+    /**
+     * Directory, inputs are moved into, that cannot be converted.
+     */
+    private final Path quarantineDir;
+
+    /**
+     * Service, that reports new and modified files of the watched directory.
+     */
+    private final WatchService watchService;
+
+    /**
+     * Schedules the conversions on the workers within the memory budget.
+     */
+    private final MemoryScheduler scheduler;
+
+    /**
+     * Thread, that watches the directory.
+     */
+    private final Thread watchThread;
+
+    /**
+     * Files, that are not complete yet or wait for their next attempt. Only used by the watch thread.
+     */
+    private final Map<Path, PendingFile> pending = new HashMap<>();
+
+    /**
+     * Failed files handed back from the workers to the watch thread for their next attempt.
+     */
+    private final Queue<PendingFile> retries = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Files, that have been handed to a worker, and are not moved out of the watched directory yet.
+     */
+    private final Set<Path> submitted = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Signals that the watcher has been stopped.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Identifies whether the watcher is draining and does not pick up new files.
+     */
+    private volatile boolean draining = false;
+
+    /**
+     * Number of files converted successfully.
+     */
+    private final AtomicLong convertedFiles = new AtomicLong();
+
+    /**
+     * Number of failed conversions, that have been retried.
+     */
+    private final AtomicLong retriedFiles = new AtomicLong();
+
+    /**
+     * Number of files moved into quarantine.
+     */
+    private final AtomicLong quarantinedFiles = new AtomicLong();
+
+    /**
+     * Sum of the latencies of all converted files in nanoseconds.
+     */
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    /**
+     * Maximum latency of a converted file in nanoseconds.
+     */
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * Constructs a watcher for a directory. The subdirectories for processed, retried and quarantined files are
+     * created, if necessary.
+     *
+     * @param converter converter shared by all conversions.
+     * @param template  request, whose work mode, output format and compression settings are used for every file.
+     * @param watchDir  directory to be watched.
+     * @param outDir    directory the converted images are written to.
+     * @param threads   number of files converted at the same time.
+     * @throws IOException if the directories cannot be created or watched.
+     */
+    public FolderWatcher(Converter converter, ConversionRequest template, Path watchDir, Path outDir, int threads)
+            throws IOException {
+        this(converter, template, watchDir, outDir, threads, MemoryScheduler.getDefaultBudget(),
+                SchedulingPolicy.Interleave);
+    }
+
+    /**
+     * Constructs a watcher for a directory, whose conversions are limited by a memory budget. The subdirectories for
+     * processed, retried and quarantined files are created, if necessary.
+     *
+     * @param converter converter shared by all conversions.
+     * @param template  request, whose work mode, output format and compression settings are used for every file.
+     * @param watchDir  directory to be watched.
+     * @param outDir    directory the converted images are written to.
+     * @param threads   number of files converted at the same time.
+     * @param budget    memory budget of all conversions in bytes.
+     * @param policy    order, in which complete files are converted.
+     * @throws IOException if the directories cannot be created or watched.
+     */
+    public FolderWatcher(Converter converter, ConversionRequest template, Path watchDir, Path outDir, int threads,
+                         long budget, SchedulingPolicy policy) throws IOException {
+        this.converter = converter;
+        this.template = template;
+        this.outFormat = template.getOutFormat();
+        this.watchDir = watchDir;
+        this.outDir = outDir;
+        this.processedDir = watchDir.resolve(PROCESSED_DIR);
+        this.retryDir = watchDir.resolve(RETRY_DIR);
+        this.quarantineDir = watchDir.resolve(QUARANTINE_DIR);
+
+        if (this.outFormat == null) {
+            throw new IllegalArgumentException("Format of the output images is unknown.");
+        } else if (Files.exists(outDir) && Files.isSameFile(watchDir, outDir)) {
+            throw new IllegalArgumentException("Converted images cannot be written into the watched directory.");
+        }
+        Files.createDirectories(outDir);
+        Files.createDirectories(this.processedDir);
+        Files.createDirectories(this.retryDir);
+        Files.createDirectories(this.quarantineDir);
+
+        this.watchService = watchDir.getFileSystem().newWatchService();
+        watchDir.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.scheduler = new MemoryScheduler(budget, threads, policy);
+        this.watchThread = new Thread(this::watch, "folder-watcher");
+    }
+
+    /**
+     * Starts watching. Files, that are already in the directory, are picked up like files, that have been renamed in.
+     * Files left in the retry directory get their next attempt.
+     *
+     * @throws IOException if the directories cannot be listed.
+     */
+    public void start() throws IOException {
+        long now = System.nanoTime();
+        this.scan(now);
+
+        try (Stream<Path> files = Files.list(this.retryDir)) {
+            files.filter(Files::isRegularFile).forEach(file -> this.pending.put(file, new PendingFile(file, now, 1)));
+        }
+
+        this.watchThread.start();
+    }
+
+    /**
+     * Blocks until the watcher has been stopped.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public void awaitStop() throws InterruptedException {
+        this.stopped.await();
+    }
+
+    /**
+     * Stops picking up new files, waits until all files handed to the scheduler are converted and stops the watcher
+     * afterwards.
+     * Files, that are still pending or wait for their next attempt, stay in their directory and are picked up by the
+     * next start.
+     * Calling this method more than once has no further effect.
+     */
+    public synchronized void drain() {
+        if (this.stopped.getCount() == 0) {
+            return;
+        }
+        this.draining = true;
+
+        try {
+            this.watchThread.join();
+            this.scheduler.drain(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            this.watchService.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The watch service is not used anymore.
+        }
+
+        this.stopped.countDown();
+    }
+
+    /**
+     * Returns the number of converted, retried and quarantined files, the latency of the converted files and the
+     * memory used by the conversions.
+     *
+     * @return status, one value per line.
+     */
+    public String getStatus() {
+        long converted = this.convertedFiles.get();
+        long meanLatency = converted > 0 ? this.totalLatency.get() / converted : 0;
+
+        return String.format("converted=%d\nretried=%d\nquarantined=%d\nmean-latency-ms=%d\nmax-latency-ms=%d\n",
+                converted, this.retriedFiles.get(), this.quarantinedFiles.get(),
+                TimeUnit.NANOSECONDS.toMillis(meanLatency), TimeUnit.NANOSECONDS.toMillis(this.maxLatency.get()))
+                + this.scheduler.getStatus();
+    }
+
+    /**
+     * Watches the directory and hands complete files to the workers, until the watcher is drained.
+     */
+    private void watch() {
+        while (!this.draining) {
+            try {
+                WatchKey key = this.watchService.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                long now = System.nanoTime();
+
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            this.scan(now);
+                        } else {
+                            this.observe(this.watchDir.resolve((Path) event.context()), event.kind(), now);
+                        }
+                    }
+                    key.reset();
+                }
+
+                for (PendingFile retry; (retry = this.retries.poll()) != null; ) {
+                    this.pending.put(retry.path, retry);
+                }
+                this.submitComplete(now);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error while watching " + this.watchDir + ":\n" + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Adds all files of the watched directory as pending, like files, that have been renamed in.
+     *
+     * @param now current time of {@link System#nanoTime()}.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private void scan(long now) throws IOException {
+        try (Stream<Path> files = Files.list(this.watchDir)) {
+            files.forEach(file -> this.observe(file, StandardWatchEventKinds.ENTRY_CREATE, now));
+        }
+    }
+
+    /**
+     * Records an event of a file in the watched directory.
+     *
+     * @param file file of the event.
+     * @param kind kind of the event.
+     * @param now  time of the event.
+     */
+    private void observe(Path file, WatchEvent.Kind<?> kind, long now) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".") || name.endsWith(".part") || name.endsWith(".tmp")
+                || this.submitted.contains(file) || !Files.isRegularFile(file)) {
+            return;
+        }
+
+        PendingFile pendingFile = this.pending.computeIfAbsent(file, path -> new PendingFile(path, now, 0));
+        pendingFile.lastChange = now;
+        if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+            pendingFile.written = true;
+        }
+    }
+
+    /**
+     * Hands all pending files, that are complete and due, to the scheduler, together with the memory their conversion
+     * needs.
+     *
+     * @param now current time of {@link System#nanoTime()}.
+     */
+    private void submitComplete(long now) {
+        List<PendingFile> complete = new ArrayList<>();
+
+        for (Iterator<PendingFile> it = this.pending.values().iterator(); it.hasNext(); ) {
+            PendingFile pendingFile = it.next();
+            if (now - pendingFile.notBefore < 0) {
+                continue;
+            }
+
+            long size;
+            try {
+                size = Files.size(pendingFile.path);
+            } catch (IOException e) {
+                // The file has been removed.
+                it.remove();
+                continue;
+            }
+
+            if (size != pendingFile.size) {
+                pendingFile.size = size;
+                pendingFile.lastChange = now;
+            }
+
+            long quietTime = pendingFile.written ? STABLE_MILLIS : RENAME_SETTLE_MILLIS;
+            if (now - pendingFile.lastChange >= TimeUnit.MILLISECONDS.toNanos(quietTime)) {
+                it.remove();
+                complete.add(pendingFile);
+            }
+        }
+
+        for (PendingFile pendingFile : complete) {
+            this.submitted.add(pendingFile.path);
+            ConversionRequest request = new ConversionRequest(this.template);
+            request.setInPath(pendingFile.path);
+            long memory = MemoryScheduler.estimateMemory(this.converter, request);
+            this.scheduler.submit(memory, Executors.callable(() -> this.convert(pendingFile, request)));
+        }
+    }
+
+    /**
+     * Converts a complete file and moves it out of the watched directory.
+     *
+     * @param pendingFile file to be converted.
+     * @param request     request, whose input is the file.
+     */
+    private void convert(PendingFile pendingFile, ConversionRequest request) {
+        Path file = pendingFile.path;
+        String name = file.getFileName().toString();
+        Path outFile = this.outDir.resolve(getOutName(name, this.outFormat));
+        Path partFile = this.outDir.resolve("." + outFile.getFileName() + ".part");
+
+        try {
+            request.setOutPath(partFile);
+            this.converter.convert(request);
+            Files.move(partFile, outFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            long latency = System.nanoTime() - pendingFile.arrival;
+            this.convertedFiles.incrementAndGet();
+            this.totalLatency.addAndGet(latency);
+            this.maxLatency.accumulateAndGet(latency, Math::max);
+            System.out.println(String.format("Converted %s -> %s, latency %d ms", file, outFile,
+                    TimeUnit.NANOSECONDS.toMillis(latency)));
+
+            this.moveOut(pendingFile, this.processedDir.resolve(name));
+        } catch (Exception e) {
+            this.fail(pendingFile, partFile, e);
+        }
+    }
+
+    /**
+     * Handles a failed conversion. The file is moved into the retry directory, or into quarantine, if it has no
+     * attempts left.
+     *
+     * @param pendingFile file, whose conversion failed.
+     * @param partFile    incomplete output of the conversion.
+     * @param error       error of the conversion.
+     */
+    private void fail(PendingFile pendingFile, Path partFile, Exception error) {
+        String name = pendingFile.path.getFileName().toString();
+        int attempts = pendingFile.attempts + 1;
+        int maxAttempts = error instanceof InvalidImageException ? MAX_INVALID_ATTEMPTS : MAX_ATTEMPTS;
+
+        try {
+            Files.deleteIfExists(partFile);
+
+            if (attempts < maxAttempts) {
+                Path retryFile = this.retryDir.resolve(name);
+                this.moveOut(pendingFile, retryFile);
+                PendingFile retry = new PendingFile(retryFile, pendingFile.arrival, attempts);
+                retry.notBefore = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MILLIS);
+                this.retriedFiles.incrementAndGet();
+                this.retries.add(retry);
+                System.err.println(String.format("Conversion of %s failed, retrying later:\n%s", name, error));
+            } else {
+                this.moveOut(pendingFile, this.quarantineDir.resolve(name));
+                Files.write(this.quarantineDir.resolve(name + ".error"),
+                        (error.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+                this.quarantinedFiles.incrementAndGet();
+                System.err.println(String.format("Conversion of %s failed, moved into quarantine:\n%s", name, error));
+            }
+        } catch (IOException e) {
+            System.err.println(String.format("Cannot move %s after its failed conversion:\n%s", name, e));
+        }
+    }
+
+    /**
+     * Moves a file out of the watched or retry directory.
+     *
+     * @param pendingFile file to be moved.
+     * @param target      new path of the file.
+     * @throws IOException if the file cannot be moved.
+     */
+    private void moveOut(PendingFile pendingFile, Path target) throws IOException {
+        try {
+            Files.move(pendingFile.path, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            this.submitted.remove(pendingFile.path);
+        }
+    }
+
+    /**
+     * Returns the name of the output image: the whole name of the input, followed by the extension of the output
+     * format, like <code>image.tga.propra</code>. The extensions of the input are kept, so inputs, that only differ
+     * in their extensions, like <code>image.tga</code> and <code>image.propra</code>, get different outputs.
+     *
+     * @param name      name of the input file.
+     * @param outFormat format of the output image.
+     * @return name of the output file.
+     */
+    static String getOutName(String name, ImageFormat outFormat) {
+        return name + "." + outFormat.getExtension();
+    }
+
+    /**
+     * File in the watched or retry directory, that waits for its conversion.
+     */
+    private static class PendingFile {
+
+        /**
+         * Path of the file.
+         */
+        private final Path path;
+
+        /**
+         * Time of {@link System#nanoTime()}, when the file has been seen first.
+         */
+        private final long arrival;
+
+        /**
+         * Number of failed attempts to convert the file.
+         */
+        private final int attempts;
+
+        /**
+         * Size of the file, when it has been checked last.
+         */
+        private long size = -1;
+
+        /**
+         * Time of the last event or change of size.
+         */
+        private long lastChange;
+
+        /**
+         * Time, before which the file is not converted.
+         */
+        private long notBefore;
+
+        /**
+         * Whether the file has been modified in the directory, rather than renamed in.
+         */
+        private boolean written = false;
+
+        /**
+         * Constructs a pending file.
+         *
+         * @param path     path of the file.
+         * @param arrival  time of {@link System#nanoTime()}, when the file has been seen first.
+         * @param attempts number of failed attempts to convert the file.
+         */
+        PendingFile(Path path, long arrival, int attempts) {
+            this.path = path;
+            this.arrival = arrival;
+            this.attempts = attempts;
+            this.lastChange = arrival;
+            this.notBefore = arrival;
+        }
+    }
+}
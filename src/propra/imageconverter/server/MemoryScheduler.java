@@ -0,0 +1,319 @@
+package propra.imageconverter.server;
+
+import propra.imageconverter.converter.ConversionRequest;
+import propra.imageconverter.converter.Converter;
+import propra.imageconverter.exceptions.InvalidImageException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs conversions on a fixed number of workers, but only as many at the same time, as fit into a memory budget.
+ * <p>
+ * Every job is submitted with the memory it needs, which {@link Converter#estimateMemory(ConversionRequest)} derives
+ * from the header of the image. A job waits, until the memory of all running jobs and its own memory fit into the
+ * budget. A job, that needs more than the whole budget, runs alone. So several huge images, that arrive at the same
+ * time, are converted one after the other, instead of running out of memory together.
+ * </p>
+ * <p>
+ * Among the waiting jobs, that fit, the {@link SchedulingPolicy} chooses the next one. A job is large, if it needs more
+ * than its share of the budget, i.e. the budget divided by the number of workers. The conversion of a single image
+ * runs on one thread, so a large image cannot be split up. Instead, large images are converted one at a time, and
+ * the remaining workers convert small images next to it. A job, that has waited for {@link #MAX_WAIT_MILLIS}, is
+ * started next, as soon as it fits, so a large image does not wait forever behind small ones.
+ * </p>
+ */
+public class MemoryScheduler {
+
+    /**
+     * Time, after which a waiting job is started before all other jobs.
+     */
+    public static final long MAX_WAIT_MILLIS = 30000;
+
+    /**
+     * Memory budget of all jobs.
+     */
+    private final long budget;
+
+    /**
+     * Number of jobs running at the same time.
+     */
+    private final int threads;
+
+    /**
+     * Order, in which waiting jobs are started.
+     */
+    private final SchedulingPolicy policy;
+
+    /**
+     * Workers doing the actual conversions. Jobs are only handed over, when a worker is free.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Jobs waiting for memory or a free worker, in the order of their submission.
+     */
+    private final List<Job<?>> waiting = new ArrayList<>();
+
+    /**
+     * Memory of the running jobs.
+     */
+    private long usedMemory = 0;
+
+    /**
+     * Maximum of {@link #usedMemory} so far.
+     */
+    private long peakMemory = 0;
+
+    /**
+     * Number of running jobs.
+     */
+    private int runningJobs = 0;
+
+    /**
+     * Number of running large jobs.
+     */
+    private int runningLargeJobs = 0;
+
+    /**
+     * Whether the scheduler has been shut down and does not accept new jobs.
+     */
+    private boolean shutdown = false;
+
+    /**
+     * Constructs a scheduler.
+     *
+     * @param budget  memory budget of all jobs in bytes.
+     * @param threads number of jobs running at the same time.
+     * @param policy  order, in which waiting jobs are started.
+     */
+    public MemoryScheduler(long budget, int threads, SchedulingPolicy policy) {
+        this.budget = budget;
+        this.threads = threads;
+        this.policy = policy;
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Returns the default memory budget: three quarters of the maximum heap, the rest is left for everything else.
+     *
+     * @return budget in bytes.
+     */
+    public static long getDefaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 4 * 3;
+    }
+
+    /**
+     * Estimates the memory of a request. If it cannot be estimated, e.g. because the image is invalid,
+     * the fixed memory of every operation is returned, as the conversion reports the error itself.
+     *
+     * @param converter converter, that executes the request.
+     * @param request   request to be estimated.
+     * @return estimated number of bytes.
+     */
+    public static long estimateMemory(Converter converter, ConversionRequest request) {
+        try {
+            return converter.estimateMemory(request);
+        } catch (IOException | InvalidImageException | RuntimeException e) {
+            return Converter.FIXED_MEMORY_ESTIMATE;
+        }
+    }
+
+    /**
+     * Submits a job, that is started as soon as a worker is free, its memory fits into the budget and the policy
+     * chooses it.
+     *
+     * @param memory memory the job needs in bytes.
+     * @param task   job to be run.
+     * @param <T>    type of the result of the job.
+     * @return future of the result of the job.
+     * @throws RejectedExecutionException if the scheduler has been shut down.
+     */
+    public synchronized <T> Future<T> submit(long memory, Callable<T> task) {
+        if (this.shutdown) {
+            throw new RejectedExecutionException("Scheduler has been shut down.");
+        }
+
+        // A job larger than the budget gets the whole budget, so it runs alone.
+        long granted = Math.min(memory, this.budget);
+        Job<T> job = new Job<>(task, granted, granted > this.budget / this.threads, System.nanoTime());
+        this.waiting.add(job);
+        this.dispatch();
+
+        return job.future;
+    }
+
+    /**
+     * Stops accepting new jobs, waits until all submitted jobs are finished and stops the workers afterwards.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit    unit of the timeout.
+     * @return true, if all jobs are finished, false, if the timeout elapsed before.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public synchronized boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        this.shutdown = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (!this.waiting.isEmpty() || this.runningJobs > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        this.workers.shutdown();
+
+        return this.waiting.isEmpty() && this.runningJobs == 0;
+    }
+
+    /**
+     * Returns the number of running jobs.
+     *
+     * @return running jobs.
+     */
+    public synchronized int getRunningJobs() {
+        return runningJobs;
+    }
+
+    /**
+     * Returns the memory budget, the memory of the running jobs, its maximum so far and the number of waiting jobs.
+     *
+     * @return status, one value per line.
+     */
+    public synchronized String getStatus() {
+        long mebibyte = 1024 * 1024;
+
+        return String.format("policy=%s\nmemory-budget-mb=%d\nmemory-used-mb=%d\nmemory-peak-mb=%d\nwaiting=%d\n",
+                this.policy, this.budget / mebibyte, this.usedMemory / mebibyte, this.peakMemory / mebibyte,
+                this.waiting.size());
+    }
+
+    /**
+     * Starts waiting jobs, as long as workers are free and the chosen job fits into the budget.
+     */
+    private void dispatch() {
+        while (this.runningJobs < this.threads && !this.waiting.isEmpty()) {
+            Job<?> job = this.choose();
+            if (job == null) {
+                return;
+            }
+
+            this.waiting.remove(job);
+            this.usedMemory += job.memory;
+            this.peakMemory = Math.max(this.peakMemory, this.usedMemory);
+            this.runningJobs++;
+            if (job.large) {
+                this.runningLargeJobs++;
+            }
+            this.workers.execute(() -> this.run(job));
+        }
+    }
+
+    /**
+     * Chooses the next job to be started.
+     *
+     * @return job, that fits into the budget, or <code>null</code>, if no job may be started now.
+     */
+    private Job<?> choose() {
+        Job<?> oldest = this.waiting.get(0);
+        if (System.nanoTime() - oldest.submitted >= TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS)) {
+            // Jobs behind the oldest one would take the memory it waits for.
+            return this.fits(oldest) ? oldest : null;
+        }
+
+        // Interleaving starts a large job, if none is running, and fills up with small jobs otherwise.
+        boolean largestFirst = this.policy == SchedulingPolicy.Interleave && this.runningLargeJobs == 0;
+        Job<?> chosen = null;
+        for (Job<?> job : this.waiting) {
+            if (this.fits(job) && (chosen == null
+                    || (largestFirst ? job.memory > chosen.memory : job.memory < chosen.memory))) {
+                chosen = job;
+            }
+        }
+
+        return chosen;
+    }
+
+    /**
+     * Checks, whether a job fits next to the running jobs into the budget.
+     *
+     * @param job job to be checked.
+     * @return true, if the job fits.
+     */
+    private boolean fits(Job<?> job) {
+        return this.usedMemory + job.memory <= this.budget;
+    }
+
+    /**
+     * Runs a job on a worker and starts the next jobs afterwards.
+     *
+     * @param job job to be run.
+     */
+    private void run(Job<?> job) {
+        try {
+            job.future.run();
+        } finally {
+            synchronized (this) {
+                this.usedMemory -= job.memory;
+                this.runningJobs--;
+                if (job.large) {
+                    this.runningLargeJobs--;
+                }
+                this.dispatch();
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Job waiting for or running on a worker.
+     *
+     * @param <T> type of the result of the job.
+     */
+    private static class Job<T> {
+
+        /**
+         * Task of the job, that also holds its result.
+         */
+        private final FutureTask<T> future;
+
+        /**
+         * Memory granted to the job.
+         */
+        private final long memory;
+
+        /**
+         * Whether the job needs more than its share of the budget.
+         */
+        private final boolean large;
+
+        /**
+         * Time of {@link System#nanoTime()}, when the job has been submitted.
+         */
+        private final long submitted;
+
+        /**
+         * Constructs a job.
+         *
+         * @param task      task of the job.
+         * @param memory    memory granted to the job.
+         * @param large     whether the job needs more than its share of the budget.
+         * @param submitted time of {@link System#nanoTime()}, when the job has been submitted.
+         */
+        Job(Callable<T> task, long memory, boolean large, long submitted) {
+            this.future = new FutureTask<>(task);
+            this.memory = memory;
+            this.large = large;
+            this.submitted = submitted;
+        }
+    }
+}
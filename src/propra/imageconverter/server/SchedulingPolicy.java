@@ -0,0 +1,18 @@
+package propra.imageconverter.server;
+
+/**
+ * Order, in which the {@link MemoryScheduler} starts the jobs, that fit into its memory budget.
+ */
+public enum SchedulingPolicy {
+    /**
+     * Keeps one large image converting, while the remaining workers and memory convert small images.
+     * Gives the best throughput for a mix of image sizes.
+     */
+    Interleave,
+
+    /**
+     * Starts the smallest image first. Gives the lowest mean latency, large images wait
+     * while smaller ones are waiting.
+     */
+    ShortestFirst;
+}
@@ -0,0 +1,538 @@
+package propra.imageconverter.server;
+
+import propra.imageconverter.converter.ConversionRequest;
+import propra.imageconverter.converter.Converter;
+import propra.imageconverter.image.ImageFormat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts the images of a queue directory, that is shared by several converter processes, possibly on several hosts.
+ * <p>
+ * Every process claims an image, before it converts it, by creating a lease file in the subdirectory
+ * <code>.leases</code> with {@link Files#createFile}, which fails, if another process has already created it. So every
+ * image is claimed by one process at a time. A process claims only as many images, as it converts at the same time,
+ * so the images are spread over all processes. While an image is converted, the process renews its lease every
+ * {@link #HEARTBEAT_INTERVAL_MILLIS}. A lease, that has not been renewed for {@link #LEASE_TIMEOUT_MILLIS}, belongs to
+ * a process, that has died, and is taken over by another process. The process moves the expired lease away
+ * atomically and checks afterwards, that it has moved the expired lease, and not a fresh lease of another process,
+ * that has taken it over in the meantime. Only in a narrow race, a process creates a new lease, while a fresh lease is
+ * moved away and back, so two processes convert the same image.
+ * </p>
+ * <p>
+ * The output is written next to its final name, under a name of its own for every process, and renamed, when it is
+ * complete. So an image is converted at least once, and an output is always complete, also if a lease has been taken
+ * over from a process, that was only slow. Afterwards the input is moved into the subdirectory <code>processed</code>.
+ * An image, that cannot be converted, is moved into the subdirectory <code>quarantine</code>, next to a file with the
+ * error. A process stops, when the queue directory is empty.
+ * </p>
+ * <p>
+ * Expired leases are detected by the modification time of the lease file, so the clocks of the hosts have to agree
+ * within a fraction of the lease timeout. Several processes on one machine can share a queue the same way.
+ * </p>
+ */
+public class SharedQueueWorker {
+
+    /**
+     * Name of the subdirectory of the queue, that contains the lease files.
+     */
+    public static final String LEASE_DIR = ".leases";
+
+    /**
+     * Time without renewal, after which a lease has expired.
+     */
+    public static final long LEASE_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Time between two renewals of the leases of a process.
+     */
+    public static final long HEARTBEAT_INTERVAL_MILLIS = 10000;
+
+    /**
+     * Extension of a lease file, that follows the name of the claimed image.
+     */
+    private static final String LEASE_EXTENSION = ".lease";
+
+    /**
+     * Time to wait, before the queue is listed again, if no image could be claimed.
+     */
+    private static final long POLL_INTERVAL_MILLIS = 500;
+
+    /**
+     * Time to wait for running conversions when stopping.
+     */
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Converter shared by all conversions.
+     */
+    private final Converter converter;
+
+    /**
+     * Request, whose settings are used for every conversion. Its input and output are replaced.
+     */
+    private final ConversionRequest template;
+
+    /**
+     * Format of the output images.
+     */
+    private final ImageFormat outFormat;
+
+    /**
+     * Shared queue directory.
+     */
+    private final Path queueDir;
+
+    /**
+     * Directory, the converted images are written to.
+     */
+    private final Path outDir;
+
+    /**
+     * Directory of the lease files.
+     */
+    private final Path leaseDir;
+
+    /**
+     * Directory, converted inputs are moved into.
+     */
+    private final Path processedDir;
+
+    /**
+     * Directory, inputs are moved into, that cannot be converted.
+     */
+    private final Path quarantineDir;
+
+    /**
+     * Name of this process, that is written into its lease files and part files.
+     */
+    private final String nodeId;
+
+    /**
+     * Schedules the conversions on the workers within the memory budget.
+     */
+    private final MemoryScheduler scheduler;
+
+    /**
+     * Limits the number of claimed images to the number of workers.
+     */
+    private final Semaphore slots;
+
+    /**
+     * Lease files of the claimed images by their input.
+     */
+    private final Map<Path, Path> leases = new ConcurrentHashMap<>();
+
+    /**
+     * Renews the leases of the claimed images.
+     */
+    private final ScheduledExecutorService heartbeat;
+
+    /**
+     * Signals that the worker has stopped.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Identifies whether the worker is stopping and does not claim new images.
+     */
+    private volatile boolean stopping = false;
+
+    /**
+     * Number of images converted by this process.
+     */
+    private final AtomicLong convertedFiles = new AtomicLong();
+
+    /**
+     * Number of images moved into quarantine by this process.
+     */
+    private final AtomicLong quarantinedFiles = new AtomicLong();
+
+    /**
+     * Number of expired leases taken over by this process.
+     */
+    private final AtomicLong takenOverLeases = new AtomicLong();
+
+    /**
+     * Constructs a worker for a shared queue directory. The subdirectories for leases, processed and quarantined
+     * files are created, if necessary.
+     *
+     * @param converter converter shared by all conversions.
+     * @param template  request, whose work mode, output format and compression settings are used for every image.
+     * @param queueDir  shared queue directory.
+     * @param outDir    directory the converted images are written to.
+     * @param threads   number of images converted at the same time.
+     * @param budget    memory budget of all conversions in bytes.
+     * @param policy    order, in which the claimed images are converted.
+     * @throws IOException if the directories cannot be created.
+     */
+    public SharedQueueWorker(Converter converter, ConversionRequest template, Path queueDir, Path outDir, int threads,
+                             long budget, SchedulingPolicy policy) throws IOException {
+        this.converter = converter;
+        this.template = template;
+        this.outFormat = template.getOutFormat();
+        this.queueDir = queueDir;
+        this.outDir = outDir;
+        this.leaseDir = queueDir.resolve(LEASE_DIR);
+        this.processedDir = queueDir.resolve(FolderWatcher.PROCESSED_DIR);
+        this.quarantineDir = queueDir.resolve(FolderWatcher.QUARANTINE_DIR);
+        this.nodeId = createNodeId();
+
+        if (this.outFormat == null) {
+            throw new IllegalArgumentException("Format of the output images is unknown.");
+        } else if (!Files.isDirectory(queueDir)) {
+            throw new IllegalArgumentException(String.format("Queue %s is not a directory.", queueDir));
+        } else if (Files.exists(outDir) && Files.isSameFile(queueDir, outDir)) {
+            throw new IllegalArgumentException("Converted images cannot be written into the queue directory.");
+        }
+        Files.createDirectories(outDir);
+        Files.createDirectories(this.leaseDir);
+        Files.createDirectories(this.processedDir);
+        Files.createDirectories(this.quarantineDir);
+
+        this.scheduler = new MemoryScheduler(budget, threads, policy);
+        this.slots = new Semaphore(threads);
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the name of this process: its process id and the name of its host.
+     *
+     * @return name, that can be used within a file name.
+     */
+    private static String createNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+
+        return (ProcessHandle.current().pid() + "@" + host).replaceAll("[^A-Za-z0-9@._-]", "_");
+    }
+
+    /**
+     * Returns the name of this process, as written into its lease files.
+     *
+     * @return node id.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Claims and converts images, until the queue directory is empty or the worker is stopped.
+     *
+     * @throws IOException          if the queue directory cannot be listed.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public void run() throws IOException, InterruptedException {
+        this.heartbeat.scheduleAtFixedRate(this::renewLeases, HEARTBEAT_INTERVAL_MILLIS, HEARTBEAT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+
+        try {
+            while (!this.stopping) {
+                List<Path> inputs = this.listInputs();
+                if (inputs.isEmpty()) {
+                    break;
+                }
+
+                // Processes start at different positions, so they rarely compete for the same image.
+                int start = Math.floorMod(this.nodeId.hashCode(), inputs.size());
+                int claimed = 0;
+                for (int i = 0; i < inputs.size() && !this.stopping; i++) {
+                    Path input = inputs.get((start + i) % inputs.size());
+                    if (this.leases.containsKey(input)) {
+                        continue;
+                    }
+
+                    this.slots.acquire();
+                    if (this.claim(input)) {
+                        this.submit(input);
+                        claimed++;
+                    } else {
+                        this.slots.release();
+                    }
+                }
+
+                if (claimed == 0) {
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                }
+            }
+        } finally {
+            this.scheduler.drain(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            this.heartbeat.shutdownNow();
+            this.stopped.countDown();
+        }
+    }
+
+    /**
+     * Stops claiming new images and waits until the claimed images are converted.
+     * Calling this method more than once, or after the queue has been finished, has no further effect.
+     */
+    public void stop() {
+        this.stopping = true;
+
+        try {
+            this.stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of quarantined images.
+     *
+     * @return images, that could not be converted by this process.
+     */
+    public long getQuarantinedFiles() {
+        return this.quarantinedFiles.get();
+    }
+
+    /**
+     * Returns the name of this process, the number of converted and quarantined images, the number of leases taken over
+     * and the memory used by the conversions.
+     *
+     * @return status, one value per line.
+     */
+    public String getStatus() {
+        return String.format("node=%s\nconverted=%d\nquarantined=%d\ntaken-over=%d\n", this.nodeId,
+                this.convertedFiles.get(), this.quarantinedFiles.get(), this.takenOverLeases.get())
+                + this.scheduler.getStatus();
+    }
+
+    /**
+     * Lists the images of the queue directory. Hidden files and files ending with <code>.part</code> or
+     * <code>.tmp</code> are ignored, so writers can rename their files in when they are finished.
+     *
+     * @return images in the queue directory.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private List<Path> listInputs() throws IOException {
+        try (Stream<Path> files = Files.list(this.queueDir)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return !name.startsWith(".") && !name.endsWith(".part") && !name.endsWith(".tmp")
+                        && Files.isRegularFile(file);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Claims an image by creating its lease file, or by taking over its expired lease.
+     *
+     * @param input image to be claimed.
+     * @return true, if the image has been claimed by this process.
+     * @throws IOException if the lease file cannot be written.
+     */
+    private boolean claim(Path input) throws IOException {
+        Path lease = this.leaseDir.resolve(input.getFileName() + LEASE_EXTENSION);
+
+        try {
+            Files.createFile(lease);
+        } catch (FileAlreadyExistsException e) {
+            if (!this.takeOver(lease)) {
+                return false;
+            }
+        }
+        Files.write(lease, this.nodeId.getBytes(StandardCharsets.UTF_8));
+
+        // Another process may have finished the image after it has been listed.
+        if (!Files.isRegularFile(input)) {
+            Files.deleteIfExists(lease);
+            return false;
+        }
+        this.leases.put(input, lease);
+
+        return true;
+    }
+
+    /**
+     * Takes over a lease, if it has expired. The lease is moved away atomically and checked afterwards, whether it is
+     * still the expired one. If another process has taken it over and created a fresh lease in the meantime, the fresh
+     * lease is moved back and the image is left to that process.
+     *
+     * @param lease lease file of the image.
+     * @return true, if this process has created a new lease file.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean takeOver(Path lease) throws IOException {
+        Path expired = this.leaseDir.resolve("." + lease.getFileName() + "." + this.nodeId + ".expired");
+
+        try {
+            FileTime modified = Files.getLastModifiedTime(lease);
+            if (System.currentTimeMillis() - modified.toMillis() < LEASE_TIMEOUT_MILLIS) {
+                return false;
+            }
+
+            byte[] owner = Files.readAllBytes(lease);
+            Files.move(lease, expired, StandardCopyOption.ATOMIC_MOVE);
+            // Renewing the lease changes its modification time, replacing it changes the owner.
+            if (!Files.getLastModifiedTime(expired).equals(modified)
+                    || !Arrays.equals(Files.readAllBytes(expired), owner)) {
+                this.restoreLease(expired, lease);
+                return false;
+            }
+
+            Files.delete(expired);
+            Files.createFile(lease);
+            this.takenOverLeases.incrementAndGet();
+            System.err.println(String.format("Took over expired lease %s of %s", lease.getFileName(),
+                    new String(owner, StandardCharsets.UTF_8)));
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            // The owner has finished, or another process has been faster.
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves a lease back, that has been moved away by mistake, as it was not expired anymore. If a new lease has been
+     * created in the meantime, the moved lease is deleted, and the image may be converted twice.
+     *
+     * @param moved path, the lease has been moved to.
+     * @param lease original path of the lease.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void restoreLease(Path moved, Path lease) throws IOException {
+        try {
+            Files.move(moved, lease);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(moved);
+        }
+    }
+
+    /**
+     * Renews the leases of all claimed images. A lease, that is missing, has been taken over by another process.
+     */
+    private void renewLeases() {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+
+        for (Path lease : this.leases.values()) {
+            try {
+                Files.setLastModifiedTime(lease, now);
+            } catch (IOException e) {
+                System.err.println(String.format("Cannot renew lease %s:\n%s", lease.getFileName(), e));
+            }
+        }
+    }
+
+    /**
+     * Hands a claimed image to the scheduler, together with the memory its conversion needs.
+     *
+     * @param input claimed image.
+     */
+    private void submit(Path input) {
+        ConversionRequest request = new ConversionRequest(this.template);
+        request.setInPath(input);
+        long memory = MemoryScheduler.estimateMemory(this.converter, request);
+
+        this.scheduler.submit(memory, Executors.callable(() -> this.convert(input, request)));
+    }
+
+    /**
+     * Converts a claimed image, moves it out of the queue and releases its lease.
+     *
+     * @param input   claimed image.
+     * @param request request, whose input is the image.
+     */
+    private void convert(Path input, ConversionRequest request) {
+        String name = input.getFileName().toString();
+        Path outFile = this.outDir.resolve(FolderWatcher.getOutName(name, this.outFormat));
+        // A process, that has lost its lease, writes a part file of its own, so two conversions cannot mix.
+        Path partFile = this.outDir.resolve("." + outFile.getFileName() + "." + this.nodeId + ".part");
+
+        try {
+            request.setOutPath(partFile);
+            this.converter.convert(request);
+            Files.move(partFile, outFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.moveOut(input, this.processedDir.resolve(name));
+
+            this.convertedFiles.incrementAndGet();
+            System.out.println(String.format("Converted %s -> %s", input, outFile));
+        } catch (Exception e) {
+            this.fail(input, partFile, e);
+        } finally {
+            this.release(input);
+        }
+    }
+
+    /**
+     * Handles a failed conversion. The image is moved into quarantine, next to a file with the error.
+     *
+     * @param input    image, whose conversion failed.
+     * @param partFile incomplete output of the conversion.
+     * @param error    error of the conversion.
+     */
+    private void fail(Path input, Path partFile, Exception error) {
+        String name = input.getFileName().toString();
+
+        try {
+            Files.deleteIfExists(partFile);
+            if (this.moveOut(input, this.quarantineDir.resolve(name))) {
+                Files.write(this.quarantineDir.resolve(name + ".error"),
+                        (error.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+                this.quarantinedFiles.incrementAndGet();
+                System.err.println(String.format("Conversion of %s failed, moved into quarantine:\n%s", name, error));
+            }
+        } catch (IOException e) {
+            System.err.println(String.format("Cannot move %s after its failed conversion:\n%s", name, e));
+        }
+    }
+
+    /**
+     * Moves an image out of the queue directory.
+     *
+     * @param input  image to be moved.
+     * @param target new path of the image.
+     * @return false, if the image has already been moved by another process, that had taken over its lease.
+     * @throws IOException if the image cannot be moved.
+     */
+    private boolean moveOut(Path input, Path target) throws IOException {
+        try {
+            Files.move(input, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Deletes the lease of an image, unless it has been taken over by another process, and frees its slot.
+     *
+     * @param input image, whose lease is released.
+     */
+    private void release(Path input) {
+        Path lease = this.leases.remove(input);
+
+        try {
+            if (new String(Files.readAllBytes(lease), StandardCharsets.UTF_8).equals(this.nodeId)) {
+                Files.delete(lease);
+            }
+        } catch (NoSuchFileException e) {
+            // The lease has been taken over and released by another process.
+        } catch (IOException e) {
+            System.err.println(String.format("Cannot release lease %s:\n%s", lease.getFileName(), e));
+        } finally {
+            this.slots.release();
+        }
+    }
+}